@@ -0,0 +1,59 @@
+plugins {
+    kotlin("jvm")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+kotlin {
+    jvmToolchain(17)
+}
+
+// The pipeline framework and the audio resamplers do not depend on Android (except for logging,
+// see src/main), so we can compile their sources here and benchmark them on the JVM, without a device.
+val pipelineSources = tasks.register<Sync>("pipelineSources") {
+    from(rootProject.file("lib/src/main/java")) {
+        include("com/otaliastudios/transcoder/backoff/BackoffPolicy.java")
+        include("com/otaliastudios/transcoder/backoff/DefaultBackoffPolicy.java")
+        include("com/otaliastudios/transcoder/internal/pipeline/Pipeline.kt")
+        include("com/otaliastudios/transcoder/internal/pipeline/Scheduler.kt")
+        include("com/otaliastudios/transcoder/internal/pipeline/State.kt")
+        include("com/otaliastudios/transcoder/internal/pipeline/Step.kt")
+        include("com/otaliastudios/transcoder/internal/pipeline/steps.kt")
+        include("com/otaliastudios/transcoder/internal/pipeline/metrics.kt")
+        include("com/otaliastudios/transcoder/internal/utils/Logger.java")
+        include("com/otaliastudios/transcoder/internal/utils/logging.kt")
+        include("com/otaliastudios/transcoder/resample/*AudioResampler.java")
+        include("com/otaliastudios/transcoder/stretch/*AudioStretcher.java")
+        include("com/otaliastudios/transcoder/internal/audio/remix/*AudioRemixer.*")
+        include("com/otaliastudios/transcoder/internal/audio/AudioKernel.kt")
+        include("com/otaliastudios/transcoder/internal/audio/shorts.kt")
+    }
+    into(layout.buildDirectory.dir("generated/pipeline"))
+}
+
+sourceSets.main {
+    java.srcDir(pipelineSources)
+    kotlin.srcDir(pipelineSources)
+}
+
+// Benchmarks use internal classes.
+kotlin.target.compilations.getByName("jmh").associateWith(kotlin.target.compilations.getByName("main"))
+
+dependencies {
+    compileOnly("androidx.annotation:annotation:1.8.2")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    benchmarkMode.set(listOf("avgt"))
+    timeUnit.set("ns")
+    warmupIterations.set(3)
+    warmup.set("1s")
+    iterations.set(5)
+    timeOnIteration.set("1s")
+    fork.set(1)
+    resultFormat.set("JSON")
+    // Use -Pjmh.includes=<regex> to run a subset of benchmarks.
+    providers.gradleProperty("jmh.includes").orNull?.let { includes.set(listOf(it)) }
+    // Use -Pjmh.profilers=gc to measure allocations.
+    providers.gradleProperty("jmh.profilers").orNull?.let { profilers.set(it.split(",")) }
+}
@@ -0,0 +1,67 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.audio.AudioKernel
+import com.otaliastudios.transcoder.internal.audio.remix.AudioRemixer
+import com.otaliastudios.transcoder.resample.DefaultAudioResampler
+import com.otaliastudios.transcoder.stretch.DefaultAudioStretcher
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Measures the cost of processing one decoder buffer (1024 frames) into an encoder buffer,
+ * comparing the staged path (one buffer per operation) with the fused one.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class AudioKernelBenchmark {
+
+    // Input channels, input rate, output channels, output rate, stretch.
+    @Param("2:44100:2:44100:1.0", "2:44100:1:44100:1.0", "1:44100:2:44100:0.5", "2:48000:2:44100:1.0", "6:48000:2:48000:1.0")
+    lateinit var config: String
+
+    private lateinit var kernel: AudioKernel
+    private lateinit var input: ShortBuffer
+    private lateinit var output: ShortBuffer
+    private var stretchSize = 0
+
+    private fun shorts(size: Int) = ByteBuffer.allocateDirect(size * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+
+    @Setup
+    fun setup() {
+        val values = config.split(":")
+        val inChannels = values[0].toInt()
+        val outChannels = values[2].toInt()
+        kernel = AudioKernel(DefaultAudioStretcher(), AudioRemixer[inChannels, outChannels], DefaultAudioResampler(),
+                inChannels, values[1].toInt(), outChannels, values[3].toInt())
+        val random = Random(0)
+        input = shorts(1024 * inChannels)
+        repeat(input.capacity()) { input.put(random.nextInt(-20000, 20000).toShort()) }
+        stretchSize = (input.capacity() * values[4].toDouble()).toInt()
+        output = shorts(4 * 1024 * outChannels)
+    }
+
+    @Benchmark
+    fun staged(): ShortBuffer {
+        input.clear()
+        output.clear()
+        kernel.staged(input, stretchSize, output)
+        return output
+    }
+
+    @Benchmark
+    fun fused(): ShortBuffer {
+        input.clear()
+        output.clear()
+        kernel.fused(input, stretchSize, output)
+        return output
+    }
+}
@@ -0,0 +1,42 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.v
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Measures the cost of verbose log calls when verbose logging is disabled,
+ * as it is in production. The pipeline makes a few of these calls per step, per sample.
+ */
+@State(Scope.Thread)
+open class LoggingBenchmark {
+
+    private lateinit var log: Logger
+    private val name = "3/7 'VideoEncoder'"
+    private var packets = 0
+    private val pending = ArrayDeque<Any>()
+
+    @Setup
+    fun setup() {
+        Logger.setLogLevel(Logger.LEVEL_ERROR)
+        log = Logger("Benchmark")
+    }
+
+    @Benchmark
+    fun constantMessage() {
+        log.v("LOOP")
+    }
+
+    @Benchmark
+    fun templateMessage() {
+        log.v("$name START #${packets++} (${pending.size} pending)")
+    }
+
+    @Benchmark
+    fun lazyTemplateMessage() {
+        log.v { "$name START #${packets++} (${pending.size} pending)" }
+    }
+}
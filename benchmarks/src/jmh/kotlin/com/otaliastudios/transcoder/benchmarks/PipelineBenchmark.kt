@@ -0,0 +1,55 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.pipeline.Pipeline
+import com.otaliastudios.transcoder.internal.pipeline.PipelineMetrics
+import com.otaliastudios.transcoder.internal.pipeline.plus
+import com.otaliastudios.transcoder.internal.utils.Logger
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * Measures the cost of moving one sample through a pipeline made of a source, a decoder,
+ * some pass-through steps, an encoder and a sink, like a real transcoding pipeline.
+ * Codecs are fake and have no latency, so each [execute] call moves exactly one sample
+ * from the source to the sink: the score is the framework overhead per sample.
+ *
+ * The cost of a single step (PipelineItem.handle) is the slope of the score with respect to [transforms].
+ */
+@JmhState(Scope.Thread)
+open class PipelineBenchmark {
+
+    @Param("0", "2", "6")
+    var transforms = 0
+
+    @Param("false", "true")
+    var observed = false
+
+    private lateinit var pipeline: Pipeline
+    private lateinit var sink: FakeSink
+
+    @Setup(Level.Trial)
+    fun setup() {
+        Logger.setLogLevel(Logger.LEVEL_ERROR)
+        sink = FakeSink()
+        pipeline = Pipeline.build("Benchmark") {
+            var builder = FakeSource() + FakeCodec<BufferChannel>("FakeDecoder")
+            repeat(transforms) { builder += FakeTransform("FakeTransform$it") }
+            builder + FakeCodec("FakeEncoder") + sink
+        }
+        if (observed) pipeline.observer = PipelineMetrics()
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        pipeline.release()
+        check(sink.bytes > 0) { "No data reached the sink." }
+    }
+
+    @Benchmark
+    fun execute(): Any = pipeline.execute()
+}
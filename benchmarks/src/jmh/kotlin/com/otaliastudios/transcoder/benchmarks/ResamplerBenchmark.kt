@@ -0,0 +1,64 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.resample.AudioResampler
+import com.otaliastudios.transcoder.resample.PolyphaseAudioResampler
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ShortBuffer
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * Measures the cost of resampling one second of audio, in chunks of 1024 frames like
+ * a decoder would output. The realtime factor is 1000 divided by the score in ms.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ResamplerBenchmark {
+
+    // Input and output rates.
+    @Param("48000:44100", "44100:48000", "48000:16000", "44100:47999")
+    lateinit var rates: String
+
+    @Param("2", "6")
+    var channels = 0
+
+    private var inputRate = 0
+    private var outputRate = 0
+    private lateinit var input: ShortBuffer
+    private lateinit var output: ShortBuffer
+    private lateinit var polyphase: AudioResampler
+
+    @Setup
+    fun setup() {
+        inputRate = rates.substringBefore(":").toInt()
+        outputRate = rates.substringAfter(":").toInt()
+        input = ShortBuffer.allocate(inputRate * channels)
+        for (i in 0 until input.capacity()) {
+            input.put(i, (10000 * sin(2 * PI * 1000 * (i / channels) / inputRate)).toInt().toShort())
+        }
+        output = ShortBuffer.allocate(2 * outputRate * channels)
+        polyphase = PolyphaseAudioResampler()
+    }
+
+    private fun run(resampler: AudioResampler): ShortBuffer {
+        output.clear()
+        val chunk = 1024 * channels
+        var position = 0
+        while (position < input.capacity()) {
+            input.limit(minOf(position + chunk, input.capacity()))
+            input.position(position)
+            resampler.resample(input, inputRate, output, outputRate, channels)
+            position = input.limit()
+        }
+        return output
+    }
+
+    @Benchmark
+    fun polyphase() = run(polyphase)
+}
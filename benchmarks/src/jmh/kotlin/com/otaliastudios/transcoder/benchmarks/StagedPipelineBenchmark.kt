@@ -0,0 +1,129 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.pipeline.BaseStep
+import com.otaliastudios.transcoder.internal.pipeline.Channel
+import com.otaliastudios.transcoder.internal.pipeline.Pipeline
+import com.otaliastudios.transcoder.internal.pipeline.QueuedStep
+import com.otaliastudios.transcoder.internal.pipeline.Scheduler
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.pipeline.plus
+import com.otaliastudios.transcoder.internal.utils.Logger
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State as JmhState
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Measures the time needed to move [PACKETS] packets through a pipeline of steps that block
+ * for a given time on each packet, like codec calls do, in serial and [staged] mode.
+ * Serial pipelines take about the sum of the step latencies per packet, staged ones
+ * about the largest latency, as long as the other stages keep up.
+ */
+@JmhState(Scope.Thread)
+open class StagedPipelineBenchmark {
+
+    // Latency of each step, in microseconds.
+    @Param("1000,1000,1000", "2000,500,500", "500,500,2000")
+    var latencies = ""
+
+    @Param("false", "true")
+    var staged = false
+
+    private lateinit var latenciesUs: List<Long>
+
+    @Setup(Level.Trial)
+    fun setup() {
+        Logger.setLogLevel(Logger.LEVEL_ERROR)
+        latenciesUs = latencies.split(",").map { it.trim().toLong() }
+    }
+
+    @Benchmark
+    fun run(): Int {
+        val sink = PacketSink()
+        val pipeline = Pipeline.build("Benchmark", staged = staged) {
+            var builder = PacketSource(PACKETS) + Work("Work0", latenciesUs.first())
+            latenciesUs.drop(1).forEachIndexed { i, latency -> builder += Work("Work${i + 1}", latency) }
+            builder + sink
+        }
+        // Same loop as Segment and the transcode engine.
+        val wakeup = pipeline.wakeup
+        val scheduler = Scheduler()
+        try {
+            while (true) {
+                if (!wakeup.isReady()) scheduler.await(wakeup)
+                wakeup.consume()
+                val state = pipeline.execute()
+                if (state is State.Eos) break
+                if (state is State.Failure && state.sleep) wakeup.park() else wakeup.reset()
+            }
+        } finally {
+            pipeline.release()
+        }
+        check(sink.count == PACKETS) { "Expected $PACKETS packets, got ${sink.count}." }
+        return sink.count
+    }
+
+    private interface PacketChannel : Channel
+
+    /**
+     * Emits [count] packets, the last one as EOS.
+     */
+    private class PacketSource(private val count: Int) : BaseStep<Unit, Channel, Int, PacketChannel>("PacketSource") {
+        override val channel = Channel
+        private var emitted = 0
+
+        override fun advance(state: State.Ok<Unit>): State<Int> {
+            emitted++
+            return if (emitted == count) State.Eos(emitted) else State.Ok(emitted)
+        }
+    }
+
+    /**
+     * Blocks for [latencyUs] on each packet, like a codec call.
+     */
+    private class Work(name: String, private val latencyUs: Long) : QueuedStep<Int, PacketChannel, Int, PacketChannel>(name), PacketChannel {
+        override val channel = this
+        private val pending = ArrayDeque<State.Ok<Int>>()
+
+        private fun process() {
+            val deadlineNs = System.nanoTime() + latencyUs * 1000
+            while (true) {
+                val leftNs = deadlineNs - System.nanoTime()
+                if (leftNs <= 0) break
+                LockSupport.parkNanos(leftNs)
+            }
+        }
+
+        override fun enqueue(data: Int) {
+            process()
+            pending.addLast(State.Ok(data))
+        }
+
+        override fun enqueueEos(data: Int) {
+            process()
+            pending.addLast(State.Eos(data))
+        }
+
+        override fun drain(): State<Int> {
+            return pending.removeFirstOrNull() ?: State.Retry(false)
+        }
+    }
+
+    private class PacketSink : BaseStep<Int, PacketChannel, Unit, Channel>("PacketSink") {
+        override val channel = object : PacketChannel {}
+        var count = 0
+            private set
+
+        override fun advance(state: State.Ok<Int>): State<Unit> {
+            count++
+            return if (state is State.Eos) State.Eos(Unit) else State.Ok(Unit)
+        }
+    }
+
+    companion object {
+        private const val PACKETS = 50
+    }
+}
@@ -0,0 +1,30 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.pipeline.State
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State as JmhState
+
+/**
+ * Measures the cost of the [State] objects that steps return on each call.
+ * Run with -Pjmh.profilers=gc to see the allocation rate.
+ */
+@JmhState(Scope.Thread)
+open class StateBenchmark {
+
+    private val value = Any()
+    private val cachedOk = State.Ok(value)
+    private val cachedRetry = State.Retry(false)
+
+    @Benchmark
+    fun allocateOk(): Any = State.Ok(value)
+
+    @Benchmark
+    fun allocateRetry(): Any = State.Retry(false)
+
+    @Benchmark
+    fun cachedOk(): Any = cachedOk
+
+    @Benchmark
+    fun cachedRetry(): Any = cachedRetry
+}
@@ -0,0 +1,62 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.stretch.AudioStretcher
+import com.otaliastudios.transcoder.stretch.WsolaAudioStretcher
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ShortBuffer
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.ceil
+import kotlin.math.sin
+
+/**
+ * Measures the cost of stretching one second of 48kHz audio, in chunks of 1024 frames like
+ * a decoder would output. The realtime factor is 1000 divided by the score in ms.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class StretcherBenchmark {
+
+    // Output duration over input duration.
+    @Param("0.5", "1.0", "1.5", "4.0")
+    var stretch = 0.0
+
+    @Param("1", "2")
+    var channels = 0
+
+    private lateinit var input: ShortBuffer
+    private lateinit var output: ShortBuffer
+    private lateinit var wsola: AudioStretcher
+
+    @Setup
+    fun setup() {
+        input = ShortBuffer.allocate(48000 * channels)
+        for (i in 0 until input.capacity()) {
+            input.put(i, (10000 * sin(2 * PI * 220 * (i / channels) / 48000)).toInt().toShort())
+        }
+        output = ShortBuffer.allocate(ceil(1024 * channels * stretch).toInt())
+        wsola = WsolaAudioStretcher()
+    }
+
+    private fun run(stretcher: AudioStretcher): ShortBuffer {
+        val chunk = 1024 * channels
+        var position = 0
+        while (position < input.capacity()) {
+            input.limit(minOf(position + chunk, input.capacity()))
+            input.position(position)
+            output.clear()
+            output.limit(ceil(input.remaining() * stretch).toInt())
+            stretcher.stretch(input, output, channels)
+            position = input.limit()
+        }
+        return output
+    }
+
+    @Benchmark
+    fun wsola() = run(wsola)
+}
@@ -0,0 +1,92 @@
+package com.otaliastudios.transcoder.benchmarks
+
+import com.otaliastudios.transcoder.internal.pipeline.BaseStep
+import com.otaliastudios.transcoder.internal.pipeline.Channel
+import com.otaliastudios.transcoder.internal.pipeline.QueuedStep
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.pipeline.TransformStep
+import java.nio.ByteBuffer
+
+/**
+ * Fake media sample, like the data that flows between Reader, Decoder and Encoder.
+ */
+internal class FakeSample(val buffer: ByteBuffer, val timeUs: Long)
+
+/**
+ * Channel of steps that own input buffers, like codecs.
+ */
+internal interface BufferChannel : Channel {
+    fun buffer(): ByteBuffer?
+}
+
+/**
+ * Emits samples forever, like a Reader that never ends. Like the real reader,
+ * it asks the next step for a buffer and fills it.
+ */
+internal class FakeSource : BaseStep<Unit, Channel, FakeSample, BufferChannel>("FakeSource") {
+    override val channel = Channel
+    private var timeUs = 0L
+
+    override fun advance(state: State.Ok<Unit>): State<FakeSample> {
+        val buffer = next.buffer() ?: return State.Retry(false)
+        buffer.clear()
+        buffer.putLong(timeUs)
+        buffer.flip()
+        timeUs += FRAME_US
+        return State.Ok(FakeSample(buffer, timeUs))
+    }
+
+    companion object {
+        private const val FRAME_US = 33_333L
+    }
+}
+
+/**
+ * A codec with no latency: each input sample is available as output right away.
+ * It has a single input buffer, which is reused.
+ */
+internal class FakeCodec<C: Channel>(name: String) : QueuedStep<FakeSample, BufferChannel, FakeSample, C>(name), BufferChannel {
+    override val channel = this
+    private val input = ByteBuffer.allocateDirect(SIZE)
+    private val pending = ArrayDeque<FakeSample>()
+
+    override fun buffer(): ByteBuffer = input
+
+    override fun enqueue(data: FakeSample) {
+        pending.addLast(data)
+    }
+
+    override fun enqueueEos(data: FakeSample) {
+        pending.addLast(data)
+    }
+
+    override fun drain(): State<FakeSample> {
+        val sample = pending.removeFirstOrNull() ?: return State.Retry(false)
+        return State.Ok(sample)
+    }
+
+    companion object {
+        private const val SIZE = 64
+    }
+}
+
+/**
+ * Passes samples through, like the renderers or the audio engine do when there's nothing to do.
+ */
+internal class FakeTransform<C: Channel>(name: String) : TransformStep<FakeSample, C>(name) {
+    override fun advance(state: State.Ok<FakeSample>): State<FakeSample> = State.Ok(state.value)
+}
+
+/**
+ * Consumes samples, like a Writer.
+ */
+internal class FakeSink : BaseStep<FakeSample, Channel, Unit, Channel>("FakeSink") {
+    override val channel = Channel
+    var bytes = 0L
+        private set
+
+    override fun advance(state: State.Ok<FakeSample>): State<Unit> {
+        bytes += state.value.buffer.remaining()
+        return State.Ok(Unit)
+    }
+}
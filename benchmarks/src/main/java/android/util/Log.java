@@ -0,0 +1,25 @@
+package android.util;
+
+/**
+ * Minimal replacement of the Android logger, so that the pipeline sources
+ * can run on the JVM. Messages are printed to the standard error.
+ */
+@SuppressWarnings("unused")
+public final class Log {
+
+    private Log() {}
+
+    public static int v(String tag, String msg, Throwable tr) { return print("V", tag, msg, tr); }
+
+    public static int i(String tag, String msg, Throwable tr) { return print("I", tag, msg, tr); }
+
+    public static int w(String tag, String msg, Throwable tr) { return print("W", tag, msg, tr); }
+
+    public static int e(String tag, String msg, Throwable tr) { return print("E", tag, msg, tr); }
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        System.err.println(level + "/" + tag + ": " + msg);
+        if (tr != null) tr.printStackTrace();
+        return 0;
+    }
+}
@@ -1,5 +1,6 @@
 plugins {
     kotlin("android") version "2.0.0" apply false
+    kotlin("jvm") version "2.0.0" apply false
     id("com.android.library") version "8.2.2" apply false
     id("com.android.application") version "8.2.2" apply false
     id("io.deepmedia.tools.deployer") version "0.14.0" apply false
@@ -17,6 +17,7 @@ android {
     }
     testOptions {
         targetSdk = 23
+        unitTests.isReturnDefaultValues = true
     }
     publishing {
         singleVariant("release")
@@ -31,6 +32,8 @@ dependencies {
     api("com.otaliastudios.opengl:egloo:0.6.1")
     api("androidx.annotation:annotation:1.8.2")
 
+    testImplementation("junit:junit:4.13.2")
+
     androidTestImplementation("androidx.test:runner:1.6.1")
     androidTestImplementation("androidx.test:rules:1.6.1")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
@@ -0,0 +1,45 @@
+package com.otaliastudios.transcoder.integration
+
+import android.media.MediaMetadataRetriever
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.strategy.DefaultVideoStrategy
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Consecutive segments with the same video format share the decoder. The second segment
+ * takes it over after the first segment's surface was released.
+ */
+@RunWith(AndroidJUnit4::class)
+class DecoderReuseTests {
+
+    private fun durationMs(file: File): Long {
+        val retriever = MediaMetadataRetriever()
+        return try {
+            retriever.setDataSource(file.absolutePath)
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)!!.toLong()
+        } finally {
+            retriever.release()
+        }
+    }
+
+    @Test(timeout = 30000)
+    fun testParkedDecoder_reusedAcrossSegments() = with(IssuesTests.Helper(102)) {
+        val strategy = DefaultVideoStrategy.exact(320, 240).build()
+        val single = transcode {
+            addDataSource(TrackType.VIDEO, input("sample.mp4"))
+            setVideoTrackStrategy(strategy)
+        }
+        val double = transcode {
+            addDataSource(TrackType.VIDEO, input("sample.mp4"))
+            addDataSource(TrackType.VIDEO, input("sample.mp4"))
+            setVideoTrackStrategy(strategy)
+        }
+        // The second segment was decoded too, not just the first one.
+        val expected = 2 * durationMs(single)
+        val actual = durationMs(double)
+        check(actual > expected * 0.9) { "Expected about ${expected}ms, got ${actual}ms" }
+    }
+}
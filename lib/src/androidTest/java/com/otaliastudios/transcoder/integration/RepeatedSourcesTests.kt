@@ -0,0 +1,40 @@
+package com.otaliastudios.transcoder.integration
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.validator.WriteAlwaysValidator
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class RepeatedSourcesTests {
+
+    @Test(timeout = 16000)
+    fun testRepeatedSource() = with(IssuesTests.Helper(102)) {
+        transcode {
+            val source = input("sample.mp4")
+            addDataSource(source)
+            addDataSource(source)
+            setValidator(WriteAlwaysValidator())
+        }
+        Unit
+    }
+
+    @Test(timeout = 16000)
+    fun testRepeatedSources_differentOrder_fails() = with(IssuesTests.Helper(102)) {
+        val result = runCatching {
+            transcode(assertDuration = false) {
+                val first = input("sample.mp4")
+                val second = input("sample.mp4")
+                addDataSource(TrackType.VIDEO, first)
+                addDataSource(TrackType.VIDEO, second)
+                addDataSource(TrackType.VIDEO, first)
+                addDataSource(TrackType.AUDIO, second)
+                addDataSource(TrackType.AUDIO, first)
+                addDataSource(TrackType.AUDIO, second)
+            }
+        }
+        val causes = generateSequence(result.exceptionOrNull()) { it.cause }
+        check(causes.any { it is IllegalArgumentException }) { "Expected a failure, got $result" }
+    }
+}
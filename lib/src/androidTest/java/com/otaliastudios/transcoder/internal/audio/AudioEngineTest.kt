@@ -0,0 +1,69 @@
+package com.otaliastudios.transcoder.internal.audio
+
+import android.media.MediaFormat
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.SmallTest
+import com.otaliastudios.transcoder.internal.Codecs
+import com.otaliastudios.transcoder.internal.codec.DecoderData
+import com.otaliastudios.transcoder.internal.codec.EncoderChannel
+import com.otaliastudios.transcoder.internal.codec.EncoderData
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.resample.DefaultAudioResampler
+import com.otaliastudios.transcoder.stretch.DefaultAudioStretcher
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+@RunWith(AndroidJUnit4::class)
+@SmallTest
+class AudioEngineTest {
+
+    private fun format(channels: Int) = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, 48000, channels)
+
+    private fun buffer(bytes: Int) = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder())
+
+    private class FakeEncoder(private val buffer: ByteBuffer) : EncoderChannel {
+        override val surface: Codecs.Surface? = null
+        override fun buffer(): Pair<ByteBuffer, Int> {
+            buffer.clear()
+            return buffer to 0
+        }
+    }
+
+    @Test
+    fun testSlowDown_sixChannels() {
+        val channels = 6
+        val frames = 1024
+        val engine = AudioEngine(DefaultAudioStretcher(), DefaultAudioResampler(), format(channels))
+        engine.initialize(FakeEncoder(buffer(4 * frames * channels * 2)))
+        engine.handleRawFormat(format(channels))
+
+        // Each channel has its own range, so that we can tell if frames got misaligned.
+        val input = buffer(frames * channels * 2)
+        val shorts = input.asShortBuffer()
+        repeat(frames) { f -> repeat(channels) { c -> shorts.put((1000 * (c + 1) + f % 100).toShort()) } }
+        val data = DecoderData(input, 0L) { }
+        data.timeStretch = 2.0
+
+        val state = engine.advance(State.Ok(data))
+        assertTrue(state is State.Ok)
+        val output = (state as State.Ok<EncoderData>).value.buffer!!.asShortBuffer()
+        assertEquals(2 * frames * channels, output.remaining())
+
+        var real = 0
+        repeat(2 * frames) {
+            val frame = ShortArray(channels) { output.get() }
+            if (frame[0] >= 1000) {
+                frame.forEachIndexed { c, value -> assertEquals(1000 * (c + 1), value / 1000 * 1000) }
+                real++
+            } else {
+                // Inserted noise.
+                frame.forEach { assertTrue(it in 0 until 1000) }
+            }
+        }
+        assertEquals(frames, real)
+    }
+}
@@ -0,0 +1,107 @@
+package com.otaliastudios.transcoder.source
+
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.otaliastudios.transcoder.common.TrackType
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+@RunWith(AndroidJUnit4::class)
+class SharedExtractorTest {
+
+    private lateinit var file: File
+    private var opened = 0
+
+    private val opener = SharedExtractor.Opener {
+        opened++
+        MediaExtractor().apply { setDataSource(file.absolutePath) }
+    }
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().context
+        file = File(context.cacheDir, "shared_extractor.mp4")
+        context.assets.open("issue_102/sample.mp4").use { input ->
+            file.outputStream().use { input.copyTo(it) }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun testSameKeySharesExtractor() {
+        val first = SharedExtractor.acquire("key", opener)
+        val second = SharedExtractor.acquire("key", opener)
+        assertSame(first, second)
+        assertEquals(1, opened)
+        SharedExtractor.release(first)
+        SharedExtractor.release(second)
+        // Released with the last reference: the next acquire opens a new one.
+        val third = SharedExtractor.acquire("key", opener)
+        assertNotSame(first, third)
+        assertEquals(2, opened)
+        SharedExtractor.release(third)
+    }
+
+    @Test
+    fun testBorrowIsExclusive() {
+        val shared = SharedExtractor.acquire("key", opener)
+        val first = Any()
+        val second = Any()
+        assertNotNull(shared.borrow(first))
+        assertNotNull(shared.borrow(first))
+        assertNull(shared.borrow(second))
+        shared.giveBack(first)
+        assertNotNull(shared.borrow(second))
+        shared.giveBack(second)
+        SharedExtractor.release(shared)
+    }
+
+    @Test
+    fun testFormatsAreNotShared() {
+        val shared = SharedExtractor.acquire("key", opener)
+        val first = shared.getFormats()
+        val second = shared.getFormats()
+        assertTrue(first.isNotEmpty())
+        for (i in first.indices) {
+            assertNotSame(first[i], second[i])
+            first[i].setInteger("test", 1)
+            assertTrue(!second[i].containsKey("test"))
+        }
+        SharedExtractor.release(shared)
+    }
+
+    @Test
+    fun testSourcesModifyTheirOwnFormat() {
+        // Like VideoRenderer does for the first of two clips cut from the same file.
+        val first = FilePathDataSource(file.absolutePath)
+        val second = FilePathDataSource(file.absolutePath)
+        first.initialize()
+        second.initialize()
+        val type = if (first.getTrackFormat(TrackType.VIDEO) != null) TrackType.VIDEO else TrackType.AUDIO
+        val format = first.getTrackFormat(type)!!
+        val other = second.getTrackFormat(type)!!
+        assertNotSame(format, other)
+        format.setInteger(MediaFormat.KEY_ROTATION_DEGREES, 12345)
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, 12345)
+        for (key in listOf(MediaFormat.KEY_ROTATION_DEGREES, MediaFormat.KEY_FRAME_RATE)) {
+            assertTrue(!other.containsKey(key) || other.getInteger(key) != 12345)
+        }
+        first.deinitialize()
+        second.deinitialize()
+    }
+}
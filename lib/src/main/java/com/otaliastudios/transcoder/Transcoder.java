@@ -18,11 +18,13 @@ package com.otaliastudios.transcoder;
 import android.os.Build;
 
 import com.otaliastudios.transcoder.internal.transcode.TranscodeEngine;
+import com.otaliastudios.transcoder.internal.transcode.TranscodeQueue;
 import com.otaliastudios.transcoder.internal.utils.ThreadPool;
 import com.otaliastudios.transcoder.sink.DataSink;
 import com.otaliastudios.transcoder.validator.Validator;
 
 import java.io.FileDescriptor;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
@@ -90,6 +92,8 @@ public class Transcoder {
 
     /**
      * Transcodes video file asynchronously.
+     * The job starts right away, without waiting for free codecs. To queue many jobs,
+     * see {@link #enqueue(List)}.
      *
      * @param options The transcoder options.
      * @return a Future that completes when transcoding is completed
@@ -105,4 +109,30 @@ public class Transcoder {
         });
     }
 
+    /**
+     * Transcodes a batch of video files asynchronously.
+     *
+     * Jobs are started only when the device has enough free codec instances to run them,
+     * as reported by the codec capabilities, because starting too many at once can make
+     * codec allocation fail in the middle of a job. Waiting jobs start in order of
+     * {@link TranscoderOptions.Builder#setPriority(int)}, then in order of arrival.
+     * Their position is reported to {@link TranscoderOptions.Builder#setQueueListener(TranscoderQueueListener)}.
+     *
+     * The number of free codecs is an estimate. Each job is assumed to need one decoder and one
+     * encoder for each track that has sources (two decoders if the track has many sources),
+     * even if a track is later passed through or removed. The device capacity is the maximum
+     * number of instances reported by the first AVC and AAC codecs on API 23+, whatever the
+     * formats used by each job, and the number of processors plus one on older devices.
+     * Codecs that are kept alive for reuse count as busy. A job that needs more than the
+     * whole capacity still runs, but alone. Jobs started with {@link #transcode(TranscoderOptions)}
+     * are not counted.
+     *
+     * @param options The options of each job.
+     * @return a Future for each job, in the same order, that completes when the job is completed
+     */
+    @NonNull
+    public List<Future<Void>> enqueue(@NonNull List<TranscoderOptions> options) {
+        return TranscodeQueue.submit(options);
+    }
+
 }
@@ -7,6 +7,8 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.otaliastudios.transcoder.backoff.BackoffPolicy;
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy;
 import com.otaliastudios.transcoder.common.TrackType;
 import com.otaliastudios.transcoder.resample.AudioResampler;
 import com.otaliastudios.transcoder.resample.DefaultAudioResampler;
@@ -29,6 +31,7 @@ import com.otaliastudios.transcoder.time.TimeInterpolator;
 import com.otaliastudios.transcoder.validator.DefaultValidator;
 import com.otaliastudios.transcoder.validator.Validator;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.util.ArrayList;
 import java.util.List;
@@ -55,6 +58,13 @@ public class TranscoderOptions {
     private TimeInterpolator timeInterpolator;
     private AudioStretcher audioStretcher;
     private AudioResampler audioResampler;
+    private boolean parallelTracks;
+    private boolean stagedPipelines;
+    private TranscoderReportListener reportListener;
+    private File traceFile;
+    private BackoffPolicy backoffPolicy;
+    private int priority;
+    private TranscoderQueueListener queueListener;
     private TranscoderListener listener;
     private Handler listenerHandler;
 
@@ -117,6 +127,38 @@ public class TranscoderOptions {
         return audioResampler;
     }
 
+    public boolean isParallelTracks() {
+        return parallelTracks;
+    }
+
+    public boolean isStagedPipelines() {
+        return stagedPipelines;
+    }
+
+    @Nullable
+    public TranscoderReportListener getReportListener() {
+        return reportListener;
+    }
+
+    @Nullable
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    @NonNull
+    public BackoffPolicy getBackoffPolicy() {
+        return backoffPolicy;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @Nullable
+    public TranscoderQueueListener getQueueListener() {
+        return queueListener;
+    }
+
     public static class Builder {
         private final DataSink dataSink;
         private final List<DataSource> audioDataSources = new ArrayList<>();
@@ -130,6 +172,13 @@ public class TranscoderOptions {
         private TimeInterpolator timeInterpolator;
         private AudioStretcher audioStretcher;
         private AudioResampler audioResampler;
+        private boolean parallelTracks;
+        private boolean stagedPipelines;
+        private TranscoderReportListener reportListener;
+        private File traceFile;
+        private BackoffPolicy backoffPolicy;
+        private int priority;
+        private TranscoderQueueListener queueListener;
 
         Builder(@NonNull String outPath) {
             this.dataSink = new DefaultDataSink(outPath);
@@ -323,8 +372,9 @@ public class TranscoderOptions {
 
         /**
          * Sets an {@link AudioResampler} to change the sample rate of audio
-         * frames when sample rate conversion is needed. Upsampling is discouraged.
-         * Defaults to {@link DefaultAudioResampler}.
+         * frames when sample rate conversion is needed.
+         * Defaults to {@link DefaultAudioResampler}. For better quality, use a
+         * {@link com.otaliastudios.transcoder.resample.PolyphaseAudioResampler}.
          *
          * @param audioResampler an audio resampler
          * @return this for chaining
@@ -335,6 +385,115 @@ public class TranscoderOptions {
             return this;
         }
 
+        /**
+         * Whether audio and video should be transcoded in parallel, each on its own thread,
+         * instead of alternating on the same thread. This can be faster on multi-core devices,
+         * since a slow codec in one track does not block the other. Samples are then merged
+         * in presentation time order before reaching the {@link DataSink}.
+         * Defaults to false.
+         *
+         * @param parallelTracks true to transcode tracks in parallel
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("WeakerAccess")
+        public Builder setParallelTracks(boolean parallelTracks) {
+            this.parallelTracks = parallelTracks;
+            return this;
+        }
+
+        /**
+         * Whether the decoding and encoding loops of each track should run on dedicated threads,
+         * exchanging data through small bounded queues. This keeps both codecs busy at the same
+         * time, instead of waiting for each other. Steps that need OpenGL keep running on the
+         * transcoding thread. Defaults to false.
+         *
+         * @param stagedPipelines true to run pipeline stages on dedicated threads
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("WeakerAccess")
+        public Builder setStagedPipelines(boolean stagedPipelines) {
+            this.stagedPipelines = stagedPipelines;
+            return this;
+        }
+
+        /**
+         * Sets a listener that receives a {@link TranscoderReport} when transcoding succeeds,
+         * with frame counts, bytes and stall times of each track. This can help understanding
+         * where time is spent on a given device. Defaults to null, which means that
+         * no report is collected.
+         *
+         * @param reportListener a report listener
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("WeakerAccess")
+        public Builder setReportListener(@Nullable TranscoderReportListener reportListener) {
+            this.reportListener = reportListener;
+            return this;
+        }
+
+        /**
+         * Sets a file where a trace of the operation is written, in the Chrome trace event
+         * format. It can be opened in chrome://tracing or https://ui.perfetto.dev to see
+         * how long each pipeline step, codec and segment operation took, and on which thread.
+         * Defaults to null, which means that no trace is recorded.
+         *
+         * @param traceFile the trace output file
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("WeakerAccess")
+        public Builder setTraceFile(@Nullable File traceFile) {
+            this.traceFile = traceFile;
+            return this;
+        }
+
+        /**
+         * Sets a {@link BackoffPolicy} that decides how long we wait for codecs that
+         * have no buffers available, and how long idle pipelines are parked.
+         * Defaults to {@link DefaultBackoffPolicy}, which adapts to each codec.
+         *
+         * @param backoffPolicy a backoff policy
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("unused")
+        public Builder setBackoffPolicy(@NonNull BackoffPolicy backoffPolicy) {
+            this.backoffPolicy = backoffPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the priority of this job in the transcoding queue. Jobs with a higher
+         * priority start first, jobs with the same priority start in order.
+         * Defaults to 0.
+         *
+         * @param priority the job priority
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("unused")
+        public Builder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets a listener that receives the position of this job in the transcoding queue,
+         * while it waits for free codecs. Defaults to null.
+         *
+         * @param queueListener a queue listener
+         * @return this for chaining
+         */
+        @NonNull
+        @SuppressWarnings("unused")
+        public Builder setQueueListener(@Nullable TranscoderQueueListener queueListener) {
+            this.queueListener = queueListener;
+            return this;
+        }
+
 
         @NonNull
         public TranscoderOptions build() {
@@ -370,6 +529,9 @@ public class TranscoderOptions {
             if (audioResampler == null) {
                 audioResampler = new DefaultAudioResampler();
             }
+            if (backoffPolicy == null) {
+                backoffPolicy = new DefaultBackoffPolicy();
+            }
             TranscoderOptions options = new TranscoderOptions();
             options.listener = listener;
             options.audioDataSources = audioDataSources;
@@ -383,6 +545,13 @@ public class TranscoderOptions {
             options.timeInterpolator = timeInterpolator;
             options.audioStretcher = audioStretcher;
             options.audioResampler = audioResampler;
+            options.parallelTracks = parallelTracks;
+            options.stagedPipelines = stagedPipelines;
+            options.reportListener = reportListener;
+            options.traceFile = traceFile;
+            options.backoffPolicy = backoffPolicy;
+            options.priority = priority;
+            options.queueListener = queueListener;
             return options;
         }
 
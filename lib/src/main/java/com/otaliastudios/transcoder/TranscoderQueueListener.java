@@ -0,0 +1,21 @@
+package com.otaliastudios.transcoder;
+
+import android.os.Handler;
+
+/**
+ * Receives the position of a job in the transcoding queue. Jobs wait in the queue
+ * until the device has enough free codec instances to run them, see
+ * {@link Transcoder#enqueue(java.util.List)}. The callback is called on the handler
+ * specified with {@link TranscoderOptions.Builder#setListenerHandler(Handler)}.
+ */
+public interface TranscoderQueueListener {
+
+    /**
+     * Called when the job is queued and each time its position changes.
+     * Position 0 means that the job is next. Once it starts, this is not
+     * called anymore and {@link TranscoderListener} callbacks follow.
+     *
+     * @param position the number of jobs that will start before this one
+     */
+    void onTranscodeQueued(int position);
+}
@@ -0,0 +1,293 @@
+package com.otaliastudios.transcoder;
+
+import androidx.annotation.NonNull;
+
+import com.otaliastudios.transcoder.common.TrackStatus;
+import com.otaliastudios.transcoder.common.TrackType;
+
+import java.util.Locale;
+
+/**
+ * Performance report of a single transcoding operation.
+ * Delivered to {@link TranscoderReportListener} when the operation succeeds.
+ */
+public class TranscoderReport {
+
+    /**
+     * Per-track part of the report.
+     */
+    public static class Track {
+        private final TrackType type;
+        private final TrackStatus status;
+        private final long framesDecoded;
+        private final long framesRendered;
+        private final long framesDropped;
+        private final long framesEncoded;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long decoderStallMs;
+        private final long encoderStallMs;
+
+        private Track(@NonNull Builder builder) {
+            this.type = builder.type;
+            this.status = builder.status;
+            this.framesDecoded = builder.framesDecoded;
+            this.framesRendered = builder.framesRendered;
+            this.framesDropped = builder.framesDropped;
+            this.framesEncoded = builder.framesEncoded;
+            this.bytesRead = builder.bytesRead;
+            this.bytesWritten = builder.bytesWritten;
+            this.decoderStallMs = builder.decoderStallMs;
+            this.encoderStallMs = builder.encoderStallMs;
+        }
+
+        /**
+         * Builds a {@link Track}. Counters that are not set are zero.
+         */
+        public static class Builder {
+            private final TrackType type;
+            private final TrackStatus status;
+            private long framesDecoded;
+            private long framesRendered;
+            private long framesDropped;
+            private long framesEncoded;
+            private long bytesRead;
+            private long bytesWritten;
+            private long decoderStallMs;
+            private long encoderStallMs;
+
+            public Builder(@NonNull TrackType type, @NonNull TrackStatus status) {
+                this.type = type;
+                this.status = status;
+            }
+
+            @NonNull
+            public Builder setFramesDecoded(long framesDecoded) {
+                this.framesDecoded = framesDecoded;
+                return this;
+            }
+
+            @NonNull
+            public Builder setFramesRendered(long framesRendered) {
+                this.framesRendered = framesRendered;
+                return this;
+            }
+
+            @NonNull
+            public Builder setFramesDropped(long framesDropped) {
+                this.framesDropped = framesDropped;
+                return this;
+            }
+
+            @NonNull
+            public Builder setFramesEncoded(long framesEncoded) {
+                this.framesEncoded = framesEncoded;
+                return this;
+            }
+
+            @NonNull
+            public Builder setBytesRead(long bytesRead) {
+                this.bytesRead = bytesRead;
+                return this;
+            }
+
+            @NonNull
+            public Builder setBytesWritten(long bytesWritten) {
+                this.bytesWritten = bytesWritten;
+                return this;
+            }
+
+            @NonNull
+            public Builder setDecoderStallMs(long decoderStallMs) {
+                this.decoderStallMs = decoderStallMs;
+                return this;
+            }
+
+            @NonNull
+            public Builder setEncoderStallMs(long encoderStallMs) {
+                this.encoderStallMs = encoderStallMs;
+                return this;
+            }
+
+            @NonNull
+            public Track build() {
+                return new Track(this);
+            }
+        }
+
+        @NonNull
+        public TrackType getType() {
+            return type;
+        }
+
+        /**
+         * The status chosen for this track by its strategy.
+         * @return the track status
+         */
+        @NonNull
+        public TrackStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Number of buffers returned by the decoder. For video, these are frames.
+         * @return frames decoded
+         */
+        public long getFramesDecoded() {
+            return framesDecoded;
+        }
+
+        /**
+         * Number of video frames that were rendered to the encoder. Zero for audio.
+         * @return frames rendered
+         */
+        public long getFramesRendered() {
+            return framesRendered;
+        }
+
+        /**
+         * Number of decoded video frames that were dropped to match the output frame rate.
+         * Zero for audio.
+         * @return frames dropped
+         */
+        public long getFramesDropped() {
+            return framesDropped;
+        }
+
+        /**
+         * Number of buffers returned by the encoder.
+         * @return frames encoded
+         */
+        public long getFramesEncoded() {
+            return framesEncoded;
+        }
+
+        /**
+         * Compressed bytes read from the data sources.
+         * @return bytes read
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Compressed bytes written to the data sink.
+         * @return bytes written
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Time spent in decoder calls that could not make progress, e.g. waiting for output.
+         * @return decoder stall time in milliseconds
+         */
+        public long getDecoderStallMs() {
+            return decoderStallMs;
+        }
+
+        /**
+         * Time spent in encoder calls that could not make progress, e.g. waiting for output.
+         * @return encoder stall time in milliseconds
+         */
+        public long getEncoderStallMs() {
+            return encoderStallMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s(status=%s, decoded=%d, rendered=%d, dropped=%d, " +
+                            "encoded=%d, read=%dB, written=%dB, decoderStall=%dms, encoderStall=%dms)",
+                    type, status, framesDecoded, framesRendered, framesDropped,
+                    framesEncoded, bytesRead, bytesWritten, decoderStallMs, encoderStallMs);
+        }
+    }
+
+    private final long wallTimeMs;
+    private final long durationUs;
+    private final long engineSleeps;
+    private final long engineSleepMs;
+    private final Track video;
+    private final Track audio;
+
+    public TranscoderReport(long wallTimeMs,
+                            long durationUs,
+                            long engineSleeps,
+                            long engineSleepMs,
+                            @NonNull Track video,
+                            @NonNull Track audio) {
+        this.wallTimeMs = wallTimeMs;
+        this.durationUs = durationUs;
+        this.engineSleeps = engineSleeps;
+        this.engineSleepMs = engineSleepMs;
+        this.video = video;
+        this.audio = audio;
+    }
+
+    /**
+     * Time elapsed from the start of the operation to its end.
+     * @return wall time in milliseconds
+     */
+    public long getWallTimeMs() {
+        return wallTimeMs;
+    }
+
+    /**
+     * Duration of the transcoded media.
+     * @return media duration in microseconds
+     */
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    /**
+     * Media duration divided by wall time. A value of 2 means that
+     * transcoding was twice as fast as playback.
+     * @return the realtime factor
+     */
+    public double getRealtimeFactor() {
+        if (wallTimeMs <= 0) return 0;
+        return (durationUs / 1000D) / wallTimeMs;
+    }
+
+    /**
+     * Number of times the transcoding thread went to sleep because
+     * no track could make progress.
+     * @return engine sleeps
+     */
+    public long getEngineSleeps() {
+        return engineSleeps;
+    }
+
+    /**
+     * Total time the transcoding thread spent sleeping.
+     * @return engine sleep time in milliseconds
+     */
+    public long getEngineSleepMs() {
+        return engineSleepMs;
+    }
+
+    @NonNull
+    public Track getTrack(@NonNull TrackType type) {
+        return type == TrackType.VIDEO ? video : audio;
+    }
+
+    @NonNull
+    public Track getVideo() {
+        return video;
+    }
+
+    @NonNull
+    public Track getAudio() {
+        return audio;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "TranscoderReport(wallTime=%dms, duration=%dus, realtime=%.2fx, " +
+                        "sleeps=%d, sleepTime=%dms, video=%s, audio=%s)",
+                wallTimeMs, durationUs, getRealtimeFactor(), engineSleeps, engineSleepMs, video, audio);
+    }
+}
@@ -0,0 +1,23 @@
+package com.otaliastudios.transcoder;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives a {@link TranscoderReport} when transcoding succeeds. Collecting the report has
+ * a small cost, so it is only done when a listener is set with
+ * {@link TranscoderOptions.Builder#setReportListener(TranscoderReportListener)}.
+ * The callback is called on the handler specified with
+ * {@link TranscoderOptions.Builder#setListenerHandler(Handler)}, right before
+ * {@link TranscoderListener#onTranscodeCompleted(int)}.
+ */
+public interface TranscoderReportListener {
+
+    /**
+     * Called with the report of a successful operation.
+     *
+     * @param report the report
+     */
+    void onTranscodeReport(@NonNull TranscoderReport report);
+}
@@ -0,0 +1,33 @@
+package com.otaliastudios.transcoder.backoff;
+
+/**
+ * Decides how long the transcoder waits for codecs that have nothing to return.
+ *
+ * There are two kinds of waits. Dequeue calls block inside MediaCodec for a short time,
+ * waiting for a buffer. When a whole pipeline can't make progress, its thread is parked
+ * until some step signals that it can run again, or until the park time expires.
+ * Waits that are too short spin the CPU, while waits that are too long leave codecs idle.
+ */
+public interface BackoffPolicy {
+
+    /**
+     * Returns the timeout of a MediaCodec dequeue call, in microseconds.
+     *
+     * @param misses number of consecutive dequeue calls on this codec that returned
+     *               no buffer. This is 0 while the codec is producing buffers
+     * @param intervalUs average time between buffers returned by this codec,
+     *                   in microseconds, or 0 if not known yet
+     * @return the timeout in microseconds
+     */
+    long getDequeueTimeoutUs(int misses, long intervalUs);
+
+    /**
+     * Returns how long a pipeline that made no progress can be parked, in milliseconds.
+     * The pipeline runs earlier if it is signaled.
+     *
+     * @param failures number of consecutive times that this pipeline was parked
+     *                 without making progress, starting at 0
+     * @return the park time in milliseconds
+     */
+    long getParkTimeMs(int failures);
+}
@@ -0,0 +1,53 @@
+package com.otaliastudios.transcoder.backoff;
+
+/**
+ * A {@link BackoffPolicy} that adapts to the codec. While the codec returns buffers,
+ * dequeue calls wait for the minimum time. Each call that returns nothing doubles the
+ * timeout, up to the average interval between buffers of that codec, because waiting
+ * longer than that is unlikely to help, and up to a maximum.
+ * Park times also double while the pipeline keeps failing.
+ */
+public class DefaultBackoffPolicy implements BackoffPolicy {
+
+    private final long minDequeueUs;
+    private final long maxDequeueUs;
+    private final long minParkMs;
+    private final long maxParkMs;
+
+    public DefaultBackoffPolicy() {
+        this(100, 1000, 2, 8);
+    }
+
+    /**
+     * Creates a new policy with the given bounds.
+     *
+     * @param minDequeueUs timeout of dequeue calls while the codec is producing
+     * @param maxDequeueUs maximum timeout of dequeue calls
+     * @param minParkMs park time after the first failure
+     * @param maxParkMs maximum park time
+     */
+    public DefaultBackoffPolicy(long minDequeueUs, long maxDequeueUs, long minParkMs, long maxParkMs) {
+        if (minDequeueUs < 0 || maxDequeueUs < minDequeueUs) {
+            throw new IllegalArgumentException("Invalid dequeue bounds: " + minDequeueUs + ", " + maxDequeueUs);
+        }
+        if (minParkMs <= 0 || maxParkMs < minParkMs) {
+            throw new IllegalArgumentException("Invalid park bounds: " + minParkMs + ", " + maxParkMs);
+        }
+        this.minDequeueUs = minDequeueUs;
+        this.maxDequeueUs = maxDequeueUs;
+        this.minParkMs = minParkMs;
+        this.maxParkMs = maxParkMs;
+    }
+
+    @Override
+    public long getDequeueTimeoutUs(int misses, long intervalUs) {
+        long timeoutUs = Math.max(minDequeueUs, 1) << Math.min(misses, 20);
+        if (intervalUs > 0) timeoutUs = Math.min(timeoutUs, intervalUs);
+        return Math.max(minDequeueUs, Math.min(timeoutUs, maxDequeueUs));
+    }
+
+    @Override
+    public long getParkTimeMs(int failures) {
+        return Math.min(minParkMs << Math.min(failures, 20), maxParkMs);
+    }
+}
@@ -0,0 +1,35 @@
+package com.otaliastudios.transcoder.backoff;
+
+/**
+ * A {@link BackoffPolicy} that always waits for the same time,
+ * regardless of what the codecs are doing.
+ */
+public class FixedBackoffPolicy implements BackoffPolicy {
+
+    private final long dequeueUs;
+    private final long parkMs;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param dequeueUs timeout of dequeue calls, in microseconds
+     * @param parkMs park time, in milliseconds
+     */
+    public FixedBackoffPolicy(long dequeueUs, long parkMs) {
+        if (dequeueUs < 0 || parkMs <= 0) {
+            throw new IllegalArgumentException("Invalid values: " + dequeueUs + ", " + parkMs);
+        }
+        this.dequeueUs = dequeueUs;
+        this.parkMs = parkMs;
+    }
+
+    @Override
+    public long getDequeueTimeoutUs(int misses, long intervalUs) {
+        return dequeueUs;
+    }
+
+    @Override
+    public long getParkTimeMs(int failures) {
+        return parkMs;
+    }
+}
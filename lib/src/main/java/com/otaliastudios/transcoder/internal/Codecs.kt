@@ -6,13 +6,22 @@ import android.media.MediaFormat
 import android.opengl.EGL14
 import com.otaliastudios.opengl.core.EglCore
 import com.otaliastudios.opengl.surface.EglWindowSurface
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
 import com.otaliastudios.transcoder.common.TrackStatus
 import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.codec.CodecPool
+import com.otaliastudios.transcoder.internal.codec.ParkedDecoders
 import com.otaliastudios.transcoder.internal.media.MediaFormatConstants
+import com.otaliastudios.transcoder.internal.utils.DequeueTimeout
+import com.otaliastudios.transcoder.internal.utils.IdCache
 import com.otaliastudios.transcoder.internal.utils.Logger
 import com.otaliastudios.transcoder.internal.utils.TrackMap
+import com.otaliastudios.transcoder.internal.utils.Tracer
+import com.otaliastudios.transcoder.internal.utils.i
+import com.otaliastudios.transcoder.internal.utils.trace
+import com.otaliastudios.transcoder.internal.utils.v
 import java.nio.ByteBuffer
-import kotlin.properties.Delegates.observable
 
 /**
  * Encoders are shared between segments. This is not strictly needed but it is more efficient
@@ -24,7 +33,9 @@ import kotlin.properties.Delegates.observable
 internal class Codecs(
         private val sources: DataSources,
         private val tracks: Tracks,
-        private val current: TrackMap<Int>
+        private val current: TrackMap<Int>,
+        val tracer: Tracer = Tracer.NONE,
+        val backoff: BackoffPolicy = DefaultBackoffPolicy()
 ) {
 
     class Surface(
@@ -37,24 +48,106 @@ internal class Codecs(
         }
     }
 
-    class Codec(val codec: MediaCodec, val surface: Surface? = null, var log: Logger? = null) {
-        var dequeuedInputs by observable(0) { _, _, _ -> log?.v(state) }
-        var dequeuedOutputs by observable(0) { _, _, _ -> log?.v(state) }
+    class Codec(
+        val codec: MediaCodec,
+        val surface: Surface? = null,
+        var log: Logger? = null,
+        private val tracer: Tracer = Tracer.NONE,
+        backoff: BackoffPolicy = DefaultBackoffPolicy()
+    ) {
+        var dequeuedInputs = 0
+            set(value) {
+                if (value > field) totalInputs++
+                field = value
+                log?.v { state }
+            }
+        var dequeuedOutputs = 0
+            set(value) {
+                if (value > field) totalOutputs++
+                field = value
+                log?.v { state }
+            }
+
+        // Number of buffers dequeued over the codec lifetime.
+        var totalInputs = 0L
+            private set
+        var totalOutputs = 0L
+            private set
+
         val state get(): String = "dequeuedInputs=$dequeuedInputs dequeuedOutputs=$dequeuedOutputs heldInputs=${heldInputs.size}"
 
         private val heldInputs = ArrayDeque<Pair<ByteBuffer, Int>>()
+        private val inputs = IdCache<Pair<ByteBuffer, Int>>()
+
+        // MediaCodec returns the same buffer for the same id, so pairs can be reused.
+        private fun input(buffer: ByteBuffer, id: Int): Pair<ByteBuffer, Int> {
+            val cached = inputs[id]
+            if (cached != null && cached.first === buffer) return cached
+            return (buffer to id).also { inputs[id] = it }
+        }
+
+        private val inputTimeout = DequeueTimeout(backoff)
+        private val outputTimeout = DequeueTimeout(backoff)
+
+        /**
+         * Dequeues an output buffer. Unless a [timeoutUs] is given, the timeout
+         * adapts to the codec according to the [BackoffPolicy].
+         */
+        fun dequeueOutputBuffer(info: MediaCodec.BufferInfo, timeoutUs: Long = outputTimeout.timeoutUs): Int {
+            return codec.dequeueOutputBuffer(info, timeoutUs).also {
+                outputTimeout.record(it != MediaCodec.INFO_TRY_AGAIN_LATER)
+            }
+        }
+
+        // Whether the codec was stopped cleanly, so it can be reconfigured without a reset.
+        private var stopped = false
+
+        fun start() = tracer.trace("codec", "start ${codec.name}") {
+            codec.start()
+            stopped = false
+        }
+
+        fun stop() = tracer.trace("codec", "stop ${codec.name}") {
+            codec.stop()
+            stopped = true
+        }
+
+        /**
+         * Flushes the codec, so that it can decode a new stream in the same format.
+         * All buffers dequeued so far, including held inputs, are returned to the codec.
+         */
+        @Synchronized
+        fun flush() = tracer.trace("codec", "flush ${codec.name}") {
+            codec.flush()
+            heldInputs.clear()
+            dequeuedInputs = 0
+            dequeuedOutputs = 0
+        }
+
+        /**
+         * Releases the surface, if any, and returns the codec to the [CodecPool].
+         * Neither can be used after this call.
+         */
+        fun release() {
+            surface?.release()
+            CodecPool.DEFAULT.recycle(codec, stopped)
+        }
 
+        // Synchronized because in staged pipelines, input buffers can be requested
+        // and held by different threads (e.g. AudioEngine and Encoder).
+        @Synchronized
         fun getInputBuffer(): Pair<ByteBuffer, Int>? {
             if (heldInputs.isNotEmpty()) {
-                return heldInputs.removeFirst().also { log?.v(state) }
+                return heldInputs.removeFirst().also { log?.v { state } }
             }
-            val id = codec.dequeueInputBuffer(100)
+            val id = codec.dequeueInputBuffer(inputTimeout.timeoutUs)
+            inputTimeout.record(id >= 0)
             return if (id >= 0) {
                 dequeuedInputs++
                 val buf = checkNotNull(codec.getInputBuffer(id)) { "inputBuffer($id) should not be null." }
-                buf to id
+                input(buf, id)
             } else {
-                log?.i("buffer() failed with $id. $state")
+                log?.i { "buffer() failed with $id. $state" }
                 null
             }
         }
@@ -65,8 +158,9 @@ internal class Codecs(
          * on older Android versions that can create subtle issues.
          * It's better to just keep the buffer here and reuse it on the next [getInputBuffer] call.
          */
+        @Synchronized
         fun holdInputBuffer(buffer: ByteBuffer, id: Int) {
-            heldInputs.addLast(buffer to id)
+            heldInputs.addLast(input(buffer, id))
         }
     }
 
@@ -76,54 +170,79 @@ internal class Codecs(
 
         override fun has(type: TrackType) = tracks.all[type] == TrackStatus.COMPRESSING
 
-        private val lazyAudio by lazy {
-            val format = tracks.outputFormats.audio
-            val codec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME)!!)
-            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
-            Codec(codec, null)
+        override fun get(type: TrackType) = when (type) {
+            TrackType.AUDIO -> lazyAudio.value
+            TrackType.VIDEO -> lazyVideo.value
         }
+    }
 
-        private val lazyVideo by lazy {
-            val format = tracks.outputFormats.video
-            val width = format.getInteger(MediaFormat.KEY_WIDTH)
-            val height = format.getInteger(MediaFormat.KEY_HEIGHT)
-            log.i("Destination video surface size: ${width}x${height} @ ${format.getInteger(MediaFormatConstants.KEY_ROTATION_DEGREES)}")
-            log.i("Destination video format: $format")
+    // Outside of encoders, so that release() can tell which ones were created.
+    private val lazyAudio = lazy {
+        tracer.trace("codec", "createAudioEncoder") { createAudio() }
+    }
 
-            val allCodecs = MediaCodecList(MediaCodecList.REGULAR_CODECS)
-            val videoEncoders = allCodecs.codecInfos.filter { it.isEncoder && it.supportedTypes.any { it.startsWith("video/") } }
-            log.i("Available encoders: ${videoEncoders.joinToString { "${it.name} (${it.supportedTypes.joinToString()})" }}")
+    private val lazyVideo = lazy {
+        tracer.trace("codec", "createVideoEncoder") { createVideo() }
+    }
 
-            // Could consider MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format)
-            // But it's trickier, for example, format should not include frame rate on API 21 and maybe other quirks.
-            val codec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME)!!)
+    private fun createAudio(): Codec {
+        val format = tracks.outputFormats.audio
+        val codec = CodecPool.DEFAULT.acquire(format.getString(MediaFormat.KEY_MIME)!!, true)
+        return setup(codec) {
             codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
-            log.i("Selected encoder ${codec.name}")
-            val surface = codec.createInputSurface()
-
-            log.i("Creating OpenGL context on ${Thread.currentThread()} (${surface.isValid})")
-            val eglContext = EglCore(EGL14.EGL_NO_CONTEXT, EglCore.FLAG_RECORDABLE)
-            val eglWindow = EglWindowSurface(eglContext, surface, true)
-            eglWindow.makeCurrent()
-
-            // On API28 (possibly others) emulator, this happens. If we don't throw early, it fails later with unclear
-            // errors - a tombstone dump saying that src.width() & 1 == 0 (basically, complains that surface size is odd)
-            // and an error much later on during encoder's dequeue. Surface size is odd because it's 1x1.
-            val (eglWidth, eglHeight) = eglWindow.getWidth() to eglWindow.getHeight()
-            if (eglWidth != width || eglHeight != height) {
-                log.e("OpenGL surface has wrong size (expected: ${width}x${height}, found: ${eglWindow.getWidth()}x${eglWindow.getHeight()}).")
-                // Throw a clear error in this very specific scenario so we can catch it in tests.
-                if (codec.name == "c2.android.avc.encoder" && eglWidth == 1 && eglHeight == 1) {
-                    error("c2.android.avc.encoder was unable to create the input surface (1x1).")
-                }
-            }
+            Codec(codec, null, null, tracer, backoff)
+        }
+    }
 
-            Codec(codec, Surface(eglContext, eglWindow))
+    private fun createVideo(): Codec {
+        val format = tracks.outputFormats.video
+        val width = format.getInteger(MediaFormat.KEY_WIDTH)
+        val height = format.getInteger(MediaFormat.KEY_HEIGHT)
+        log.i("Destination video surface size: ${width}x${height} @ ${format.getInteger(MediaFormatConstants.KEY_ROTATION_DEGREES)}")
+        log.i("Destination video format: $format")
+
+        val allCodecs = MediaCodecList(MediaCodecList.REGULAR_CODECS)
+        val videoEncoders = allCodecs.codecInfos.filter { it.isEncoder && it.supportedTypes.any { it.startsWith("video/") } }
+        log.i("Available encoders: ${videoEncoders.joinToString { "${it.name} (${it.supportedTypes.joinToString()})" }}")
+
+        // Could consider MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format)
+        // But it's trickier, for example, format should not include frame rate on API 21 and maybe other quirks.
+        val codec = CodecPool.DEFAULT.acquire(format.getString(MediaFormat.KEY_MIME)!!, true)
+        return setup(codec) { createVideo(codec, format, width, height) }
+    }
+
+    private fun createVideo(codec: MediaCodec, format: MediaFormat, width: Int, height: Int): Codec {
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+        log.i("Selected encoder ${codec.name}")
+        val surface = codec.createInputSurface()
+
+        log.i("Creating OpenGL context on ${Thread.currentThread()} (${surface.isValid})")
+        val eglContext = EglCore(EGL14.EGL_NO_CONTEXT, EglCore.FLAG_RECORDABLE)
+        val eglWindow = EglWindowSurface(eglContext, surface, true)
+        eglWindow.makeCurrent()
+
+        // On API28 (possibly others) emulator, this happens. If we don't throw early, it fails later with unclear
+        // errors - a tombstone dump saying that src.width() & 1 == 0 (basically, complains that surface size is odd)
+        // and an error much later on during encoder's dequeue. Surface size is odd because it's 1x1.
+        val (eglWidth, eglHeight) = eglWindow.getWidth() to eglWindow.getHeight()
+        if (eglWidth != width || eglHeight != height) {
+            log.e("OpenGL surface has wrong size (expected: ${width}x${height}, found: ${eglWindow.getWidth()}x${eglWindow.getHeight()}).")
+            // Throw a clear error in this very specific scenario so we can catch it in tests.
+            if (codec.name == "c2.android.avc.encoder" && eglWidth == 1 && eglHeight == 1) {
+                error("c2.android.avc.encoder was unable to create the input surface (1x1).")
+            }
         }
 
-        override fun get(type: TrackType) = when (type) {
-            TrackType.AUDIO -> lazyAudio
-            TrackType.VIDEO -> lazyVideo
+        return Codec(codec, Surface(eglContext, eglWindow), null, tracer, backoff)
+    }
+
+    // Codecs that can't be set up go back to the pool, which resets them.
+    private inline fun <T> setup(codec: MediaCodec, block: () -> T): T {
+        try {
+            return block()
+        } catch (e: Exception) {
+            CodecPool.DEFAULT.recycle(codec)
+            throw e
         }
     }
 
@@ -137,9 +256,16 @@ internal class Codecs(
         override fun get(type: TrackType) = current[type] == sources[type].lastIndex
     }
 
+    /**
+     * Decoders are not shared like encoders, but a segment can hand its decoder
+     * to the next segment of the same track, if that has a compatible format.
+     */
+    val decoders = ParkedDecoders { current[it] < sources[it].lastIndex }
+
     fun release() {
-        encoders.forEach {
-            it.surface?.release()
+        decoders.release()
+        listOf(lazyAudio, lazyVideo).filter { it.isInitialized() }.forEach {
+            it.value.release()
         }
     }
 }
\ No newline at end of file
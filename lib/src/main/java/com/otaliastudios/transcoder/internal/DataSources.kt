@@ -5,9 +5,13 @@ import com.otaliastudios.transcoder.TranscoderOptions
 import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.utils.Logger
 import com.otaliastudios.transcoder.internal.utils.TrackMap
+import com.otaliastudios.transcoder.internal.utils.demuxed
+import com.otaliastudios.transcoder.internal.utils.parallelMap
 import com.otaliastudios.transcoder.internal.utils.trackMapOf
 import com.otaliastudios.transcoder.source.BlankAudioDataSource
 import com.otaliastudios.transcoder.source.DataSource
+import com.otaliastudios.transcoder.source.DataSourceWrapper
+import java.util.IdentityHashMap
 
 internal class DataSources private constructor(
         videoSources: List<DataSource>,
@@ -21,7 +25,9 @@ internal class DataSources private constructor(
 
     private fun DataSource.init() = if (!isInitialized) initialize() else Unit
     private fun DataSource.deinit() = if (isInitialized) deinitialize() else Unit
-    private fun List<DataSource>.init() = forEach {
+    // Each initialization can take a while (e.g. MediaExtractor and MediaMetadataRetriever
+    // setup in DefaultDataSource), so they run in parallel. Wrappers of the same source don't.
+    private fun List<DataSource>.init() = parallelMap("DataSourcesInit", key = { DataSourceWrapper.unwrap(it) }) {
         log.i("initializing $it... (isInit=${it.isInitialized})")
         it.init()
     }
@@ -31,17 +37,15 @@ internal class DataSources private constructor(
     }
 
     init {
-        log.i("initializing videoSources...")
-        videoSources.init()
-        log.i("initializing audioSources...")
-        audioSources.init()
+        log.i("initializing videoSources and audioSources...")
+        (videoSources + audioSources).init()
     }
 
     // Save and deinit on release, because a source that is discarded for video
     // might be active for audio. We don't want to deinit right away.
     private val discarded = mutableListOf<DataSource>()
 
-    private val videoSources: List<DataSource> = run {
+    private val validVideoSources: List<DataSource> = run {
         val valid = videoSources.count { it.getTrackFormat(TrackType.VIDEO) != null }
         when (valid) {
             0 -> listOf<DataSource>().also { discarded += videoSources }
@@ -50,7 +54,7 @@ internal class DataSources private constructor(
         }
     }
 
-    private val audioSources: List<DataSource> = run {
+    private val validAudioSources: List<DataSource> = run {
         val valid = audioSources.count { it.getTrackFormat(TrackType.AUDIO) != null }
         log.i("computing audioSources, valid=$valid")
         when (valid) {
@@ -68,6 +72,16 @@ internal class DataSources private constructor(
         }
     }
 
+    // Sources that provide both tracks are read once and their samples are distributed
+    // to the two tracks, so that neither track waits for the other to read.
+    private val demuxed = IdentityHashMap<DataSource, DataSource>().also { map ->
+        val both = validAudioSources.filter { audio -> validVideoSources.any { it === audio } }
+        both.forEach { map[it] = it.demuxed() }
+    }
+
+    private val videoSources = validVideoSources.map { demuxed[it] ?: it }
+    private val audioSources = validAudioSources.map { demuxed[it] ?: it }
+
     override fun get(type: TrackType) = when (type) {
         TrackType.AUDIO -> audioSources
         TrackType.VIDEO -> videoSources
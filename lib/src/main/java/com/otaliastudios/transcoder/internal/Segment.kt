@@ -3,6 +3,7 @@ package com.otaliastudios.transcoder.internal
 import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.pipeline.Pipeline
 import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.pipeline.Wakeup
 
 internal class Segment(
         val type: TrackType,
@@ -13,8 +14,15 @@ internal class Segment(
     // private val log = Logger("Segment($type,$index)")
     private var state: State<Unit>? = null
 
+    val wakeup: Wakeup get() = pipeline.wakeup
+
     fun advance(): Boolean {
-        state = pipeline.execute()
+        // If the pipeline was parked and nobody signaled it, running it would be a waste.
+        if (!wakeup.isReady()) return false
+        wakeup.consume()
+        val state = pipeline.execute()
+        if (state is State.Failure && state.sleep) wakeup.park() else wakeup.reset()
+        this.state = state
         return state is State.Ok
     }
 
@@ -0,0 +1,142 @@
+package com.otaliastudios.transcoder.internal
+
+import android.media.MediaCodec
+import android.media.MediaFormat
+import android.os.Build
+import com.otaliastudios.transcoder.common.TrackStatus
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.codec.CodecPool
+import com.otaliastudios.transcoder.internal.codec.ParkedDecoders
+import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.Tracer
+import com.otaliastudios.transcoder.internal.utils.mutableTrackMapOf
+import com.otaliastudios.transcoder.internal.utils.trace
+import com.otaliastudios.transcoder.source.DataSource
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/**
+ * Prepares the next segment of each track on a helper thread, while the current one
+ * is transcoding, so that switching segments doesn't leave the encoder idle:
+ * - selects the tracks of the next source
+ * - creates its decoder in the [CodecPool], unless the current one can be reused
+ * - reads its first sample, if no other track reads from the same source
+ *
+ * [Segments] calls [prefetch] when a segment is created and [await] before creating the next one,
+ * so that a source is never used by the helper thread and a track thread at the same time.
+ */
+internal class SegmentPrefetcher(
+    private val sources: DataSources,
+    private val tracks: Tracks,
+    private val pool: CodecPool<MediaCodec>? = CodecPool.DEFAULT,
+    private val tracer: Tracer = Tracer.NONE
+) {
+
+    private class Prefetch(val index: Int, val result: Future<DataSource.Chunk?>)
+
+    private val log = Logger("SegmentPrefetcher")
+    private val pending = mutableTrackMapOf<Prefetch>()
+    private val chunks = mutableTrackMapOf<Pair<Int, DataSource.Chunk>>()
+    private var executor: ExecutorService? = null
+
+    @Synchronized
+    fun prefetch(type: TrackType, index: Int) {
+        if (!tracks.active.has(type)) return
+        val source = sources[type].getOrNull(index) ?: return
+        val executor = executor ?: Executors.newSingleThreadExecutor {
+            Thread(it, "SegmentPrefetcher").apply { isDaemon = true }
+        }.also { executor = it }
+        pending[type] = Prefetch(index, executor.submit<DataSource.Chunk?> {
+            tracer.trace("segment", "prefetch${type.displayName}Segment#$index") {
+                runCatching { prefetch(type, index, source) }.onFailure {
+                    log.w("prefetch($type, $index): failed.", it)
+                }.getOrNull()
+            }
+        })
+    }
+
+    /**
+     * Waits for the prefetch of this segment, if any. After this call, the caller
+     * owns the source. The prefetched sample is returned by [take].
+     */
+    fun await(type: TrackType, index: Int) {
+        val prefetch = synchronized(this) {
+            pending.getOrNull(type)?.takeIf { it.index == index }.also { pending[type] = null }
+        } ?: return
+        val chunk = runCatching { prefetch.result.get() }.getOrNull() ?: return
+        synchronized(this) { chunks[type] = index to chunk }
+    }
+
+    /**
+     * Returns the sample that was read ahead for this segment, if any.
+     * The source should be wrapped so that it serves this sample first.
+     */
+    @Synchronized
+    fun take(type: TrackType, index: Int): DataSource.Chunk? {
+        val (chunkIndex, chunk) = chunks.getOrNull(type) ?: return null
+        chunks[type] = null
+        return chunk.takeIf { chunkIndex == index }
+    }
+
+    private fun prefetch(type: TrackType, index: Int, source: DataSource): DataSource.Chunk? {
+        // Played by an earlier segment of this track: it might still be reading,
+        // and Segments will rewind it anyway.
+        if (sources[type].subList(0, index).any { it === source }) return null
+        val other = when (type) {
+            TrackType.AUDIO -> TrackType.VIDEO
+            TrackType.VIDEO -> TrackType.AUDIO
+        }
+        val shared = tracks.active.has(other) && sources[other].any { it === source }
+        // Same as Segments: selecting is idempotent, so it is safe even if the
+        // other track already started reading this source.
+        synchronized(source) {
+            source.selectTrack(type)
+            if (shared) source.selectTrack(other)
+        }
+        val format = synchronized(source) { source.getTrackFormat(type)!! }
+        if (tracks.all[type] == TrackStatus.COMPRESSING) prefetchDecoder(type, index, format)
+        return if (shared) null else read(type, source, format)
+    }
+
+    private fun prefetchDecoder(type: TrackType, index: Int, format: MediaFormat) {
+        val pool = pool ?: return
+        val previous = sources[type].getOrNull(index - 1)?.let {
+            synchronized(it) { it.getTrackFormat(type) }
+        }
+        // The decoder of the previous segment will be parked and reused.
+        val reused = previous != null && ParkedDecoders.compatible(previous, format) &&
+                (type == TrackType.AUDIO || Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+        if (!reused) pool.prefetch(format.getString(MediaFormat.KEY_MIME)!!, false)
+    }
+
+    private fun read(type: TrackType, source: DataSource, format: MediaFormat): DataSource.Chunk? {
+        // Without a size hint, we can't be sure that the sample fits the decoder buffer.
+        if (!format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) return null
+        synchronized(source) {
+            if (source.isDrained || !source.canReadTrack(type)) return null
+            val chunk = DataSource.Chunk()
+            val size = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+            chunk.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder())
+            source.readTrack(chunk)
+            log.i("prefetch($type): read ${chunk.buffer.remaining()} bytes (${chunk.timeUs}us)")
+            return chunk
+        }
+    }
+
+    /**
+     * Waits for the helper thread, which might be using a source, and stops it.
+     */
+    fun release() {
+        val executor = synchronized(this) { executor.also { executor = null } } ?: return
+        executor.shutdown()
+        runCatching { executor.awaitTermination(RELEASE_TIMEOUT_MS, TimeUnit.MILLISECONDS) }
+    }
+
+    private companion object {
+        const val RELEASE_TIMEOUT_MS = 5_000L
+    }
+}
@@ -6,19 +6,57 @@ import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.pipeline.Pipeline
 import com.otaliastudios.transcoder.internal.utils.Logger
 import com.otaliastudios.transcoder.internal.utils.TrackMap
+import com.otaliastudios.transcoder.internal.utils.Tracer
 import com.otaliastudios.transcoder.internal.utils.mutableTrackMapOf
+import com.otaliastudios.transcoder.internal.utils.trackMapOf
+import com.otaliastudios.transcoder.internal.utils.trace
+import com.otaliastudios.transcoder.source.DataSource
+import java.util.IdentityHashMap
 
+/**
+ * Segments are thread-safe: when tracks are transcoded in parallel, each track thread
+ * calls [next] for its own type. Track selection happens under the source lock,
+ * so that it doesn't race with a read from the other thread.
+ *
+ * A source that is repeated in a track must be rewound before it plays again. If the other
+ * track also reads it, the rewind waits until that track is done with the previous play,
+ * and happens once for both. For this reason, sources that are repeated and used by both
+ * tracks must come in the same order in both, otherwise the tracks could wait for each other.
+ */
 internal class Segments(
     private val sources: DataSources,
     private val tracks: Tracks,
-    private val factory: (TrackType, Int, Int, TrackStatus, MediaFormat) -> Pipeline
+    private val factory: (TrackType, Int, Int, TrackStatus, MediaFormat) -> Pipeline,
+    private val tracer: Tracer = Tracer.NONE,
+    private val prefetcher: SegmentPrefetcher? = null
 ) {
 
     private val log = Logger("Segments")
     private val current = mutableTrackMapOf<Segment>(null, null)
     val currentIndex = mutableTrackMapOf(-1, -1)
     private val requestedIndex = mutableTrackMapOf(0, 0)
+    private var released = false
 
+    // Plays of each source that each track has started and finished.
+    private val started = trackMapOf(IdentityHashMap<DataSource, Int>(), IdentityHashMap<DataSource, Int>())
+    private val finished = trackMapOf(IdentityHashMap<DataSource, Int>(), IdentityHashMap<DataSource, Int>())
+
+    init {
+        if (tracks.active.size > 1) {
+            val video = sources[TrackType.VIDEO]
+            val audio = sources[TrackType.AUDIO]
+            val shared = video.filter { v -> audio.any { it === v } }
+            val repeated = shared.filter { s -> video.count { it === s } > 1 || audio.count { it === s } > 1 }
+            val videoOrder = video.filter { v -> repeated.any { it === v } }
+            val audioOrder = audio.filter { a -> repeated.any { it === a } }
+            val common = minOf(videoOrder.size, audioOrder.size)
+            require((0 until common).all { videoOrder[it] === audioOrder[it] }) {
+                "Sources that are repeated and used by both tracks must come in the same order in both."
+            }
+        }
+    }
+
+    @Synchronized
     fun hasNext(type: TrackType): Boolean {
         if (!sources.has(type)) return false
         // log.v("hasNext($type): segment=${current.getOrNull(type)} lastIndex=${sources.getOrNull(type)?.lastIndex} canAdvance=${current.getOrNull(type)?.canAdvance()}")
@@ -27,36 +65,47 @@ internal class Segments(
         return segment.canAdvance() || segment.index < lastIndex
     }
 
+    @Synchronized
     fun hasNext() = hasNext(TrackType.VIDEO) || hasNext(TrackType.AUDIO)
 
     /**
      * Returns the [Segment] to be consumed. It is null if:
      * - data sources don't have this type
      * - transcoding for this track is over
+     * - the next source must wait for the other track before starting over. In this
+     *   case, [hasNext] is still true and this should be called again later
+     *
+     * The pipeline is created outside of the lock, so that tracks can create theirs in parallel.
      */
     fun next(type: TrackType): Segment? {
-        val currentIndex = currentIndex[type]
-        val requestedIndex = requestedIndex[type]
-        return when {
-            requestedIndex < currentIndex -> {
-                error("Requested index $requestedIndex smaller than $currentIndex.")
-            }
-            // We need to open a new segment, if possible.
-            // createSegment will make requested == current.
-            requestedIndex > currentIndex -> tryCreateSegment(type, requestedIndex)
-            // requested == current
-            current[type].canAdvance() -> current[type]
-            // requested == current, but this segment is finished:
-            // create a new one. destroySegment will increase the requested index,
-            // so if this is the last one, we'll return null.
-            else -> {
-                destroySegment(current[type])
-                next(type)
+        val index = synchronized(this) {
+            val currentIndex = currentIndex[type]
+            val requestedIndex = requestedIndex[type]
+            when {
+                requestedIndex < currentIndex -> {
+                    error("Requested index $requestedIndex smaller than $currentIndex.")
+                }
+                // We need to open a new segment, if possible.
+                // createSegment will make requested == current.
+                requestedIndex > currentIndex -> requestedIndex
+                // requested == current
+                current[type].canAdvance() -> return current[type]
+                // requested == current, but this segment is finished:
+                // create a new one. destroySegment will increase the requested index,
+                // so if this is the last one, we'll return null.
+                else -> {
+                    destroySegment(current[type])
+                    this.requestedIndex[type]
+                }
             }
         }
+        return tryCreateSegment(type, index)
     }
 
+    @Synchronized
     fun release() {
+        released = true
+        prefetcher?.release()
         current.videoOrNull()?.let { destroySegment(it) }
         current.audioOrNull()?.let { destroySegment(it) }
     }
@@ -65,25 +114,27 @@ internal class Segments(
         // Return null if out of bounds, either because segments are over or because the
         // source set does not have sources for this track type.
         val source = sources[type].getOrNull(index) ?: return null
-        log.i("tryCreateSegment($type, $index): created!")
-        if (tracks.active.has(type)) {
-            source.selectTrack(type)
-            // TODO this sucks
-            // By design, all sources must select all tracks before seeking. We can achieve this
-            // here but it still doesn't look right. The other source might be on a different
-            // point in the timeline, or it might be hidden because wrapped in a DataSourceWrapper...
-            // We have no checks for any of these options and they can all break concatenation.
-            val other = when (type) {
-                TrackType.AUDIO -> TrackType.VIDEO
-                TrackType.VIDEO -> TrackType.AUDIO
-            }
-            if (tracks.active.has(other) && sources[other].any { it === source }) {
-                source.selectTrack(other)
+        return tracer.trace("segment", "create${type.displayName}Segment#$index") {
+            createSegment(type, index, source)
+        }
+    }
+
+    private fun createSegment(type: TrackType, index: Int, source: DataSource): Segment? {
+        // The helper thread might still be preparing this source.
+        prefetcher?.await(type, index)
+        synchronized(this) {
+            if (released) return null
+            val rewind = when (val play = started[type][source] ?: 0) {
+                0 -> false
+                else -> canRewind(type, source, play) ?: return null
             }
+            log.i("tryCreateSegment($type, $index): created! rewind=$rewind")
+            selectTracks(type, source, rewind)
+            started[type][source] = (started[type][source] ?: 0) + 1
+            // Update current index before pipeline creation, for other components
+            // who check it during pipeline init.
+            currentIndex[type] = index
         }
-        // Update current index before pipeline creation, for other components
-        // who check it during pipeline init.
-        currentIndex[type] = index
         val pipeline = factory(
             type,
             index,
@@ -91,21 +142,72 @@ internal class Segments(
             tracks.all[type],
             tracks.outputFormats[type]
         )
-        return Segment(
+        val segment = Segment(
             type = type,
             index = index,
             pipeline = pipeline
-        ).also {
-            current[type] = it
+        )
+        synchronized(this) {
+            if (released) {
+                // Released while we were creating the pipeline.
+                destroySegment(segment)
+                return null
+            }
+            current[type] = segment
+        }
+        prefetcher?.prefetch(type, index + 1)
+        return segment
+    }
+
+    /**
+     * Called before the [play]-th play of a source that this track has already played.
+     * Returns whether to rewind, or null if the other track is still reading the
+     * previous play, in which case we have to wait.
+     */
+    private fun canRewind(type: TrackType, source: DataSource, play: Int): Boolean? {
+        val other = type.other
+        if (!tracks.active.has(other)) return true
+        val plays = sources[other].count { it === source }
+        if (plays == 0) return true
+        if ((finished[other][source] ?: 0) < minOf(play, plays)) return null
+        // Rewind, unless the other track got here first and already did.
+        return (started[other][source] ?: 0) <= play
+    }
+
+    private fun selectTracks(type: TrackType, source: DataSource, rewind: Boolean) {
+        if (tracks.active.has(type)) synchronized(source) {
+            // Before selecting, because rewind() might reinitialize the source.
+            if (rewind) source.rewind()
+            source.selectTrack(type)
+            // TODO this sucks
+            // By design, all sources must select all tracks before seeking. We can achieve this
+            // here but it still doesn't look right. The other source might be on a different
+            // point in the timeline, or it might be hidden because wrapped in a DataSourceWrapper...
+            // We have no checks for any of these options and they can all break concatenation.
+            val other = type.other
+            if (tracks.active.has(other) && sources[other].any { it === source }) {
+                source.selectTrack(other)
+            }
         }
     }
 
     private fun destroySegment(segment: Segment) {
+        tracer.trace("segment", "destroy${segment.type.displayName}Segment#${segment.index}") {
+            releaseSegment(segment)
+        }
+    }
+
+    private fun releaseSegment(segment: Segment) {
         segment.release()
         val source = sources[segment.type][segment.index]
-        if (tracks.active.has(segment.type)) {
+        if (tracks.active.has(segment.type)) synchronized(source) {
             source.releaseTrack(segment.type)
         }
+        finished[segment.type][source] = (finished[segment.type][source] ?: 0) + 1
         requestedIndex[segment.type] = segment.index + 1
     }
-}
\ No newline at end of file
+}
+private val TrackType.other get() = when (this) {
+    TrackType.AUDIO -> TrackType.VIDEO
+    TrackType.VIDEO -> TrackType.AUDIO
+}
@@ -68,6 +68,8 @@ internal class Timer(
         return localizedUs
     }
 
+    // Synchronized because, with parallel tracks, pipelines are created on different threads.
+    @Synchronized
     fun interpolator(type: TrackType, index: Int): SegmentInterpolator = interpolators.getOrPut(type to index) {
         SegmentInterpolator(
             log = Logger("${type.displayName}Interpolator$index/${sources[type].size}"),
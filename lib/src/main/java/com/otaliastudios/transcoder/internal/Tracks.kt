@@ -6,8 +6,10 @@ import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.media.MediaFormatProvider
 import com.otaliastudios.transcoder.internal.utils.Logger
 import com.otaliastudios.transcoder.internal.utils.TrackMap
+import com.otaliastudios.transcoder.internal.utils.parallelMap
 import com.otaliastudios.transcoder.internal.utils.trackMapOf
 import com.otaliastudios.transcoder.source.DataSource
+import com.otaliastudios.transcoder.source.DataSourceWrapper
 import com.otaliastudios.transcoder.strategy.TrackStrategy
 
 internal class Tracks(
@@ -62,11 +64,13 @@ internal class Tracks(
             return MediaFormat() to TrackStatus.ABSENT
         }
 
+        // Probing might decode the source, so sources are probed in parallel.
+        // Wrappers of the same source are probed one after another, since they share its state.
         val provider = MediaFormatProvider()
-        val inputs = sources.mapNotNull {
-            val format = it.getTrackFormat(type) ?: return@mapNotNull null
+        val inputs = sources.parallelMap("TracksProbe", key = { DataSourceWrapper.unwrap(it) }) {
+            val format = it.getTrackFormat(type) ?: return@parallelMap null
             provider.provideMediaFormat(it, type, format)
-        }
+        }.filterNotNull()
 
         // The DataSources class already tries to address this for audio, by inserting
         // a BlankAudioDataSource. However we still don't have a solution for video.
@@ -6,8 +6,13 @@ import android.view.Surface
 import com.otaliastudios.transcoder.internal.audio.remix.AudioRemixer
 import com.otaliastudios.transcoder.internal.codec.*
 import com.otaliastudios.transcoder.internal.pipeline.*
+import com.otaliastudios.transcoder.internal.utils.IdCache
+import com.otaliastudios.transcoder.internal.utils.i
+import com.otaliastudios.transcoder.internal.utils.v
 import com.otaliastudios.transcoder.resample.AudioResampler
 import com.otaliastudios.transcoder.stretch.AudioStretcher
+import java.nio.ByteBuffer
+import java.nio.ShortBuffer
 import kotlin.math.ceil
 import kotlin.math.floor
 
@@ -16,21 +21,30 @@ import kotlin.math.floor
  * remixing, stretching. TODO: With some extra work this could be split in different steps.
  */
 internal class AudioEngine(
-    private val stretcher: AudioStretcher,
-    private val resampler: AudioResampler,
+    stretcher: AudioStretcher,
+    resampler: AudioResampler,
     private val targetFormat: MediaFormat
 ): QueuedStep<DecoderData, DecoderChannel, EncoderData, EncoderChannel>("AudioEngine"), DecoderChannel {
 
     override val channel = this
-    private val buffers = ShortBuffers()
+
+    // Stretchers and resamplers that keep state between calls give a new instance for each track,
+    // so that the same options can be used for many tracks, even at the same time.
+    private val stretcher = stretcher.newInstance()
+    private val resampler = resampler.newInstance()
 
     private val MediaFormat.sampleRate get() = getInteger(KEY_SAMPLE_RATE)
     private val MediaFormat.channels get() = getInteger(KEY_CHANNEL_COUNT)
 
-    private val chunks = ChunkQueue(log)
-    private var readyToDrain = false
+    private val chunks = PcmRing(log)
+    private val outputs = IdCache<EncoderData>()
+    // Volatile because the decoder may call handleRawFormat from a different thread.
+    @Volatile private var readyToDrain = false
+    // Time of the audio that follows the last output.
+    private var nextTimeUs = 0L
     private lateinit var rawFormat: MediaFormat
     private lateinit var remixer: AudioRemixer
+    private lateinit var kernel: AudioKernel
 
     override fun handleSourceFormat(sourceFormat: MediaFormat): Surface? = null
 
@@ -38,6 +52,9 @@ internal class AudioEngine(
         log.i("handleRawFormat($rawFormat)")
         this.rawFormat = rawFormat
         this.remixer = AudioRemixer[rawFormat.channels, targetFormat.channels]
+        this.kernel = AudioKernel(stretcher, remixer, resampler,
+                rawFormat.channels, rawFormat.sampleRate,
+                targetFormat.channels, targetFormat.sampleRate)
         this.readyToDrain = true
     }
 
@@ -48,13 +65,12 @@ internal class AudioEngine(
     }
 
     override fun enqueue(data: DecoderData) {
-        val stretch = (data as? DecoderTimerData)?.timeStretch ?: 1.0
-        chunks.enqueue(data.buffer.asShortBuffer(), data.timeUs, stretch) { data.release(false) }
+        chunks.enqueue(data.buffer.asShortBuffer(), data.timeUs, data.timeStretch) { data.release(false) }
     }
 
     override fun drain(): State<EncoderData> {
         if (!readyToDrain) {
-            log.i("drain(): not ready, waiting... (${chunks.size} in queue)")
+            log.i { "drain(): not ready, waiting... (${chunks.size} in queue)" }
             return State.Retry(false)
         }
         if (chunks.isEmpty()) {
@@ -64,13 +80,22 @@ internal class AudioEngine(
         }
         val (outBytes, outId) = next.buffer() ?: return run {
             // dequeueInputBuffer failed
-            log.i("drain(): no next buffer, waiting... (${chunks.size} in queue)")
+            log.i { "drain(): no next buffer, waiting... (${chunks.size} in queue)" }
             State.Retry(true)
         }
         val outBuffer = outBytes.asShortBuffer()
+        // One EncoderData per encoder buffer, reused every time the buffer is dequeued.
+        val output = outputs[outId] ?: EncoderData(outBytes, outId, 0).also { outputs[outId] = it }
+        output.buffer = outBytes
+        output.timeUs = 0
+        if (chunks.isEos() && kernel.flush(outBuffer)) {
+            log.v { "drain(): passing pending audio to encoder before EOS..." }
+            return dispatch(outBytes, outBuffer, output, nextTimeUs)
+        }
         return chunks.drain(
-            eos = State.Eos(EncoderData(outBytes, outId, 0)),
-            format = rawFormat
+            sampleRate = rawFormat.sampleRate,
+            channels = rawFormat.channels,
+            eos = State.Eos(output)
         ) { inBuffer, timeUs, stretch ->
             val outSize = outBuffer.remaining()
             val inSize = inBuffer.remaining()
@@ -87,32 +112,23 @@ internal class AudioEngine(
             }
             inBuffer.limit(inBuffer.position() + processableSize)
 
-            // Stretching
-            val stretchSize = ceil(processableSize * stretch)
-            val stretchBuffer = buffers.acquire("stretch", stretchSize.toInt())
-            stretcher.stretch(inBuffer, stretchBuffer, rawFormat.channels)
-            stretchBuffer.flip()
-
-            // Remix
-            val remixSize = remixer.getRemixedSize(stretchSize.toInt())
-            val remixBuffer = buffers.acquire("remix", remixSize)
-            remixer.remix(stretchBuffer, remixBuffer)
-            remixBuffer.flip()
-
-            // Resample
-            resampler.resample(
-                remixBuffer, rawFormat.sampleRate,
-                outBuffer, targetFormat.sampleRate,
-                targetFormat.channels
-            )
-            outBuffer.flip()
-
-            // Adjust position and dispatch.
-            outBytes.clear()
-            outBytes.limit(outBuffer.limit() * BYTES_PER_SHORT)
-            outBytes.position(outBuffer.position() * BYTES_PER_SHORT)
-            log.v("drain(): passing buffer $outId to encoder... ${chunks.size} in queue")
-            State.Ok(EncoderData(outBytes, outId, timeUs))
+            // Stretch, remix and resample. Output starts with the audio that was pending.
+            val outTimeUs = timeUs - kernel.pendingUs(stretch)
+            val stretchSize = ceil(processableSize * stretch).toInt()
+            kernel.process(inBuffer, stretchSize, outBuffer)
+            log.v { "drain(): passing buffer $outId to encoder... ${chunks.size} in queue" }
+            dispatch(outBytes, outBuffer, output, outTimeUs)
         }
     }
+
+    private fun dispatch(outBytes: ByteBuffer, outBuffer: ShortBuffer, output: EncoderData, timeUs: Long): State<EncoderData> {
+        outBuffer.flip()
+        // Adjust position and dispatch.
+        outBytes.clear()
+        outBytes.limit(outBuffer.limit() * BYTES_PER_SHORT)
+        outBytes.position(outBuffer.position() * BYTES_PER_SHORT)
+        output.timeUs = timeUs
+        nextTimeUs = timeUs + shortsToUs(outBuffer.remaining(), targetFormat.sampleRate, targetFormat.channels)
+        return ok(output)
+    }
 }
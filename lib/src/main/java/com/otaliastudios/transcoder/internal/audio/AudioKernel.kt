@@ -0,0 +1,107 @@
+package com.otaliastudios.transcoder.internal.audio
+
+import com.otaliastudios.transcoder.internal.audio.remix.AudioRemixer
+import com.otaliastudios.transcoder.internal.audio.remix.PassThroughAudioRemixer
+import com.otaliastudios.transcoder.resample.AudioResampler
+import com.otaliastudios.transcoder.stretch.AudioStretcher
+import java.nio.ShortBuffer
+
+/**
+ * Stretches, remixes and resamples decoded audio into the encoder buffer.
+ *
+ * The three operations are fused: the stretcher writes into an array, which is remixed on arrays
+ * and passed to the resampler which writes the output once. Arrays and their buffers are reused. The [staged] path, where each
+ * operation runs on its own buffer, is kept for flushing and for comparison.
+ */
+internal class AudioKernel(
+    private val stretcher: AudioStretcher,
+    private val remixer: AudioRemixer,
+    private val resampler: AudioResampler,
+    private val inputChannels: Int,
+    private val inputSampleRate: Int,
+    private val outputChannels: Int,
+    private val outputSampleRate: Int,
+) {
+
+    private val buffers = ShortBuffers()
+    private var stretched = ShortBuffer.allocate(0)
+    private var remixed = ShortBuffer.allocate(0)
+    private var flushed = false
+
+    /**
+     * Processes the [ShortBuffer.remaining] shorts of [input], which become [stretchSize]
+     * shorts after stretching, into [output].
+     */
+    fun process(input: ShortBuffer, stretchSize: Int, output: ShortBuffer) {
+        fused(input, stretchSize, output)
+    }
+
+    /**
+     * Duration of the input that was processed, but is not part of the output yet.
+     * The next output starts this long before the input that comes next.
+     */
+    fun pendingUs(stretch: Double): Long {
+        val frames = stretcher.pendingFrames * stretch + resampler.pendingFrames
+        return (frames * 1000000 / inputSampleRate).toLong()
+    }
+
+    /**
+     * Called at the end of the stream to write the pending audio into [output].
+     * Returns true if something was written, in which case it should be called again.
+     */
+    fun flush(output: ShortBuffer): Boolean {
+        val start = output.position()
+        // Input size that fits into the output after remixing and resampling.
+        val frames = (output.remaining() / outputChannels).toLong() * inputSampleRate / outputSampleRate
+        if (frames == 0L) return false
+        while (!flushed && output.position() == start) {
+            val stretchBuffer = buffers.acquire("stretch", frames.toInt() * inputChannels)
+            flushed = !stretcher.flush(stretchBuffer, inputChannels)
+            stretchBuffer.flip()
+            remixAndResample(stretchBuffer, output)
+        }
+        if (flushed) resampler.flush(output, outputChannels)
+        return output.position() > start
+    }
+
+    internal fun staged(input: ShortBuffer, stretchSize: Int, output: ShortBuffer) {
+        // Stretching
+        val stretchBuffer = buffers.acquire("stretch", stretchSize)
+        stretcher.stretch(input, stretchBuffer, inputChannels)
+        stretchBuffer.flip()
+        remixAndResample(stretchBuffer, output)
+    }
+
+    private fun remixAndResample(stretchBuffer: ShortBuffer, output: ShortBuffer) {
+        // Remix
+        val remixSize = remixer.getRemixedSize(stretchBuffer.remaining())
+        val remixBuffer = buffers.acquire("remix", remixSize)
+        remixer.remix(stretchBuffer, remixBuffer)
+        remixBuffer.flip()
+
+        // Resample
+        resampler.resample(remixBuffer, inputSampleRate, output, outputSampleRate, outputChannels)
+    }
+
+    internal fun fused(input: ShortBuffer, stretchSize: Int, output: ShortBuffer) {
+        // Stretching, into an array. The stretcher may write less if it keeps pending frames.
+        if (stretched.capacity() < stretchSize) stretched = ShortBuffer.allocate(stretchSize)
+        stretched.clear()
+        stretched.limit(stretchSize)
+        stretcher.stretch(input, stretched, inputChannels)
+
+        // Remix
+        var samples = stretched
+        if (remixer !is PassThroughAudioRemixer) {
+            val remixSize = remixer.getRemixedSize(stretched.position())
+            if (remixed.capacity() < remixSize) remixed = ShortBuffer.allocate(remixSize)
+            remixed.clear()
+            remixed.position(remixer.remix(stretched.array(), stretched.position(), remixed.array()))
+            samples = remixed
+        }
+
+        // Resample
+        samples.flip()
+        resampler.resample(samples, inputSampleRate, output, outputSampleRate, outputChannels)
+    }
+}
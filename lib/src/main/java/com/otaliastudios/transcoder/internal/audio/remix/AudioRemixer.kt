@@ -3,7 +3,7 @@ package com.otaliastudios.transcoder.internal.audio.remix
 import java.nio.ShortBuffer
 
 /**
- * Remixes audio data. See [DownMixAudioRemixer], [UpMixAudioRemixer] or [PassThroughAudioRemixer]
+ * Remixes audio data. See [MatrixAudioRemixer], [UpMixAudioRemixer] or [PassThroughAudioRemixer]
  * for concrete implementations.
  */
 internal interface AudioRemixer {
@@ -15,6 +15,12 @@ internal interface AudioRemixer {
      */
     fun remix(inputBuffer: ShortBuffer, outputBuffer: ShortBuffer)
 
+    /**
+     * Same as [remix], on arrays: remixes the first [inputSize] shorts of [input]
+     * into [output], which is big enough, and returns the number of shorts written.
+     */
+    fun remix(input: ShortArray, inputSize: Int, output: ShortArray): Int
+
     /**
      * Returns the output size (in shorts) needed to process an input buffer of the
      * given [inputSize] (in shorts).
@@ -24,10 +30,8 @@ internal interface AudioRemixer {
     companion object {
         internal operator fun get(inputChannels: Int, outputChannels: Int): AudioRemixer = when {
             inputChannels == outputChannels -> PassThroughAudioRemixer()
-            inputChannels !in setOf(1, 2) -> error("Input channel count not supported: $inputChannels")
-            outputChannels !in setOf(1, 2) -> error("Output channel count not supported: $outputChannels")
-            inputChannels < outputChannels -> UpMixAudioRemixer()
-            else -> DownMixAudioRemixer()
+            inputChannels == 1 && outputChannels == 2 -> UpMixAudioRemixer()
+            else -> MatrixAudioRemixer(inputChannels, outputChannels)
         }
     }
 }
\ No newline at end of file
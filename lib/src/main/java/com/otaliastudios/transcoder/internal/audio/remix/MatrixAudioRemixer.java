@@ -0,0 +1,190 @@
+package com.otaliastudios.transcoder.internal.audio.remix;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link AudioRemixer} that mixes any number of input channels into any number of output
+ * channels with a matrix: each output channel is a weighted sum of the input channels.
+ *
+ * Weights are stored as 16-bit fixed point values, so that remixing is done with integer
+ * multiply-adds and no branches. The sum of the absolute weights of each output channel must
+ * not exceed 1, which also guarantees that the accumulator does not overflow.
+ *
+ * See {@link #itu(int, int)} for standard matrices.
+ */
+public class MatrixAudioRemixer implements AudioRemixer {
+
+    // Channel positions, in the order used by Android for interleaved PCM.
+    private final static int FL = 0; // front left
+    private final static int FR = 1; // front right
+    private final static int FC = 2; // front center
+    private final static int LFE = 3; // low frequency
+    private final static int BL = 4; // back left
+    private final static int BR = 5; // back right
+    private final static int SL = 6; // side left
+    private final static int SR = 7; // side right
+
+    // Default layout for each channel count, as used by Android when no mask is specified.
+    private final static int[][] LAYOUTS = {
+            null,
+            { FC },
+            { FL, FR },
+            { FL, FR, FC },
+            { FL, FR, BL, BR },
+            { FL, FR, FC, BL, BR },
+            { FL, FR, FC, LFE, BL, BR },
+            null,
+            { FL, FR, FC, LFE, BL, BR, SL, SR },
+    };
+
+    // -3dB, used when one channel is split in two or two channels are folded in one.
+    private final static float MINUS_3DB = 0.70710678F;
+    private final static int ONE = 1 << 15;
+
+    /**
+     * Returns the matrix that remixes the default layout of {@code inputChannels} into the
+     * default layout of {@code outputChannels}, as rows of input weights for each output channel.
+     *
+     * Downmixing follows ITU-R BS.775: the center and surround channels are folded into
+     * the front ones at -3dB and LFE is dropped. Downmixing to mono averages the stereo downmix.
+     * Each row is then normalized so that it can't clip. Upmixing copies channels to the
+     * same position, and mono to both front channels. Channel counts without a standard
+     * layout are folded or copied by index.
+     */
+    @NonNull
+    static float[][] itu(int inputChannels, int outputChannels) {
+        int[] in = inputChannels < LAYOUTS.length ? LAYOUTS[inputChannels] : null;
+        int[] out = outputChannels < LAYOUTS.length ? LAYOUTS[outputChannels] : null;
+        float[][] matrix = new float[outputChannels][inputChannels];
+        if (in == null || out == null) {
+            // Channel i goes to channel i % outputChannels.
+            for (int i = 0; i < inputChannels; i++) {
+                matrix[i % outputChannels][i] = 1F;
+            }
+        } else if (outputChannels == 1) {
+            float[][] stereo = itu(inputChannels, 2);
+            for (int i = 0; i < inputChannels; i++) {
+                matrix[0][i] = (stereo[0][i] + stereo[1][i]) / 2F;
+            }
+        } else if (inputChannels == 1) {
+            int center = indexOf(out, FC);
+            if (center >= 0) {
+                matrix[center][0] = 1F;
+            } else {
+                matrix[indexOf(out, FL)][0] = 1F;
+                matrix[indexOf(out, FR)][0] = 1F;
+            }
+        } else {
+            for (int i = 0; i < inputChannels; i++) {
+                int position = in[i];
+                int same = indexOf(out, position);
+                if (same >= 0) {
+                    matrix[same][i] = 1F;
+                } else if (position == FC) {
+                    matrix[indexOf(out, FL)][i] = MINUS_3DB;
+                    matrix[indexOf(out, FR)][i] = MINUS_3DB;
+                } else if (position != LFE) {
+                    boolean left = position == BL || position == SL;
+                    int surround = indexOf(out, position == BL ? SL : position == BR ? SR : position == SL ? BL : BR);
+                    if (surround >= 0) {
+                        matrix[surround][i] = 1F;
+                    } else {
+                        matrix[indexOf(out, left ? FL : FR)][i] = MINUS_3DB;
+                    }
+                }
+            }
+        }
+        normalize(matrix);
+        return matrix;
+    }
+
+    private static int indexOf(@NonNull int[] layout, int position) {
+        for (int i = 0; i < layout.length; i++) {
+            if (layout[i] == position) return i;
+        }
+        return -1;
+    }
+
+    private static void normalize(@NonNull float[][] matrix) {
+        for (float[] row : matrix) {
+            float sum = 0F;
+            for (float weight : row) sum += Math.abs(weight);
+            if (sum <= 1F) continue;
+            for (int i = 0; i < row.length; i++) row[i] /= sum;
+        }
+    }
+
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    // Fixed point weights, row by row.
+    private final int[] mWeights;
+    private short[] mInput = new short[0];
+    private short[] mOutput = new short[0];
+    private int[] mSums = new int[0];
+
+    public MatrixAudioRemixer(int inputChannels, int outputChannels) {
+        this(itu(inputChannels, outputChannels));
+    }
+
+    /**
+     * @param matrix one row of input weights for each output channel
+     */
+    public MatrixAudioRemixer(@NonNull float[][] matrix) {
+        mOutputChannels = matrix.length;
+        mInputChannels = matrix[0].length;
+        mWeights = new int[mOutputChannels * mInputChannels];
+        for (int o = 0; o < mOutputChannels; o++) {
+            float sum = 0F;
+            for (int i = 0; i < mInputChannels; i++) {
+                sum += Math.abs(matrix[o][i]);
+                mWeights[o * mInputChannels + i] = Math.round(matrix[o][i] * ONE);
+            }
+            if (sum > 1.0001F) {
+                throw new IllegalArgumentException("Weights of output channel " + o + " add up to " + sum);
+            }
+        }
+    }
+
+    @Override
+    public void remix(@NonNull ShortBuffer inputBuffer, @NonNull ShortBuffer outputBuffer) {
+        int frames = Math.min(inputBuffer.remaining() / mInputChannels, outputBuffer.remaining() / mOutputChannels);
+        int inputSize = frames * mInputChannels;
+        if (mInput.length < inputSize) mInput = new short[inputSize];
+        if (mOutput.length < frames * mOutputChannels) mOutput = new short[frames * mOutputChannels];
+        inputBuffer.get(mInput, 0, inputSize);
+        int outputSize = remix(mInput, inputSize, mOutput);
+        outputBuffer.put(mOutput, 0, outputSize);
+    }
+
+    @Override
+    public int remix(@NonNull short[] input, int inputSize, @NonNull short[] output) {
+        final int inputChannels = mInputChannels;
+        final int outputChannels = mOutputChannels;
+        final int frames = inputSize / inputChannels;
+        if (mSums.length < frames) mSums = new int[frames];
+        final int[] sums = mSums;
+        // One output channel at a time, so that the inner loops are simple enough to be unrolled.
+        for (int o = 0; o < outputChannels; o++) {
+            Arrays.fill(sums, 0, frames, ONE >> 1); // rounding
+            for (int i = 0; i < inputChannels; i++) {
+                final int weight = mWeights[o * inputChannels + i];
+                if (weight == 0) continue;
+                for (int f = 0, j = i; f < frames; f++, j += inputChannels) {
+                    sums[f] += weight * input[j];
+                }
+            }
+            for (int f = 0, j = o; f < frames; f++, j += outputChannels) {
+                output[j] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sums[f] >> 15));
+            }
+        }
+        return frames * outputChannels;
+    }
+
+    @Override
+    public int getRemixedSize(int inputSize) {
+        return inputSize / mInputChannels * mOutputChannels;
+    }
+}
@@ -16,6 +16,12 @@ public class PassThroughAudioRemixer implements AudioRemixer {
         outputBuffer.put(inputBuffer);
     }
 
+    @Override
+    public int remix(@NonNull short[] input, int inputSize, @NonNull short[] output) {
+        System.arraycopy(input, 0, output, 0, inputSize);
+        return inputSize;
+    }
+
     @Override
     public int getRemixedSize(int inputSize) {
         return inputSize;
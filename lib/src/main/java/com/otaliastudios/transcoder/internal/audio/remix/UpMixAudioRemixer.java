@@ -25,6 +25,15 @@ public class UpMixAudioRemixer implements AudioRemixer {
         }
     }
 
+    @Override
+    public int remix(@NonNull short[] input, int inputSize, @NonNull short[] output) {
+        for (int i = 0, j = 0; i < inputSize; i++, j += 2) {
+            output[j] = input[i];
+            output[j + 1] = input[i];
+        }
+        return inputSize * 2;
+    }
+
     @Override
     public int getRemixedSize(int inputSize) {
         return inputSize * 2;
@@ -0,0 +1,169 @@
+package com.otaliastudios.transcoder.internal.audio
+
+import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.v
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+
+internal const val DEFAULT_RING_SHORTS = 128 * 1024
+
+/**
+ * Part of a decoder buffer, either copied into the ring ([held] is null) or still in the
+ * decoder buffer. [offset] is the number of shorts of the original buffer before [start].
+ */
+private class Region {
+    var held: ShortBuffer? = null
+    var start = 0
+    var size = 0
+    var offset = 0
+    var timeUs = 0L
+    var timeStretch = 1.0
+    var release: (() -> Unit)? = null
+    var eos = false
+}
+
+/**
+ * FIFO queue for audio processing. Check [isEmpty] before [drain].
+ * Queuing is needed because, primarily, the output buffer that you have available is not
+ * big enough to contain the full processed size, in which case we want to consume only
+ * part of the input buffer and keep it available for the next cycle.
+ *
+ * Decoder buffers are copied into a direct ring of [capacity] shorts and released right away,
+ * so that the decoder can keep working. When the ring is full, buffers are held instead,
+ * which stops the decoder once all of its buffers are held: memory is bounded by the ring and
+ * the decoder buffers. Each buffer is copied at most once, and partial drains only move a cursor.
+ */
+internal class PcmRing(private val log: Logger, val capacity: Int = DEFAULT_RING_SHORTS) {
+    private val queue = ArrayDeque<Region>()
+    private val free = ArrayDeque<Region>()
+    private val ring = ByteBuffer.allocateDirect(capacity * BYTES_PER_SHORT)
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer()
+    private val reader = ring.duplicate()
+    private var write = 0
+    private var used = 0
+    private var held = 0
+
+    fun isEmpty() = queue.isEmpty()
+
+    /** Whether the next [drain] returns EOS. */
+    fun isEos() = queue.firstOrNull()?.eos == true
+    val size get() = queue.size
+
+    /** Shorts that are currently copied in the ring. */
+    val usedSize get() = used
+
+    /** Decoder buffers that are currently held. */
+    val heldCount get() = held
+
+    fun enqueue(buffer: ShortBuffer, timeUs: Long, timeStretch: Double, release: () -> Unit) {
+        if (!buffer.hasRemaining()) {
+            log.w("enqueued invalid buffer ($timeUs, ${buffer.capacity()})")
+            release()
+            return
+        }
+        // Once a buffer is held, the following ones must wait behind it.
+        if (held == 0 && buffer.remaining() <= capacity - used) {
+            copy(buffer, 0, timeUs, timeStretch)
+            release()
+        } else {
+            held++
+            queue.addLast(region().apply {
+                this.held = buffer
+                this.start = buffer.position()
+                this.size = buffer.remaining()
+                this.timeUs = timeUs
+                this.timeStretch = timeStretch
+                this.release = release
+            })
+        }
+    }
+
+    fun enqueueEos() {
+        queue.addLast(region().apply { eos = true })
+    }
+
+    /**
+     * Copies [buffer] at the write position, in two regions if it wraps around the ring.
+     */
+    private fun copy(buffer: ShortBuffer, offset: Int, timeUs: Long, timeStretch: Double) {
+        var offset = offset
+        val limit = buffer.limit()
+        while (buffer.hasRemaining()) {
+            val size = minOf(buffer.remaining(), capacity - write)
+            buffer.limit(buffer.position() + size)
+            ring.position(write)
+            ring.put(buffer)
+            buffer.limit(limit)
+            queue.addLast(region().also {
+                it.start = write
+                it.size = size
+                it.offset = offset
+                it.timeUs = timeUs
+                it.timeStretch = timeStretch
+            })
+            offset += size
+            used += size
+            write = (write + size) % capacity
+        }
+    }
+
+    fun <T> drain(sampleRate: Int, channels: Int, eos: T, action: (buffer: ShortBuffer, timeUs: Long, timeStretch: Double) -> T): T {
+        val head = queue.removeFirst()
+        if (head.eos) {
+            recycle(head)
+            return eos
+        }
+
+        val buffer = head.held ?: reader
+        buffer.clear()
+        buffer.position(head.start)
+        buffer.limit(head.start + head.size)
+        val timeUs = head.timeUs + (head.timeStretch * shortsToUs(head.offset, sampleRate, channels)).toLong()
+        val result = action(buffer, timeUs, head.timeStretch)
+        val consumed = buffer.position() - head.start
+        head.start += consumed
+        head.size -= consumed
+        head.offset += consumed
+        if (head.held == null) used -= consumed
+
+        when {
+            head.size == 0 -> {
+                log.v { "drain(): consumed chunk at ${timeUs}us (${queue.size + 1} => ${queue.size})" }
+                head.release?.let { held--; it() }
+                recycle(head)
+            }
+            head.held != null && head.size <= capacity - used -> {
+                // Release the decoder buffer, otherwise it can get stuck. Held regions come
+                // after the ring ones, so the ring is empty and the copy keeps the order.
+                val remaining = head.held!!
+                remaining.limit(head.start + head.size)
+                remaining.position(head.start)
+                log.v { "drain(): partially handled chunk at ${timeUs}us, copying ${head.size} shorts left" }
+                val regions = queue.size
+                copy(remaining, head.offset, head.timeUs, head.timeStretch)
+                // Move the new regions from the tail to the head.
+                repeat(queue.size - regions) { queue.addFirst(queue.removeLast()) }
+                held--
+                head.release!!()
+                recycle(head)
+            }
+            else -> {
+                queue.addFirst(head)
+                log.v { "drain(): partially handled chunk at ${timeUs}us, ${head.size} shorts left (${queue.size})" }
+            }
+        }
+        return result
+    }
+
+    private fun region() = free.removeLastOrNull() ?: Region()
+
+    private fun recycle(region: Region) {
+        region.held = null
+        region.release = null
+        region.offset = 0
+        region.eos = false
+        free.addLast(region)
+    }
+}
@@ -0,0 +1,178 @@
+package com.otaliastudios.transcoder.internal.codec
+
+import android.media.MediaCodec
+import com.otaliastudios.transcoder.internal.utils.Logger
+import java.util.IdentityHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * A process-wide pool of codecs, because creating one can take hundreds of milliseconds
+ * on some devices, which adds up for jobs made of many short segments.
+ *
+ * Codecs are keyed by MIME type and direction. They are returned to the pool in the
+ * uninitialized state ([MediaCodec.reset]), so the next user configures them with its own
+ * format: any codec with the same key is compatible. Idle codecs still hold resources,
+ * so only a few are kept for each key, they are released after [idleTimeoutMs], and
+ * they are all released if creating a new codec fails.
+ */
+internal class CodecPool<C : Any>(
+        private val create: (mime: String, encoder: Boolean) -> C,
+        private val reset: (C) -> Unit,
+        private val destroy: (C) -> Unit,
+        private val idleTimeoutMs: Long = IDLE_TIMEOUT_MS,
+        private val maxIdle: Int = MAX_IDLE,
+) {
+
+    private data class Key(val mime: String, val encoder: Boolean)
+
+    private class Idle<C>(val codec: C, val sinceMs: Long)
+
+    private val log = Logger("CodecPool")
+    private val idle = mutableMapOf<Key, ArrayDeque<Idle<C>>>()
+    private val used = IdentityHashMap<C, Key>()
+    private var evictor: ScheduledExecutorService? = null
+    private var evictionScheduled = false
+
+    /**
+     * Returns an uninitialized codec for the given MIME type, either idle or new.
+     */
+    fun acquire(mime: String, encoder: Boolean): C {
+        val key = Key(mime, encoder)
+        synchronized(this) {
+            val reused = idle[key]?.removeLastOrNull()
+            if (reused != null) {
+                log.i("acquire($key): reusing idle codec.")
+                used[reused.codec] = key
+                return reused.codec
+            }
+        }
+        val codec = try {
+            create(mime, encoder)
+        } catch (e: Exception) {
+            // Idle codecs might be taking the resources that we need.
+            if (!clear()) throw e
+            log.w("acquire($key): failed, retrying after releasing idle codecs.", e)
+            create(mime, encoder)
+        }
+        synchronized(this) { used[codec] = key }
+        return codec
+    }
+
+    /**
+     * Creates a codec ahead of time and keeps it idle, so that the next [acquire] for this key
+     * doesn't pay the creation cost. Does nothing if there already is an idle codec.
+     * Returns true if a codec was created.
+     */
+    fun prefetch(mime: String, encoder: Boolean): Boolean {
+        val key = Key(mime, encoder)
+        synchronized(this) {
+            if (!idle[key].isNullOrEmpty()) return false
+        }
+        val codec = create(mime, encoder)
+        val kept = synchronized(this) {
+            val queue = idle.getOrPut(key) { ArrayDeque() }
+            if (queue.size >= maxIdle) return@synchronized false
+            queue.addLast(Idle(codec, System.currentTimeMillis()))
+            scheduleEviction()
+            true
+        }
+        if (!kept) destroy(codec)
+        else log.i("prefetch($key): created idle codec.")
+        return kept
+    }
+
+    /**
+     * Returns a codec to the pool. If [stopped] is false, or if the pool is full,
+     * the codec is reset or released here.
+     */
+    fun recycle(codec: C, stopped: Boolean = false) {
+        val key = synchronized(this) { used.remove(codec) }
+        if (key == null) {
+            destroy(codec)
+            return
+        }
+        val clean = stopped || try {
+            reset(codec)
+            true
+        } catch (e: Exception) {
+            log.w("recycle($key): failed to reset codec.", e)
+            false
+        }
+        val kept = clean && synchronized(this) {
+            val queue = idle.getOrPut(key) { ArrayDeque() }
+            if (queue.size >= maxIdle) return@synchronized false
+            queue.addLast(Idle(codec, System.currentTimeMillis()))
+            scheduleEviction()
+            true
+        }
+        if (!kept) destroy(codec)
+    }
+
+    /**
+     * Releases idle codecs that are older than [idleTimeoutMs].
+     */
+    internal fun evict(nowMs: Long = System.currentTimeMillis()) {
+        val evicted = mutableListOf<C>()
+        synchronized(this) {
+            evictionScheduled = false
+            idle.values.forEach { queue ->
+                while (queue.isNotEmpty() && nowMs - queue.first().sinceMs >= idleTimeoutMs) {
+                    evicted += queue.removeFirst().codec
+                }
+            }
+            if (idle.values.any { it.isNotEmpty() }) scheduleEviction()
+        }
+        evicted.forEach { runCatching { destroy(it) } }
+    }
+
+    /**
+     * Releases all idle codecs. Returns true if there was any.
+     */
+    fun clear(): Boolean {
+        val evicted = synchronized(this) {
+            idle.values.flatMap { queue -> queue.map { it.codec } }.also { idle.clear() }
+        }
+        evicted.forEach { runCatching { destroy(it) } }
+        return evicted.isNotEmpty()
+    }
+
+    val idleCount: Int @Synchronized get() = idle.values.sumOf { it.size }
+
+    /**
+     * Number of idle codecs whose MIME type starts with [prefix], for example "video/".
+     */
+    @Synchronized
+    fun idleCount(prefix: String, encoder: Boolean): Int {
+        return idle.entries.sumOf { (key, queue) ->
+            if (key.encoder == encoder && key.mime.startsWith(prefix)) queue.size else 0
+        }
+    }
+
+    private fun scheduleEviction() {
+        if (evictionScheduled) return
+        evictionScheduled = true
+        val evictor = evictor ?: Executors.newSingleThreadScheduledExecutor {
+            Thread(it, "CodecPoolEvictor").apply { isDaemon = true }
+        }.also { evictor = it }
+        evictor.schedule({ evict() }, idleTimeoutMs, TimeUnit.MILLISECONDS)
+    }
+
+    companion object {
+        private const val IDLE_TIMEOUT_MS = 10_000L
+        private const val MAX_IDLE = 2
+
+        @JvmStatic
+        val DEFAULT: CodecPool<MediaCodec> by lazy {
+            CodecPool(
+                    create = { mime, encoder ->
+                        if (encoder) MediaCodec.createEncoderByType(mime)
+                        else MediaCodec.createDecoderByType(mime)
+                    },
+                    reset = { it.reset() },
+                    destroy = { it.release() }
+            )
+        }
+    }
+}
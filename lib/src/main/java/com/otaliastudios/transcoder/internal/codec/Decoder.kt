@@ -2,7 +2,10 @@ package com.otaliastudios.transcoder.internal.codec
 
 import android.media.MediaCodec.*
 import android.media.MediaFormat
+import android.os.Build
 import android.view.Surface
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
 import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.common.trackType
 import com.otaliastudios.transcoder.internal.Codecs
@@ -11,14 +14,25 @@ import com.otaliastudios.transcoder.internal.data.ReaderData
 import com.otaliastudios.transcoder.internal.pipeline.Channel
 import com.otaliastudios.transcoder.internal.pipeline.QueuedStep
 import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.utils.IdCache
+import com.otaliastudios.transcoder.internal.utils.Tracer
+import com.otaliastudios.transcoder.internal.utils.v
 import java.nio.ByteBuffer
 
 
-internal open class DecoderData(
-    val buffer: ByteBuffer,
-    val timeUs: Long,
+/**
+ * Decoder output. There's one instance per codec output buffer, which is reused
+ * every time the buffer is dequeued, so it must not be used after [release].
+ */
+internal class DecoderData(
+    var buffer: ByteBuffer,
+    var timeUs: Long,
     val release: (render: Boolean) -> Unit
-)
+) {
+    // Set by DecoderTimer, if present
+    var rawTimeUs = timeUs
+    var timeStretch = 1.0
+}
 
 internal interface DecoderChannel : Channel {
     fun handleSourceFormat(sourceFormat: MediaFormat): Surface?
@@ -28,21 +42,20 @@ internal interface DecoderChannel : Channel {
 internal class Decoder(
     private val format: MediaFormat, // source.getTrackFormat(track)
     continuous: Boolean, // relevant if the source sends no-render chunks. should we compensate or not?
+    private val tracer: Tracer = Tracer.NONE,
+    private val backoff: BackoffPolicy = DefaultBackoffPolicy(),
+    private val parked: ParkedDecoders? = null,
 ) : QueuedStep<ReaderData, ReaderChannel, DecoderData, DecoderChannel>(
-    when (format.trackType) {
-        TrackType.VIDEO -> "VideoDecoder"
-        TrackType.AUDIO -> "AudioDecoder"
-    }
+    name(format.trackType)
 ), ReaderChannel {
 
     override val channel = this
 
-    init {
-        log.i("init: instantiating codec...")
-    }
-    private val decoder = Codecs.Codec(createDecoderByType(format.getString(MediaFormat.KEY_MIME)!!), null, log)
+    private lateinit var decoder: Codecs.Codec
+    private var eos = false
     private var info = BufferInfo()
     private val dropper = DecoderDropper(continuous)
+    private val outputs = IdCache<DecoderData>()
 
     private var surfaceRendering = false
     private val surfaceRenderingDummyBuffer = ByteBuffer.allocateDirect(0)
@@ -52,8 +65,23 @@ internal class Decoder(
         log.i("initialize()")
         val surface = next.handleSourceFormat(format)
         surfaceRendering = surface != null
-        decoder.codec.configure(format, surface, null, 0)
-        decoder.codec.start()
+        val reused = parked?.take(format.trackType, format, surfaceRendering)
+        if (reused != null) {
+            log.i("initialize(): reusing decoder of the previous segment.")
+            decoder = reused
+            decoder.log = log
+            if (surface != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                decoder.codec.setOutputSurface(surface)
+            }
+            decoder.flush()
+            // The output format won't be signaled again.
+            next.handleRawFormat(decoder.codec.outputFormat)
+        } else {
+            log.i("initialize(): instantiating codec...")
+            decoder = Codecs.Codec(CodecPool.DEFAULT.acquire(format.getString(MediaFormat.KEY_MIME)!!, false), null, log, tracer, backoff)
+            decoder.codec.configure(format, surface, null, 0)
+            decoder.start()
+        }
     }
 
     override fun buffer(): Pair<ByteBuffer, Int>? = decoder.getInputBuffer()
@@ -68,13 +96,13 @@ internal class Decoder(
         decoder.dequeuedInputs--
         val (chunk, id) = data
         val flag = if (chunk.keyframe) BUFFER_FLAG_SYNC_FRAME else 0
-        log.v("enqueued ${chunk.buffer.remaining()} bytes (${chunk.timeUs}us)")
+        log.v { "enqueued ${chunk.buffer.remaining()} bytes (${chunk.timeUs}us)" }
         decoder.codec.queueInputBuffer(id, chunk.buffer.position(), chunk.buffer.remaining(), chunk.timeUs, flag)
         dropper.input(chunk.timeUs, chunk.render)
     }
 
     override fun drain(): State<DecoderData> {
-        val result = decoder.codec.dequeueOutputBuffer(info, 100)
+        val result = decoder.dequeueOutputBuffer(info)
         return when (result) {
             INFO_TRY_AGAIN_LATER -> {
                 log.i("drain(): got INFO_TRY_AGAIN_LATER, waiting.")
@@ -92,7 +120,7 @@ internal class Decoder(
             else -> {
                 val isEos = info.flags and BUFFER_FLAG_END_OF_STREAM != 0
                 val timeUs = if (isEos) 0 else dropper.output(info.presentationTimeUs)
-                if (timeUs != null /* && (isEos || info.size > 0) */) {
+                if (timeUs != DecoderDropper.DROP /* && (isEos || info.size > 0) */) {
                     val codecBuffer = decoder.codec.getOutputBuffer(result)
                     val buffer = when {
                         codecBuffer != null -> codecBuffer
@@ -100,25 +128,54 @@ internal class Decoder(
                         else -> error("outputBuffer($result, ${info.size}, ${info.offset}, ${info.flags}) should not be null.")
                     }
                     decoder.dequeuedOutputs++
-                    val data = DecoderData(buffer, timeUs) {
-                        decoder.codec.releaseOutputBuffer(result, it)
-                        decoder.dequeuedOutputs--
-                    }
-                    if (isEos) State.Eos(data) else State.Ok(data)
+                    val data = output(result)
+                    data.buffer = buffer
+                    data.timeUs = timeUs
+                    data.rawTimeUs = timeUs
+                    data.timeStretch = 1.0
+                    if (isEos) {
+                        eos = true
+                        State.Eos(data)
+                    } else ok(data)
                 } else {
                     // frame was dropped, no need to sleep
                     decoder.codec.releaseOutputBuffer(result, false)
                     State.Retry(false)
                 }.also {
-                    log.v("drain(): returning $it")
+                    log.v { "drain(): returning $it" }
                 }
             }
         }
     }
 
+    private fun output(id: Int): DecoderData {
+        return outputs[id] ?: DecoderData(surfaceRenderingDummyBuffer, 0L) {
+            decoder.codec.releaseOutputBuffer(id, it)
+            decoder.dequeuedOutputs--
+            wakeup.signal()
+        }.also { outputs[id] = it }
+    }
+
     override fun release() {
+        if (!::decoder.isInitialized) return
+        // A decoder that drained cleanly can be handed to the next segment.
+        if (eos && decoder.dequeuedOutputs == 0 && parked?.park(format.trackType, decoder, format, surfaceRendering) == true) {
+            log.i("release: parked codec for the next segment.")
+            return
+        }
         log.i("release: releasing codec. ${decoder.state}")
-        decoder.codec.stop()
-        decoder.codec.release()
+        try {
+            decoder.stop()
+        } finally {
+            decoder.release()
+        }
+    }
+
+    companion object {
+        /** The step name of the decoder of the given track type. */
+        fun name(type: TrackType) = when (type) {
+            TrackType.VIDEO -> "VideoDecoder"
+            TrackType.AUDIO -> "AudioDecoder"
+        }
     }
 }
@@ -26,67 +26,87 @@ internal class DecoderDropper(private val continuous: Boolean) {
     private val log = Logger("DecoderDropper")
     private val closedDeltas = mutableMapOf<LongRange, Long>()
     private val closedRanges = mutableListOf<LongRange>()
-    private var pendingRange: LongRange? = null
 
-    private var firstInputUs: Long? = null
-    private var firstOutputUs: Long? = null
+    // The pending range, as two longs to avoid creating a LongRange for each input.
+    private var pendingFirstUs = NONE
+    private var pendingLastUs = NONE
 
-    private fun debug(message: String, important: Boolean = false) {
-        /* val full = "$message firstInputUs=$firstInputUs " +
+    private var firstInputUs = NONE
+    private var firstOutputUs = NONE
+
+    // Takes a lambda so that messages are not built for nothing.
+    @Suppress("UNUSED_PARAMETER")
+    private inline fun debug(important: Boolean = false, message: () -> String) {
+        /* val full = "${message()} firstInputUs=$firstInputUs " +
                 "validInputUs=[${closedRanges.joinToString {
                     "$it(deltaUs=${closedDeltas[it]})"
-                }}] pendingRangeUs=${pendingRange}"
+                }}] pendingRangeUs=$pendingFirstUs..$pendingLastUs"
         if (important) log.w(full) else log.v(full) */
     }
 
     fun input(timeUs: Long, render: Boolean) {
-        if (firstInputUs == null) {
+        if (firstInputUs == NONE) {
             firstInputUs = timeUs
         }
         if (render) {
-            debug("INPUT: inputUs=$timeUs")
+            debug { "INPUT: inputUs=$timeUs" }
             // log.v("TDBG inputUs=$timeUs")
-            if (pendingRange == null) pendingRange = timeUs..Long.MAX_VALUE
-            else pendingRange = pendingRange!!.first..timeUs
+            if (pendingFirstUs == NONE) {
+                pendingFirstUs = timeUs
+                pendingLastUs = Long.MAX_VALUE
+            } else {
+                pendingLastUs = timeUs
+            }
         } else {
-            debug("INPUT: Got SKIPPING input! inputUs=$timeUs")
-            if (pendingRange != null && pendingRange!!.last != Long.MAX_VALUE) {
-                closedRanges.add(pendingRange!!)
-                closedDeltas[pendingRange!!] = if (closedRanges.size >= 2) {
-                    pendingRange!!.first - closedRanges[closedRanges.lastIndex - 1].last
+            debug { "INPUT: Got SKIPPING input! inputUs=$timeUs" }
+            if (pendingFirstUs != NONE && pendingLastUs != Long.MAX_VALUE) {
+                val pendingRange = pendingFirstUs..pendingLastUs
+                closedRanges.add(pendingRange)
+                closedDeltas[pendingRange] = if (closedRanges.size >= 2) {
+                    pendingRange.first - closedRanges[closedRanges.lastIndex - 1].last
                 } else 0L
             }
-            pendingRange = null
+            pendingFirstUs = NONE
+            pendingLastUs = NONE
         }
     }
 
-    fun output(timeUs: Long): Long? {
-        if (firstOutputUs == null) {
+    /**
+     * Returns the output timestamp, or [DROP] if this frame should not be rendered.
+     */
+    fun output(timeUs: Long): Long {
+        if (firstOutputUs == NONE) {
             firstOutputUs = timeUs
         }
-        val timeInInputScaleUs = firstInputUs!! + (timeUs - firstOutputUs!!)
+        val timeInInputScaleUs = firstInputUs + (timeUs - firstOutputUs)
         var deltaUs = 0L
-        closedRanges.forEach {
-            deltaUs += closedDeltas[it]!!
-            if (it.contains(timeInInputScaleUs)) {
-                debug("OUTPUT: Rendering! outputTimeUs=$timeUs newOutputTimeUs=${timeUs - deltaUs} deltaUs=$deltaUs")
+        for (i in closedRanges.indices) {
+            val range = closedRanges[i]
+            deltaUs += closedDeltas[range]!!
+            if (range.contains(timeInInputScaleUs)) {
+                debug { "OUTPUT: Rendering! outputTimeUs=$timeUs newOutputTimeUs=${timeUs - deltaUs} deltaUs=$deltaUs" }
                 // log.v("TDBG outputUs=$timeUs")
                 return if (continuous) timeUs - deltaUs
                 else timeUs
             }
         }
-        if (pendingRange != null) {
-            if (pendingRange!!.contains(timeInInputScaleUs)) {
+        if (pendingFirstUs != NONE) {
+            if (timeInInputScaleUs in pendingFirstUs..pendingLastUs) {
                 if (closedRanges.isNotEmpty()) {
-                    deltaUs += pendingRange!!.first - closedRanges.last().last
+                    deltaUs += pendingFirstUs - closedRanges.last().last
                 }
-                debug("OUTPUT: Rendering! outputTimeUs=$timeUs newOutputTimeUs=${timeUs - deltaUs} deltaUs=$deltaUs")
+                debug { "OUTPUT: Rendering! outputTimeUs=$timeUs newOutputTimeUs=${timeUs - deltaUs} deltaUs=$deltaUs" }
                 // log.v("TDBG outputUs=$timeUs")
                 return if (continuous) timeUs - deltaUs
                 else timeUs
             }
         }
-        debug("OUTPUT: SKIPPING! outputTimeUs=$timeUs", important = true)
-        return null
+        debug(important = true) { "OUTPUT: SKIPPING! outputTimeUs=$timeUs" }
+        return DROP
+    }
+
+    companion object {
+        private const val NONE = Long.MIN_VALUE
+        const val DROP = Long.MIN_VALUE
     }
-}
\ No newline at end of file
+}
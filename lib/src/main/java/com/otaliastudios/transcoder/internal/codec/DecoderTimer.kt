@@ -4,15 +4,6 @@ import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.pipeline.TransformStep
 import com.otaliastudios.transcoder.internal.pipeline.State
 import com.otaliastudios.transcoder.time.TimeInterpolator
-import java.nio.ByteBuffer
-
-internal class DecoderTimerData(
-        buffer: ByteBuffer,
-        val rawTimeUs: Long,
-        timeUs: Long,
-        val timeStretch: Double,
-        release: (render: Boolean) -> Unit
-) : DecoderData(buffer, timeUs, release)
 
 internal class DecoderTimer(
     private val track: TrackType,
@@ -24,9 +15,6 @@ internal class DecoderTimer(
 
     override fun advance(state: State.Ok<DecoderData>): State<DecoderData> {
         if (state is State.Eos) return state
-        require(state.value !is DecoderTimerData) {
-            "Can't apply DecoderTimer twice."
-        }
         val rawTimeUs = state.value.timeUs
         val timeUs = interpolator.interpolate(track, rawTimeUs)
         val timeStretch = if (lastTimeUs == Long.MIN_VALUE) {
@@ -41,12 +29,10 @@ internal class DecoderTimer(
         lastTimeUs = timeUs
         lastRawTimeUs = rawTimeUs
 
-        return State.Ok(DecoderTimerData(
-            buffer = state.value.buffer,
-            rawTimeUs = rawTimeUs,
-            timeUs = timeUs,
-            timeStretch = timeStretch,
-            release = state.value.release
-        ))
+        // Update the data in place, like ReaderTimer does.
+        state.value.rawTimeUs = rawTimeUs
+        state.value.timeUs = timeUs
+        state.value.timeStretch = timeStretch
+        return state
     }
 }
\ No newline at end of file
@@ -8,12 +8,13 @@ import com.otaliastudios.transcoder.internal.data.WriterData
 import com.otaliastudios.transcoder.internal.pipeline.Channel
 import com.otaliastudios.transcoder.internal.pipeline.QueuedStep
 import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.utils.IdCache
 import java.nio.ByteBuffer
 
 internal data class EncoderData(
-        val buffer: ByteBuffer?, // If present, it must have correct position/remaining!
-        val id: Int,
-        val timeUs: Long
+        var buffer: ByteBuffer?, // If present, it must have correct position/remaining!
+        var id: Int,
+        var timeUs: Long
 ) {
     companion object { val Empty = EncoderData(null, 0, 0L) }
 }
@@ -28,10 +29,7 @@ internal class Encoder(
     ownsCodecStart: Boolean,
     private val ownsCodecStop: Boolean,
 ) : QueuedStep<EncoderData, EncoderChannel, WriterData, WriterChannel>(
-    when (encoder.surface) {
-        null -> "AudioEncoder"
-        else -> "VideoEncoder"
-    }
+    name(if (encoder.surface == null) TrackType.AUDIO else TrackType.VIDEO)
 ), EncoderChannel {
 
     constructor(codecs: Codecs, type: TrackType) : this(
@@ -44,12 +42,13 @@ internal class Encoder(
     override val channel = this
 
     private var info = BufferInfo()
+    private val outputs = IdCache<WriterData>()
 
     init {
         encoder.log = log
         log.i("ownsStart=$ownsCodecStart ownsStop=$ownsCodecStop ${encoder.state}")
         if (ownsCodecStart) {
-            encoder.codec.start()
+            encoder.start()
         }
     }
 
@@ -82,15 +81,18 @@ internal class Encoder(
     }
 
     override fun drain(): State<WriterData> {
-        val timeoutUs = if (eosReceivedButNotEnqueued) 5000L else 100L
-        return when (val result = encoder.codec.dequeueOutputBuffer(info, timeoutUs)) {
+        // When waiting for a fake EOS, wait long enough to be sure that the codec is done.
+        val result = when {
+            eosReceivedButNotEnqueued -> encoder.dequeueOutputBuffer(info, EOS_TIMEOUT_US)
+            else -> encoder.dequeueOutputBuffer(info)
+        }
+        return when (result) {
             INFO_TRY_AGAIN_LATER -> {
                 if (eosReceivedButNotEnqueued) {
                     // Horrible hack. When we don't own the MediaCodec, we can't enqueue EOS so we
                     // can't dequeue them. INFO_TRY_AGAIN_LATER is returned. We assume this means EOS.
                     log.i("Sending fake Eos. ${encoder.state}")
-                    val buffer = ByteBuffer.allocateDirect(0)
-                    State.Eos(WriterData(buffer, 0L, 0) {})
+                    State.Eos(WriterData(EMPTY, 0L, 0) {})
                 } else {
                     log.i("Can't dequeue output buffer: INFO_TRY_AGAIN_LATER")
                     State.Retry(true)
@@ -118,20 +120,42 @@ internal class Encoder(
                     buffer.clear()
                     buffer.limit(info.offset + info.size)
                     buffer.position(info.offset)
-                    val data = WriterData(buffer, timeUs, flags) {
-                        encoder.codec.releaseOutputBuffer(result, false)
-                        encoder.dequeuedOutputs--
-                    }
-                    if (isEos) State.Eos(data) else State.Ok(data)
+                    val data = output(result)
+                    data.buffer = buffer
+                    data.timeUs = timeUs
+                    data.flags = flags
+                    if (isEos) State.Eos(data) else ok(data)
                 }
             }
         }
     }
 
+    /**
+     * One [WriterData] per output buffer, reused every time the buffer is dequeued.
+     */
+    private fun output(id: Int): WriterData {
+        return outputs[id] ?: WriterData(EMPTY, 0L, 0) {
+            encoder.codec.releaseOutputBuffer(id, false)
+            encoder.dequeuedOutputs--
+            wakeup.signal()
+        }.also { outputs[id] = it }
+    }
+
     override fun release() {
         log.i("release(): ownsStop=$ownsCodecStop ${encoder.state}")
         if (ownsCodecStop) {
-            encoder.codec.stop()
+            encoder.stop()
         }
     }
+
+    companion object {
+        /** The step name of the encoder of the given track type. */
+        fun name(type: TrackType) = when (type) {
+            TrackType.VIDEO -> "VideoEncoder"
+            TrackType.AUDIO -> "AudioEncoder"
+        }
+
+        private val EMPTY = ByteBuffer.allocateDirect(0)
+        private const val EOS_TIMEOUT_US = 5000L
+    }
 }
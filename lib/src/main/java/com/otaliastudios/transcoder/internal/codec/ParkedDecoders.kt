@@ -0,0 +1,124 @@
+package com.otaliastudios.transcoder.internal.codec
+
+import android.graphics.SurfaceTexture
+import android.media.MediaFormat
+import android.os.Build
+import android.view.Surface
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.Codecs
+import com.otaliastudios.transcoder.internal.utils.Logger
+
+/**
+ * Lets consecutive segments of the same track share a decoder. When a segment reaches the end
+ * of stream and another segment follows, its decoder is parked here, still running. If the next
+ * segment's format is [compatible], the new [Decoder] flushes and reuses it, instead of creating,
+ * configuring and starting a new one. Otherwise the parked decoder is released.
+ *
+ * Decoders that render to a surface can only be moved to the surface of the next segment
+ * with [android.media.MediaCodec.setOutputSurface], which needs API 23. While parked, they
+ * render to a dummy surface, because the surface of their segment is released with it.
+ */
+internal class ParkedDecoders(private val hasNext: (TrackType) -> Boolean) {
+
+    private class Parked(val codec: Codecs.Codec, val format: MediaFormat, val surface: Boolean)
+
+    private val log = Logger("ParkedDecoders")
+    private val parked = mutableMapOf<TrackType, Parked>()
+    private var dummyTexture: SurfaceTexture? = null
+    private var dummySurface: Surface? = null
+
+    @Synchronized
+    private fun dummySurface(): Surface {
+        return dummySurface ?: SurfaceTexture(0).let { texture ->
+            dummyTexture = texture
+            Surface(texture).also { dummySurface = it }
+        }
+    }
+
+    /**
+     * Parks a decoder that reached the end of stream. Returns false if it can't be parked,
+     * in which case the caller should release it.
+     */
+    fun park(type: TrackType, codec: Codecs.Codec, format: MediaFormat, surface: Boolean): Boolean {
+        if (!hasNext(type)) return false
+        if (surface) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return false
+            try {
+                codec.codec.setOutputSurface(dummySurface())
+            } catch (e: Exception) {
+                log.w("park($type): could not detach from the segment surface.", e)
+                return false
+            }
+        }
+        val previous = synchronized(this) { parked.put(type, Parked(codec, format, surface)) }
+        previous?.let { release(it) }
+        log.i("park($type): parked ${codec.codec.name}.")
+        return true
+    }
+
+    /**
+     * Returns the parked decoder for this track, if it can decode [format]
+     * into the same kind of output. The caller must flush it before use.
+     */
+    fun take(type: TrackType, format: MediaFormat, surface: Boolean): Codecs.Codec? {
+        val candidate = synchronized(this) { parked.remove(type) } ?: return null
+        if (candidate.surface == surface && compatible(candidate.format, format)) {
+            log.i("take($type): reusing ${candidate.codec.codec.name}.")
+            return candidate.codec
+        }
+        log.i("take($type): format changed, releasing ${candidate.codec.codec.name}.")
+        release(candidate)
+        return null
+    }
+
+    fun release() {
+        val all = synchronized(this) { parked.values.toList().also { parked.clear() } }
+        all.forEach { release(it) }
+        synchronized(this) {
+            dummySurface?.release()
+            dummyTexture?.release()
+            dummySurface = null
+            dummyTexture = null
+        }
+    }
+
+    private fun release(parked: Parked) {
+        try {
+            parked.codec.stop()
+        } catch (e: Exception) {
+            log.w("Failed to stop parked decoder.", e)
+        } finally {
+            parked.codec.release()
+        }
+    }
+
+    companion object {
+        private val KEYS = listOf(
+                MediaFormat.KEY_MIME,
+                MediaFormat.KEY_WIDTH,
+                MediaFormat.KEY_HEIGHT,
+                MediaFormat.KEY_SAMPLE_RATE,
+                MediaFormat.KEY_CHANNEL_COUNT,
+                "csd-0", "csd-1", "csd-2"
+        )
+
+        /**
+         * Whether a decoder configured with [first] can decode [second] after a flush:
+         * same MIME type, size or audio parameters, and codec specific data.
+         */
+        fun compatible(first: MediaFormat, second: MediaFormat): Boolean {
+            return KEYS.all { key ->
+                val value = if (first.containsKey(key)) value(first, key) else null
+                val other = if (second.containsKey(key)) value(second, key) else null
+                value == other
+            }
+        }
+
+        private fun value(format: MediaFormat, key: String): Any? = when (key) {
+            MediaFormat.KEY_MIME -> format.getString(key)
+            // ByteBuffer equality compares the remaining bytes.
+            "csd-0", "csd-1", "csd-2" -> format.getByteBuffer(key)
+            else -> format.getInteger(key)
+        }
+    }
+}
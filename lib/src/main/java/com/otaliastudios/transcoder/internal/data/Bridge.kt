@@ -14,11 +14,14 @@ internal class Bridge(private val format: MediaFormat)
 
     private val bufferSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
     private val buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder())
+    private val input = buffer to 0
+    // Reused: the writer handles it before we're called again.
+    private val data = WriterData(buffer, 0L, 0) {}
     override val channel = this
 
     override fun buffer(): Pair<ByteBuffer, Int> {
         buffer.clear()
-        return buffer to 0
+        return input
     }
 
     override fun initialize(next: WriterChannel) {
@@ -29,8 +32,9 @@ internal class Bridge(private val format: MediaFormat)
     // Can't do much about chunk.render, since we don't even decode.
     override fun advance(state: State.Ok<ReaderData>): State<WriterData> {
         val (chunk, _) = state.value
-        val flags = if (chunk.keyframe) MediaCodec.BUFFER_FLAG_SYNC_FRAME else 0
-        val result = WriterData(chunk.buffer, chunk.timeUs, flags) {}
-        return if (state is State.Eos) State.Eos(result) else State.Ok(result)
+        data.buffer = chunk.buffer
+        data.timeUs = chunk.timeUs
+        data.flags = if (chunk.keyframe) MediaCodec.BUFFER_FLAG_SYNC_FRAME else 0
+        return if (state is State.Eos) State.Eos(data) else ok(data)
     }
 }
\ No newline at end of file
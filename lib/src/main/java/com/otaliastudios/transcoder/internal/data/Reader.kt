@@ -4,11 +4,14 @@ import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.pipeline.BaseStep
 import com.otaliastudios.transcoder.internal.pipeline.Channel
 import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.utils.i
+import com.otaliastudios.transcoder.internal.utils.lock
+import com.otaliastudios.transcoder.internal.utils.readWaiters
 import com.otaliastudios.transcoder.source.DataSource
 import java.nio.ByteBuffer
 
 
-internal data class ReaderData(val chunk: DataSource.Chunk, val id: Int)
+internal data class ReaderData(val chunk: DataSource.Chunk, var id: Int)
 
 internal interface ReaderChannel : Channel {
     fun buffer(): Pair<ByteBuffer, Int>?
@@ -21,6 +24,8 @@ internal class Reader(
 
     override val channel = Channel
     private val chunk = DataSource.Chunk()
+    // Reused, like the chunk: the decoder handles it before we read again.
+    private val data = ReaderData(chunk, 0)
 
     private inline fun nextBufferOrWait(action: (ByteBuffer, Int) -> State<ReaderData>): State<ReaderData> {
         val buffer = next.buffer()
@@ -34,24 +39,35 @@ internal class Reader(
     }
 
     override fun advance(state: State.Ok<Unit>): State<ReaderData> {
-        return if (source.isDrained) {
-            log.i("Source is drained! Returning Eos as soon as possible.")
-            nextBufferOrWait { byteBuffer, id ->
-                byteBuffer.limit(0)
-                chunk.buffer = byteBuffer
-                chunk.keyframe = false
-                chunk.render = true
-                State.Eos(ReaderData(chunk, id))
-            }
-        } else if (!source.canReadTrack(track)) {
-            log.i("Returning State.Wait because source can't read $track right now.")
-            State.Retry(false)
-        } else {
-            nextBufferOrWait { byteBuffer, id ->
-                chunk.buffer = byteBuffer
-                source.readTrack(chunk)
-                // log.v("Returning ${chunk.buffer?.remaining() ?: -1} bytes from source")
-                State.Ok(ReaderData(chunk, id))
+        // Hold the lock so that canReadTrack and readTrack are atomic, in case another
+        // thread is reading a different track from the same source.
+        synchronized(source.lock) {
+            return if (source.isDrained) {
+                log.i("Source is drained! Returning Eos as soon as possible.")
+                nextBufferOrWait { byteBuffer, id ->
+                    byteBuffer.limit(0)
+                    chunk.buffer = byteBuffer
+                    chunk.keyframe = false
+                    chunk.render = true
+                    data.id = id
+                    State.Eos(data)
+                }
+            } else if (!source.canReadTrack(track)) {
+                log.i { "Returning State.Wait because source can't read $track right now." }
+                // If the other track reads this source, sleep until it does. Otherwise,
+                // it's on this same thread and we can just try again.
+                val waiters = source.readWaiters ?: return State.Retry(false)
+                waiters.add(wakeup)
+                State.Retry(true)
+            } else {
+                nextBufferOrWait { byteBuffer, id ->
+                    chunk.buffer = byteBuffer
+                    source.readTrack(chunk)
+                    source.readWaiters?.signal()
+                    // log.v("Returning ${chunk.buffer?.remaining() ?: -1} bytes from source")
+                    data.id = id
+                    ok(data)
+                }
             }
         }
     }
@@ -12,9 +12,9 @@ import com.otaliastudios.transcoder.sink.DataSink
 import java.nio.ByteBuffer
 
 internal data class WriterData(
-        val buffer: ByteBuffer,
-        val timeUs: Long,
-        val flags: Int,
+        var buffer: ByteBuffer,
+        var timeUs: Long,
+        var flags: Int,
         val release: () -> Unit
 )
 
@@ -30,6 +30,8 @@ internal class Writer(
     override val channel = this
 
     private val info = MediaCodec.BufferInfo()
+    // The EOS sample carries the last timestamp, so that sinks that sort by time keep it last.
+    private var lastTimeUs = 0L
 
     override fun handleFormat(format: MediaFormat) {
         log.i("handleFormat($format)")
@@ -45,8 +47,9 @@ internal class Writer(
             // can cause some crashes that were not properly debugged, probably related to wrong timestamp.
             // I think if we could ensure that timestamp is valid (> previous, > 0) and buffer.hasRemaining(), there should
             // be an extra call here. See #159. Reluctant to do so without a repro test.
-            info.set(0, 0, 0, flags or MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+            info.set(0, 0, lastTimeUs, flags or MediaCodec.BUFFER_FLAG_END_OF_STREAM)
         } else {
+            lastTimeUs = timestamp
             info.set(
                 buffer.position(),
                 buffer.remaining(),
@@ -56,6 +59,6 @@ internal class Writer(
         }
         sink.writeTrack(track, buffer, info)
         state.value.release()
-        return if (eos) State.Eos(Unit) else State.Ok(Unit)
+        return if (eos) State.Eos(Unit) else ok(Unit)
     }
 }
\ No newline at end of file
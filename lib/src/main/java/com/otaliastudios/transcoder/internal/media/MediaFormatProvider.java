@@ -7,9 +7,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.otaliastudios.transcoder.common.TrackType;
+import com.otaliastudios.transcoder.internal.codec.CodecPool;
 import com.otaliastudios.transcoder.source.DataSource;
+import com.otaliastudios.transcoder.source.ProbeCache;
 
-import java.io.IOException;
 
 /**
  * Formats from {@link com.otaliastudios.transcoder.source.DataSource#getTrackFormat(TrackType)}
@@ -39,6 +40,11 @@ public class MediaFormatProvider {
         if (isComplete(type, format)) {
             return format;
         }
+        ProbeCache cache = ProbeCache.getDefault();
+        MediaFormat cached = cache.getTrackFormat(source, type);
+        if (cached != null && isComplete(type, cached)) {
+            return cached;
+        }
         MediaFormat newFormat = decodeMediaFormat(source, type, format);
         // If not complete, throw an exception. If we don't throw here,
         // it would likely be thrown by strategies anyway, since they expect a
@@ -56,6 +62,7 @@ public class MediaFormatProvider {
             }
             throw new RuntimeException(message);
         }
+        cache.putTrackFormat(source, type, newFormat);
         return newFormat;
     }
 
@@ -91,22 +98,33 @@ public class MediaFormatProvider {
                                           @NonNull TrackType type,
                                           @NonNull MediaFormat format) {
         source.selectTrack(type);
-        MediaCodec decoder;
+        // The decoder comes from the pool and goes back to it, stopped, so that
+        // the Decoder of the first segment can configure it without creating a new one.
+        CodecPool<MediaCodec> pool = CodecPool.getDEFAULT();
+        MediaCodec decoder = pool.acquire(format.getString(MediaFormat.KEY_MIME), false);
         try {
-            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
             decoder.configure(format, null, null, 0);
-        } catch (IOException e) {
+            decoder.start();
+        } catch (Exception e) {
+            pool.recycle(decoder, false);
             throw new RuntimeException("Can't decode this track", e);
         }
-        decoder.start();
         MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
         DataSource.Chunk chunk = new DataSource.Chunk();
         MediaFormat result = null;
-        while (result == null) {
-            result = decodeOnce(type, source, chunk, decoder, info);
+        boolean stopped = false;
+        try {
+            while (result == null) {
+                result = decodeOnce(type, source, chunk, decoder, info);
+            }
+            decoder.stop();
+            stopped = true;
+        } finally {
+            pool.recycle(decoder, stopped);
         }
-        source.deinitialize();
-        source.initialize();
+        // Rewind and leave no track selected, like we found it.
+        source.releaseTrack(type);
+        source.rewind();
         return result;
     }
 
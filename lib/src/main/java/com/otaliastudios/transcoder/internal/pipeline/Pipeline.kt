@@ -1,23 +1,42 @@
 package com.otaliastudios.transcoder.internal.pipeline
 
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
 import com.otaliastudios.transcoder.internal.utils.Logger
-
+import com.otaliastudios.transcoder.internal.utils.v
+import java.util.ArrayDeque
+import java.util.Queue
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
 
 
 private class PipelineItem(
     val step: Step<Any, Channel, Any, Channel>,
     val name: String,
+    private val pipeline: String,
+    // Bounded when data comes from a different stage, see Pipeline.build
+    val unhandled: Queue<State.Ok<Any>>,
+    // Handled inputs, reused by the previous item for its next outputs.
+    // Null for the first item, which receives a constant input.
+    private val recycled: Queue<State.Ok<Any>>?,
 ) {
     // var success: State.Ok<Any>? = null
     // var failure: State.Retry? = null
-    val unhandled = ArrayDeque<State.Ok<Any>>()
-    var done = false
+    @Volatile var done = false
     var advanced = false
     var packets = 0
-    private var nextUnhandled: ArrayDeque<State.Ok<Any>>? = null
+    private var next: PipelineItem? = null
+
+    // Set when this item is the last of its stage (downstream) or the first (upstream)
+    var downstream: Wakeup? = null
+    var upstream: Wakeup? = null
+
+    var observer: PipelineObserver? = null
 
     fun attachToNext(next: PipelineItem) {
-        nextUnhandled = next.unhandled
+        this.next = next
         step.initialize(next = next.step.channel)
     }
 
@@ -25,82 +44,221 @@ private class PipelineItem(
         if (done) return false
         if (first) {
             unhandled.clear()
-            unhandled.addLast(State.Ok(Unit))
+            unhandled.offer(HEAD)
         }
         return unhandled.isNotEmpty() || step is QueuedStep
     }
 
+    private fun hasRoom(): Boolean {
+        val queue = next?.unhandled
+        return queue !is BlockingQueue || queue.remainingCapacity() > 0
+    }
+
+    /**
+     * Steps can reuse the state that they return (see [BaseStep.ok]), so we can't
+     * queue it. Copy its value into a recycled state instead. Eos is rare and never reused.
+     */
+    private fun wrap(result: State.Ok<Any>): State.Ok<Any> {
+        if (result is State.Eos) return result
+        val wrapper = recycled?.poll() ?: return State.Ok(result.value)
+        wrapper.value = result.value
+        return wrapper
+    }
+
+    private fun dispatch(result: State.Ok<Any>) {
+        packets++
+        advanced = true
+        done = result is State.Eos
+        next?.let { it.unhandled.offer(it.wrap(result)) }
+        downstream?.signal()
+    }
+
+    private fun consume() {
+        val input = unhandled.poll()
+        if (input != null && input !is State.Eos) recycled?.offer(input)
+        upstream?.signal()
+    }
+
+    private fun advance(input: State.Ok<Any>): State<Any> {
+        val observer = observer ?: return step.advance(input)
+        val startNs = System.nanoTime()
+        val result = step.advance(input)
+        observer.onStep(pipeline, step.name, result, System.nanoTime() - startNs, unhandled.size)
+        return result
+    }
+
+    private fun tryAdvance(step: QueuedStep<Any, *, Any, *>): State<Any> {
+        val observer = observer ?: return step.tryAdvance()
+        val startNs = System.nanoTime()
+        val result = step.tryAdvance()
+        observer.onStep(pipeline, step.name, result, System.nanoTime() - startNs, unhandled.size)
+        return result
+    }
+
     fun handle(): State.Failure? {
         advanced = false
         while (unhandled.isNotEmpty() && !done) {
-            val input = unhandled.removeFirst()
-            when (val result = step.advance(input)) {
+            if (!hasRoom()) return State.Retry(true)
+            // Peek and remove later, so that the input stays in place if the step retries.
+            val input = unhandled.peek()!!
+            when (val result = advance(input)) {
                 is State.Ok -> {
-                    packets++
-                    advanced = true
-                    done = result is State.Eos
-                    nextUnhandled?.addLast(result)
+                    // Dispatch first: the step might have returned the input itself.
+                    dispatch(result)
+                    consume()
                 }
-                is State.Retry -> {
-                    unhandled.addFirst(input)
+                is State.Retry -> return result
+                is State.Consume -> {
+                    consume()
                     return result
                 }
-                is State.Consume -> return result
             }
         }
         if (!advanced && !done && step is QueuedStep) {
-            when (val result = step.tryAdvance()) {
-                is State.Ok -> {
-                    packets++
-                    advanced = true
-                    done = result is State.Eos
-                    nextUnhandled?.addLast(result)
-                }
+            if (!hasRoom()) return State.Retry(true)
+            when (val result = tryAdvance(step)) {
+                is State.Ok -> dispatch(result)
                 is State.Failure -> return result
             }
         }
         return null
     }
+
+    companion object {
+        // Input of the first item. It is never recycled, so it can be shared.
+        private val HEAD = State.Ok<Any>(Unit)
+    }
 }
 
-internal class Pipeline private constructor(name: String, private val items: List<PipelineItem>) {
+/**
+ * Runs a chain of steps. By default, all steps run on the thread that calls [execute].
+ *
+ * When the pipeline is built as staged, it is split into stages, each starting at a [QueuedStep]
+ * (the first one excluded: it stays with the steps before it, which feed it through its channel).
+ * The first stage still runs in [execute], so that steps that are bound to the caller thread
+ * (e.g. OpenGL rendering) keep working. Every other stage runs in a loop on its own thread,
+ * receiving data through a bounded queue. This lets the decoder and the encoder
+ * work at the same time.
+ */
+internal class Pipeline private constructor(
+    private val name: String,
+    private val items: List<PipelineItem>,
+    private val stages: List<List<PipelineItem>>,
+    backoff: BackoffPolicy,
+) {
 
     private val log = Logger(name)
 
+    val wakeup = Wakeup(backoff)
+
+    private val wakeups = stages.indices.map { if (it == 0) wakeup else Wakeup(backoff) }
+    private val workers = mutableListOf<Thread>()
+    private val workersAdvanced = AtomicBoolean(false)
+    @Volatile private var stopped = false
+    @Volatile private var failure: Throwable? = null
+
+    /**
+     * Receives metrics about each step. Null by default, in which case nothing is measured.
+     */
+    var observer: PipelineObserver? = null
+        set(value) {
+            field = value
+            items.forEach { it.observer = value }
+        }
+
     init {
+        stages.forEachIndexed { index, stage ->
+            stage.forEach { (it.step as? BaseStep<*, *, *, *>)?.attach(wakeups[index]) }
+            if (index > 0) {
+                stages[index - 1].last().downstream = wakeups[index]
+                stage.first().upstream = wakeups[index - 1]
+            }
+        }
         items.zipWithNext().reversed().forEach { (first, next) -> first.attachToNext(next) }
     }
 
-    fun execute(): State<Unit> {
-        log.v("LOOP")
+    private fun List<PipelineItem>.execute(head: Boolean): State<Unit> {
         var advanced = false
         var sleeps = false
+        var blocked: PipelineItem? = null
+        var firstFailed: PipelineItem? = null
+        for (i in indices) {
+            val item = this[i]
 
-        for (i in items.indices) {
-            val item = items[i]
-
-            if (item.canHandle(i == 0)) {
-                log.v("${item.name} START #${item.packets} (${item.unhandled.size} pending)")
+            if (item.canHandle(head && i == 0)) {
+                log.v { "${item.name} START #${item.packets} (${item.unhandled.size} pending)" }
+                // The head input is synthetic, it doesn't mean that the step was blocked.
+                val hadInput = !(head && i == 0) && item.unhandled.isNotEmpty()
                 val failure = item.handle()
                 if (failure != null) {
                     sleeps = sleeps || failure.sleep
-                    log.v("${item.name} FAILED #${item.packets}")
+                    if (hadInput) blocked = item
+                    if (firstFailed == null && item.step is QueuedStep) firstFailed = item
+                    log.v { "${item.name} FAILED #${item.packets}" }
                 } else {
-                    log.v("${item.name} SUCCESS #${item.packets} ${if (item.done) "(eos)" else ""}")
+                    log.v { "${item.name} SUCCESS #${item.packets} ${if (item.done) "(eos)" else ""}" }
                 }
                 advanced = advanced || item.advanced
             } else {
-                log.v("${item.name} SKIP #${item.packets} ${if (item.done) "(eos)" else ""}")
+                log.v { "${item.name} SKIP #${item.packets} ${if (item.done) "(eos)" else ""}" }
             }
         }
+        if (!advanced) {
+            observer?.onIdle(name, (blocked ?: firstFailed)?.step?.name)
+        }
+        return if (advanced) OK else State.Retry(sleeps)
+    }
+
+    fun execute(): State<Unit> {
+        log.v("LOOP")
+        failure?.let { throw it }
+        if (stages.size > 1 && workers.isEmpty()) {
+            startWorkers()
+        }
+        val state = stages.first().execute(head = true)
+        val workersAdvanced = workersAdvanced.getAndSet(false)
         return when {
             items.isEmpty() -> State.Eos(Unit)
             items.last().done -> State.Eos(Unit)
-            advanced -> State.Ok(Unit)
-            else -> State.Retry(sleeps)
+            state is State.Ok || workersAdvanced -> OK
+            // The first stage is over, we're just waiting for workers to signal.
+            stages.first().last().done -> State.Retry(true)
+            else -> state
         }
     }
 
+    private fun startWorkers() {
+        for (index in 1 until stages.size) {
+            workers += thread(name = "${name}Stage$index") {
+                runWorker(stages[index], wakeups[index])
+            }
+        }
+    }
+
+    private fun runWorker(stage: List<PipelineItem>, stageWakeup: Wakeup) {
+        val scheduler = Scheduler()
+        try {
+            while (!stopped && !stage.last().done) {
+                stageWakeup.consume()
+                if (stage.execute(head = false) is State.Ok) {
+                    stageWakeup.reset()
+                    workersAdvanced.set(true)
+                    wakeup.signal()
+                } else {
+                    // Upstream and downstream stages signal us when data or room is available.
+                    stageWakeup.park()
+                    scheduler.await(stageWakeup)
+                }
+            }
+        } catch (e: InterruptedException) {
+            if (!stopped) failure = e
+        } catch (e: Throwable) {
+            log.e("Stage failed.", e)
+            failure = e
+        }
+        wakeup.signal()
+    }
+
     /*fun execute_OLD(): State<Unit> {
         var headState: State.Ok<Any> = State.Ok(Unit)
         var headFresh = true
@@ -161,20 +319,61 @@ internal class Pipeline private constructor(name: String, private val items: Lis
     } */
 
     fun release() {
+        stopped = true
+        workers.forEach { it.interrupt() }
+        // Steps can't be released while workers are using them.
+        var interrupted = false
+        workers.forEach {
+            while (it.isAlive) {
+                try {
+                    it.join()
+                } catch (e: InterruptedException) {
+                    interrupted = true
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt()
         items.forEach { it.step.release() }
     }
 
     companion object {
-        internal fun build(name: String, debug: String? = null, builder: () -> Builder<*, Channel> = { Builder<Unit, Channel>() }): Pipeline {
+        private const val STAGE_CAPACITY = 2
+        private val OK = State.Ok(Unit)
+
+        internal fun build(
+            name: String,
+            debug: String? = null,
+            staged: Boolean = false,
+            backoff: BackoffPolicy = DefaultBackoffPolicy(),
+            builder: () -> Builder<*, Channel> = { Builder<Unit, Channel>() }
+        ): Pipeline {
             val steps = builder().steps
+            val fullName = "${name}Pipeline${debug ?: ""}"
+            val firstQueued = steps.indexOfFirst { it is QueuedStep }
+            val stageStarts = steps.indices.filter { index ->
+                index == 0 || (staged && index > firstQueued && steps[index] is QueuedStep)
+            }
             val items = steps.mapIndexed { index, step ->
                 @Suppress("UNCHECKED_CAST")
                 PipelineItem(
                     step = step as Step<Any, Channel, Any, Channel>,
-                    name = "${index+1}/${steps.size} '${step.name}'"
+                    name = "${index+1}/${steps.size} '${step.name}'",
+                    pipeline = fullName,
+                    unhandled = when {
+                        index > 0 && index in stageStarts -> ArrayBlockingQueue(STAGE_CAPACITY)
+                        else -> ArrayDeque()
+                    },
+                    recycled = when {
+                        index == 0 -> null
+                        index in stageStarts -> ArrayBlockingQueue(STAGE_CAPACITY + 1)
+                        else -> ArrayDeque()
+                    }
                 )
             }
-            return Pipeline("${name}Pipeline${debug ?: ""}", items)
+            val stages = stageStarts.mapIndexed { i, start ->
+                items.subList(start, stageStarts.getOrElse(i + 1) { items.size })
+            }
+            return Pipeline(fullName, items, stages.ifEmpty { listOf(items) }, backoff)
         }
     }
 
@@ -0,0 +1,101 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Readiness flag of a single [Pipeline]. Steps call [signal] when something happened that
+ * may let the pipeline make progress (a buffer was released, a frame became available...).
+ * Signals can come from any thread.
+ *
+ * When the pipeline fails and asks to sleep, it is parked with a deadline. It will run again
+ * as soon as it is signaled, or when the deadline expires. The deadline is a safety net for
+ * progress that we can't observe (e.g. MediaCodec working internally), and it grows while the
+ * pipeline keeps failing so that idle pipelines are polled less and less often,
+ * as decided by the [BackoffPolicy].
+ */
+internal class Wakeup(private val backoff: BackoffPolicy = DefaultBackoffPolicy()) {
+
+    @Volatile
+    internal var waiter: Thread? = null
+
+    @Volatile
+    private var signaled = false
+
+    // Accessed by the engine thread only.
+    private var parked = false
+    private var failures = 0
+    internal var deadlineNs = 0L
+        private set
+
+    fun signal() {
+        signaled = true
+        waiter?.let { LockSupport.unpark(it) }
+    }
+
+    internal fun isReady(nowNs: Long = System.nanoTime()): Boolean {
+        return !parked || signaled || nowNs - deadlineNs >= 0
+    }
+
+    /**
+     * Called right before running the pipeline. Signals that come after this
+     * point, even during the run, will make the pipeline run again.
+     */
+    internal fun consume() {
+        signaled = false
+    }
+
+    internal fun park() {
+        parked = true
+        deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff.getParkTimeMs(failures++))
+    }
+
+    internal fun reset() {
+        parked = false
+        failures = 0
+    }
+}
+
+/**
+ * Parks the engine thread while no pipeline can make progress, until one of them
+ * is ready again according to its [Wakeup]. This replaces sleeping for a fixed time.
+ */
+internal class Scheduler {
+
+    /**
+     * Number of times that [await] actually parked the calling thread.
+     */
+    var parks = 0L
+        private set
+
+    /**
+     * Total time spent parked in [await].
+     */
+    var parkedNs = 0L
+        private set
+
+    fun await(first: Wakeup?, second: Wakeup? = null) {
+        if (first == null && second == null) return
+        if (first?.isReady() == true || second?.isReady() == true) return
+        val thread = Thread.currentThread()
+        first?.waiter = thread
+        second?.waiter = thread
+        try {
+            while (true) {
+                val nowNs = System.nanoTime()
+                if (first?.isReady(nowNs) == true || second?.isReady(nowNs) == true) break
+                val firstNs = first?.let { it.deadlineNs - nowNs } ?: Long.MAX_VALUE
+                val secondNs = second?.let { it.deadlineNs - nowNs } ?: Long.MAX_VALUE
+                parks++
+                LockSupport.parkNanos(this, minOf(firstNs, secondNs))
+                parkedNs += System.nanoTime() - nowNs
+                if (Thread.interrupted()) throw InterruptedException()
+            }
+        } finally {
+            first?.waiter = null
+            second?.waiter = null
+        }
+    }
+}
@@ -2,8 +2,11 @@ package com.otaliastudios.transcoder.internal.pipeline
 
 internal sealed interface State<out T> {
 
-    // Running
-    open class Ok<T>(val value: T) : State<T> {
+    // Running. The value is mutable so that instances can be reused, see BaseStep.ok
+    open class Ok<T>(value: T) : State<T> {
+        var value: T = value
+            internal set
+
         override fun toString() = "State.Ok($value)"
     }
 
@@ -17,11 +20,24 @@ internal sealed interface State<out T> {
         val sleep: Boolean
     }
 
-    class Retry(override val sleep: Boolean) : Failure {
+    // Failures carry no data, so we use the same two instances everywhere.
+    class Retry private constructor(override val sleep: Boolean) : Failure {
         override fun toString() = "State.Retry($sleep)"
+
+        companion object {
+            private val SLEEP = Retry(true)
+            private val NO_SLEEP = Retry(false)
+            operator fun invoke(sleep: Boolean) = if (sleep) SLEEP else NO_SLEEP
+        }
     }
 
-    class Consume(override val sleep: Boolean = false) : Failure {
+    class Consume private constructor(override val sleep: Boolean) : Failure {
         override fun toString() = "State.Consume($sleep)"
+
+        companion object {
+            private val SLEEP = Consume(true)
+            private val NO_SLEEP = Consume(false)
+            operator fun invoke(sleep: Boolean = false) = if (sleep) SLEEP else NO_SLEEP
+        }
     }
 }
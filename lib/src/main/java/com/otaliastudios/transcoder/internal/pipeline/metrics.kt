@@ -0,0 +1,167 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+/**
+ * Observes the execution of [Pipeline]s. When set, pipelines measure each step call
+ * and report it here. In staged pipelines, callbacks can come from different threads.
+ */
+internal interface PipelineObserver {
+
+    /**
+     * Called after each [Step.advance] or [QueuedStep.tryAdvance] call, with the
+     * returned [result], the time spent in the call and the number of inputs that
+     * are still waiting to be handled by this step.
+     */
+    fun onStep(pipeline: String, step: String, result: State<Any>, durationNs: Long, pending: Int)
+
+    /**
+     * Called when a pipeline execution (or a stage execution, for staged pipelines) made no
+     * progress. The idle loop is attributed to [step]:
+     * - the most downstream step that failed while it had input to handle. This usually means
+     *   that it could not pass data to the step after it, e.g. the encoder had no input buffer.
+     * - if there's none, the first [QueuedStep] that failed, which was waiting for its own output.
+     */
+    fun onIdle(pipeline: String, step: String?)
+}
+
+/**
+ * Returns an observer that forwards callbacks to all the non-null [observers],
+ * or null if there are none.
+ */
+internal fun observerOf(vararg observers: PipelineObserver?): PipelineObserver? {
+    val list = observers.filterNotNull()
+    if (list.size <= 1) return list.firstOrNull()
+    return object : PipelineObserver {
+        override fun onStep(pipeline: String, step: String, result: State<Any>, durationNs: Long, pending: Int) {
+            list.forEach { it.onStep(pipeline, step, result, durationNs, pending) }
+        }
+        override fun onIdle(pipeline: String, step: String?) {
+            list.forEach { it.onIdle(pipeline, step) }
+        }
+    }
+}
+
+/**
+ * Counts values in power of two buckets. Bucket 0 holds zeros and bucket i > 0
+ * holds values in [2^(i-1), 2^i).
+ */
+internal class Histogram {
+
+    private val buckets = LongArray(64)
+
+    var count = 0L
+        private set
+
+    var sum = 0L
+        private set
+
+    var max = 0L
+        private set
+
+    fun record(value: Long) {
+        val index = 64 - java.lang.Long.numberOfLeadingZeros(value.coerceAtLeast(0L))
+        buckets[index.coerceAtMost(buckets.lastIndex)]++
+        count++
+        sum += value
+        if (value > max) max = value
+    }
+
+    val mean: Long get() = if (count == 0L) 0L else sum / count
+
+    /**
+     * Returns an upper bound of the given percentile, in 0..1.
+     */
+    fun percentile(percentile: Double): Long {
+        if (count == 0L) return 0L
+        val target = (count * percentile).toLong().coerceIn(1L, count)
+        var seen = 0L
+        buckets.forEachIndexed { index, bucket ->
+            seen += bucket
+            if (seen >= target) return if (index == 0) 0L else minOf(max, (1L shl index) - 1)
+        }
+        return max
+    }
+
+    override fun toString() = "n=$count mean=$mean p50=${percentile(0.5)} p99=${percentile(0.99)} max=$max"
+}
+
+/**
+ * Metrics of a single step of a pipeline. Times are in nanoseconds.
+ */
+internal class StepMetrics(val pipeline: String, val step: String) {
+    val latency = Histogram()
+    val pending = Histogram()
+    var oks = 0L
+        internal set
+    var eos = 0L
+        internal set
+    var retries = 0L
+        internal set
+    var sleepingRetries = 0L
+        internal set
+    var consumes = 0L
+        internal set
+    var idles = 0L
+        internal set
+    // Time spent in calls that returned a failure
+    var stallNs = 0L
+        internal set
+
+    override fun toString() = "$pipeline/$step: ok=$oks eos=$eos " +
+            "retry=$retries (sleep=$sleepingRetries) consume=$consumes idle=$idles stallNs=$stallNs " +
+            "latencyNs=[$latency] pending=[${pending.mean} max=${pending.max}]"
+}
+
+/**
+ * A [PipelineObserver] that aggregates everything into [StepMetrics].
+ * It is thread-safe: updates and reads are synchronized.
+ */
+internal class PipelineMetrics : PipelineObserver {
+
+    private val steps = LinkedHashMap<String, StepMetrics>()
+
+    var idles = 0L
+        private set
+
+    private fun get(pipeline: String, step: String): StepMetrics {
+        return steps.getOrPut("$pipeline/$step") { StepMetrics(pipeline, step) }
+    }
+
+    @Synchronized
+    override fun onStep(pipeline: String, step: String, result: State<Any>, durationNs: Long, pending: Int) {
+        val metrics = get(pipeline, step)
+        metrics.latency.record(durationNs)
+        metrics.pending.record(pending.toLong())
+        if (result is State.Failure) metrics.stallNs += durationNs
+        when (result) {
+            is State.Eos -> metrics.eos++
+            is State.Ok -> metrics.oks++
+            is State.Retry -> {
+                metrics.retries++
+                if (result.sleep) metrics.sleepingRetries++
+            }
+            is State.Consume -> metrics.consumes++
+        }
+    }
+
+    @Synchronized
+    override fun onIdle(pipeline: String, step: String?) {
+        idles++
+        if (step != null) get(pipeline, step).idles++
+    }
+
+    /**
+     * Returns the metrics collected so far, in the order in which steps were first seen.
+     * The returned objects must not be read while pipelines are running.
+     */
+    @Synchronized
+    fun steps(): List<StepMetrics> = steps.values.toList()
+
+    /**
+     * The step that caused most idle loops, if any. This is the likely bottleneck.
+     */
+    @Synchronized
+    fun bottleneck(): StepMetrics? = steps.values.filter { it.idles > 0 }.maxByOrNull { it.idles }
+
+    @Synchronized
+    override fun toString() = steps.values.joinToString(separator = "\n")
+}
@@ -1,6 +1,8 @@
 package com.otaliastudios.transcoder.internal.pipeline
 
 import android.media.MediaFormat
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
 import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.Codecs
 import com.otaliastudios.transcoder.internal.audio.AudioEngine
@@ -25,8 +27,9 @@ internal fun PassThroughPipeline(
     track: TrackType,
     source: DataSource,
     sink: DataSink,
-    interpolator: TimeInterpolator
-) = Pipeline.build("PassThrough$track") {
+    interpolator: TimeInterpolator,
+    backoff: BackoffPolicy = DefaultBackoffPolicy()
+) = Pipeline.build("PassThrough$track", backoff = backoff) {
     Reader(source, track) +
             ReaderTimer(track, interpolator) +
             Bridge(source.getTrackFormat(track)!!) +
@@ -43,10 +46,11 @@ internal fun RegularPipeline(
     codecs: Codecs,
     videoRotation: Int,
     audioStretcher: AudioStretcher,
-    audioResampler: AudioResampler
+    audioResampler: AudioResampler,
+    staged: Boolean = false
 ) = when (track) {
-    TrackType.VIDEO -> VideoPipeline(debug, source, sink, interpolator, format, codecs, videoRotation)
-    TrackType.AUDIO -> AudioPipeline(debug, source, sink, interpolator, format, codecs, audioStretcher, audioResampler)
+    TrackType.VIDEO -> VideoPipeline(debug, source, sink, interpolator, format, codecs, videoRotation, staged)
+    TrackType.AUDIO -> AudioPipeline(debug, source, sink, interpolator, format, codecs, audioStretcher, audioResampler, staged)
 }
 
 private fun VideoPipeline(
@@ -56,10 +60,11 @@ private fun VideoPipeline(
     interpolator: TimeInterpolator,
     format: MediaFormat,
     codecs: Codecs,
-    videoRotation: Int
-) = Pipeline.build("Video", debug) {
+    videoRotation: Int,
+    staged: Boolean
+) = Pipeline.build("Video", debug, staged, codecs.backoff) {
     Reader(source, TrackType.VIDEO) +
-            Decoder(source.getTrackFormat(TrackType.VIDEO)!!, true) +
+            Decoder(source.getTrackFormat(TrackType.VIDEO)!!, true, codecs.tracer, codecs.backoff, codecs.decoders) +
             DecoderTimer(TrackType.VIDEO, interpolator) +
             VideoRenderer(source.orientation, videoRotation, format) +
             VideoPublisher() +
@@ -75,10 +80,11 @@ private fun AudioPipeline(
     format: MediaFormat,
     codecs: Codecs,
     audioStretcher: AudioStretcher,
-    audioResampler: AudioResampler
-) = Pipeline.build("Audio", debug) {
+    audioResampler: AudioResampler,
+    staged: Boolean
+) = Pipeline.build("Audio", debug, staged, codecs.backoff) {
     Reader(source, TrackType.AUDIO) +
-            Decoder(source.getTrackFormat(TrackType.AUDIO)!!, true) +
+            Decoder(source.getTrackFormat(TrackType.AUDIO)!!, true, codecs.tracer, codecs.backoff, codecs.decoders) +
             DecoderTimer(TrackType.AUDIO, interpolator) +
             AudioEngine(audioStretcher, audioResampler, format) +
             Encoder(codecs, TrackType.AUDIO) +
@@ -14,6 +14,30 @@ internal abstract class BaseStep<
     protected lateinit var next: OutputChannel
     private set
 
+    /**
+     * Can be used to tell the engine that this step is able to make progress,
+     * so that it can run the pipeline again. See [Wakeup].
+     */
+    protected var wakeup = Wakeup()
+    private set
+
+    internal fun attach(wakeup: Wakeup) {
+        this.wakeup = wakeup
+    }
+
+    private var output: State.Ok<Output>? = null
+
+    /**
+     * Returns a [State.Ok] holding [value], reusing the same instance on every call.
+     * This is safe because the pipeline reads the value as soon as the step returns,
+     * so steps should prefer this over allocating a new state for each output.
+     */
+    protected fun ok(value: Output): State.Ok<Output> {
+        val output = output ?: return State.Ok(value).also { output = it }
+        output.value = value
+        return output
+    }
+
     override fun initialize(next: OutputChannel) {
         this.next = next
     }
@@ -59,6 +59,8 @@ internal class DefaultThumbnailsEngine(
 
     private val timer = Timer(DefaultTimeInterpolator(), dataSources, tracks, segments.currentIndex)
 
+    private val scheduler = Scheduler()
+
     init {
         log.i("Created Tracks, Segments, Timer...")
     }
@@ -117,14 +119,15 @@ internal class DefaultThumbnailsEngine(
     override fun thumbnails(progress: (Thumbnail) -> Unit) {
         this.progress = progress
         while (true) {
-            val advanced = segments.next(TrackType.VIDEO)?.advance() ?: false
+            val segment = segments.next(TrackType.VIDEO)
+            val advanced = segment?.advance() ?: false
             val completed = !advanced && !segments.hasNext() // avoid calling hasNext if we advanced.
             if (Thread.interrupted()) {
                 throw InterruptedException()
             } else if (completed) {
                 break
-            } else if (!advanced) {
-                Thread.sleep(WAIT_MS)
+            } else if (!advanced && segment?.needsSleep() != false) {
+                scheduler.await(segment?.wakeup)
             }
         }
     }
@@ -135,7 +138,6 @@ internal class DefaultThumbnailsEngine(
     }
 
     companion object {
-        private val WAIT_MS = 2L
         private val PROGRESS_LOOPS = 10L
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.otaliastudios.transcoder.internal.transcode
+
+import android.media.MediaCodecList
+import android.media.MediaFormat
+import android.os.Build
+import com.otaliastudios.transcoder.TranscoderOptions
+import com.otaliastudios.transcoder.internal.codec.CodecPool
+import com.otaliastudios.transcoder.internal.utils.Logger
+
+/**
+ * A number of codec instances, either needed by a job or available on the device.
+ */
+internal data class CodecSlots(
+        val videoDecoders: Int,
+        val videoEncoders: Int,
+        val audioDecoders: Int,
+        val audioEncoders: Int
+) {
+
+    operator fun plus(other: CodecSlots) = CodecSlots(
+            videoDecoders + other.videoDecoders,
+            videoEncoders + other.videoEncoders,
+            audioDecoders + other.audioDecoders,
+            audioEncoders + other.audioEncoders
+    )
+
+    operator fun minus(other: CodecSlots) = CodecSlots(
+            videoDecoders - other.videoDecoders,
+            videoEncoders - other.videoEncoders,
+            audioDecoders - other.audioDecoders,
+            audioEncoders - other.audioEncoders
+    )
+
+    fun fits(other: CodecSlots): Boolean {
+        return other.videoDecoders <= videoDecoders
+                && other.videoEncoders <= videoEncoders
+                && other.audioDecoders <= audioDecoders
+                && other.audioEncoders <= audioEncoders
+    }
+
+    companion object {
+        private val log = Logger("CodecSlots")
+
+        /**
+         * Slots needed by a job. We can't tell yet whether tracks will be compressed,
+         * so this assumes one decoder and one encoder for each track with sources.
+         * Tracks with more sources need a second decoder, because the decoder of the next
+         * segment is prepared while the current one is running (see SegmentPrefetcher).
+         */
+        fun of(options: TranscoderOptions): CodecSlots {
+            fun decoders(sources: Int) = minOf(sources, 2)
+            fun encoders(sources: Int) = minOf(sources, 1)
+            val video = options.videoDataSources.size
+            val audio = options.audioDataSources.size
+            return CodecSlots(decoders(video), encoders(video), decoders(audio), encoders(audio))
+        }
+
+        /**
+         * Slots taken by the idle codecs of [pool].
+         */
+        fun idle(pool: CodecPool<*>) = CodecSlots(
+                videoDecoders = pool.idleCount("video/", false),
+                videoEncoders = pool.idleCount("video/", true),
+                audioDecoders = pool.idleCount("audio/", false),
+                audioEncoders = pool.idleCount("audio/", true)
+        )
+
+        /**
+         * Slots available on this device, according to the first codecs listed for the default
+         * output formats. This is a rough estimate: those may be software codecs, and jobs may
+         * use other formats. Before API 23 there's no way to know, so we use the number
+         * of jobs that we used to run in parallel. Documented in Transcoder.enqueue.
+         */
+        fun device(): CodecSlots {
+            val fallback = Runtime.getRuntime().availableProcessors() + 1
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+                return CodecSlots(fallback, fallback, fallback, fallback)
+            }
+            val infos = try {
+                MediaCodecList(MediaCodecList.REGULAR_CODECS).codecInfos
+            } catch (e: Exception) {
+                log.w("Could not list codecs.", e)
+                return CodecSlots(fallback, fallback, fallback, fallback)
+            }
+            fun instances(mime: String, encoder: Boolean): Int {
+                val info = infos.firstOrNull { it.isEncoder == encoder && it.supportedTypes.any { type -> type.equals(mime, true) } }
+                val max = info?.getCapabilitiesForType(mime)?.maxSupportedInstances ?: 0
+                return if (max > 0) max else fallback
+            }
+            return CodecSlots(
+                    videoDecoders = instances(MediaFormat.MIMETYPE_VIDEO_AVC, false),
+                    videoEncoders = instances(MediaFormat.MIMETYPE_VIDEO_AVC, true),
+                    audioDecoders = instances(MediaFormat.MIMETYPE_AUDIO_AAC, false),
+                    audioEncoders = instances(MediaFormat.MIMETYPE_AUDIO_AAC, true)
+            ).also { log.i("Device codec slots: $it") }
+        }
+    }
+}
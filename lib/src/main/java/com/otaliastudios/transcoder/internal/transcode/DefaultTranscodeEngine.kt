@@ -1,6 +1,9 @@
 package com.otaliastudios.transcoder.internal.transcode
 
 import android.media.MediaFormat
+import com.otaliastudios.transcoder.TranscoderReport
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
 import com.otaliastudios.transcoder.common.TrackStatus
 import com.otaliastudios.transcoder.common.TrackType
 import com.otaliastudios.transcoder.internal.*
@@ -9,20 +12,48 @@ import com.otaliastudios.transcoder.internal.DataSources
 import com.otaliastudios.transcoder.internal.Segments
 import com.otaliastudios.transcoder.internal.Timer
 import com.otaliastudios.transcoder.internal.Tracks
+import com.otaliastudios.transcoder.internal.codec.Decoder
+import com.otaliastudios.transcoder.internal.codec.Encoder
 import com.otaliastudios.transcoder.internal.pipeline.EmptyPipeline
 import com.otaliastudios.transcoder.internal.pipeline.PassThroughPipeline
 import com.otaliastudios.transcoder.internal.pipeline.Pipeline
+import com.otaliastudios.transcoder.internal.pipeline.PipelineMetrics
+import com.otaliastudios.transcoder.internal.pipeline.PipelineObserver
 import com.otaliastudios.transcoder.internal.pipeline.RegularPipeline
+import com.otaliastudios.transcoder.internal.pipeline.Scheduler
+import com.otaliastudios.transcoder.internal.pipeline.StepMetrics
+import com.otaliastudios.transcoder.internal.pipeline.observerOf
 import com.otaliastudios.transcoder.internal.utils.Logger
 import com.otaliastudios.transcoder.internal.utils.TrackMap
+import com.otaliastudios.transcoder.internal.utils.Tracer
+import com.otaliastudios.transcoder.internal.utils.TracingObserver
+import com.otaliastudios.transcoder.internal.utils.countingReads
+import com.otaliastudios.transcoder.internal.utils.countingWrites
 import com.otaliastudios.transcoder.internal.utils.forcingEos
 import com.otaliastudios.transcoder.internal.utils.ignoringEos
+import com.otaliastudios.transcoder.internal.utils.merging
+import com.otaliastudios.transcoder.internal.utils.prefetched
+import com.otaliastudios.transcoder.internal.utils.ReadWaiters
+import com.otaliastudios.transcoder.internal.utils.synchronizedOn
+import com.otaliastudios.transcoder.internal.utils.trace
+import com.otaliastudios.transcoder.internal.utils.tracing
+import com.otaliastudios.transcoder.internal.utils.trackMapOf
+import com.otaliastudios.transcoder.internal.utils.v
+import com.otaliastudios.transcoder.internal.video.VideoRenderer
 import com.otaliastudios.transcoder.resample.AudioResampler
 import com.otaliastudios.transcoder.sink.DataSink
+import com.otaliastudios.transcoder.source.DataSource
 import com.otaliastudios.transcoder.strategy.TrackStrategy
 import com.otaliastudios.transcoder.stretch.AudioStretcher
 import com.otaliastudios.transcoder.time.TimeInterpolator
 import com.otaliastudios.transcoder.validator.Validator
+import java.util.IdentityHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 internal class DefaultTranscodeEngine(
         private val dataSources: DataSources,
@@ -32,18 +63,53 @@ internal class DefaultTranscodeEngine(
         private val videoRotation: Int,
         private val audioStretcher: AudioStretcher,
         private val audioResampler: AudioResampler,
-        interpolator: TimeInterpolator
+        interpolator: TimeInterpolator,
+        parallelTracks: Boolean = false,
+        private val stagedPipelines: Boolean = false,
+        observer: PipelineObserver? = null,
+        private val reporting: Boolean = false,
+        private val tracer: Tracer = Tracer.NONE,
+        private val backoff: BackoffPolicy = DefaultBackoffPolicy()
 ) : TranscodeEngine() {
 
     private val log = Logger("TranscodeEngine")
 
     private val tracks = Tracks(strategies, dataSources, videoRotation, false)
 
-    private val segments = Segments(dataSources, tracks, ::createPipeline)
+    // Running tracks in parallel only makes sense if we have two of them.
+    private val parallel = parallelTracks && tracks.active.size > 1
+
+    // In parallel mode, the writers of both tracks go through a merging sink.
+    private val sink = dataSink.let {
+        if (tracer.enabled) it.tracing(tracer) else it
+    }.let {
+        if (parallel) it.merging(TrackType.values().toList()) else it
+    }
+
+    private val prefetcher = SegmentPrefetcher(dataSources, tracks, tracer = tracer)
+
+    private val segments = Segments(dataSources, tracks, ::createPipeline, tracer, prefetcher)
 
     private val timer = Timer(interpolator, dataSources, tracks, segments.currentIndex)
 
-    private val codecs = Codecs(dataSources, tracks, segments.currentIndex)
+    private val codecs = Codecs(dataSources, tracks, segments.currentIndex, tracer, backoff)
+
+    private val scheduler = Scheduler()
+
+    private val observer = observerOf(observer, if (tracer.enabled) TracingObserver(tracer) else null)
+
+    // Report counters, only updated when reporting.
+    private val bytesRead = trackMapOf(AtomicLong(), AtomicLong())
+    private val bytesWritten = trackMapOf(AtomicLong(), AtomicLong())
+
+    // Readers of the same source, which might be waiting for each other.
+    private val sourceWaiters = IdentityHashMap<DataSource, ReadWaiters>()
+
+    private fun readWaiters(source: DataSource) = synchronized(sourceWaiters) {
+        sourceWaiters.getOrPut(source) { ReadWaiters() }
+    }
+    private val trackSleeps = AtomicLong()
+    private val trackSleepNs = AtomicLong()
 
     init {
         log.i("Created Tracks, Segments, Timer...")
@@ -70,19 +136,31 @@ internal class DefaultTranscodeEngine(
         log.w("createPipeline($type, $index, $status), format=$outputFormat")
         val interpolator = timer.interpolator(type, index)
         val sources = dataSources[type]
-        val source = sources[index].forcingEos {
+        val prefetched = prefetcher.take(type, index)
+        val source = sources[index].let {
+            if (prefetched != null) it.prefetched(type, prefetched) else it
+        }.forcingEos {
             // Enforce EOS if we exceed duration of other tracks,
             // with a little tolerance.
             timer.positionUs[type] > timer.totalDurationUs + 100L
+        }.let {
+            if (reporting) it.countingReads(bytesRead[type]) else it
+        }.let {
+            // The other thread might be reading the same source.
+            if (parallel) it.synchronizedOn(sources[index], readWaiters(sources[index])) else it
         }
-        val sink = dataSink.ignoringEos { index < sources.lastIndex }
+        val sink = this.sink.let {
+            if (reporting) it.countingWrites(bytesWritten) else it
+        }.ignoringEos { index < sources.lastIndex }
         return when (status) {
             TrackStatus.ABSENT -> EmptyPipeline()
             TrackStatus.REMOVING -> EmptyPipeline()
-            TrackStatus.PASS_THROUGH -> PassThroughPipeline(type, source, sink, interpolator)
+            TrackStatus.PASS_THROUGH -> PassThroughPipeline(type, source, sink, interpolator, backoff)
             TrackStatus.COMPRESSING -> RegularPipeline(type, if (count > 1) "${index+1}/$count" else null,
                     source, sink, interpolator, outputFormat, codecs,
-                    videoRotation, audioStretcher, audioResampler)
+                    videoRotation, audioStretcher, audioResampler, stagedPipelines)
+        }.also {
+            it.observer = observer
         }
     }
 
@@ -100,6 +178,10 @@ internal class DefaultTranscodeEngine(
      * will simply return null if there's nothing to be done.
      */
     override fun transcode(progress: (Double) -> Unit) {
+        if (parallel) {
+            transcodeParallel(progress)
+            return
+        }
         var loop = 0L
         log.i("transcode(): about to start, " +
                 "durationUs=${timer.totalDurationUs}, " +
@@ -115,7 +197,7 @@ internal class DefaultTranscodeEngine(
             val advanced = (audio?.advance() ?: false) or (video?.advance() ?: false)
             val completed = !advanced && !segments.hasNext() // avoid calling hasNext if we advanced.
 
-            log.v("iteration #$loop audio=${segments.currentIndex.audio+1}/${dataSources.audio.size} video=${segments.currentIndex.video+1}/${dataSources.video.size} advanced=$advanced completed=$completed")
+            log.v { "iteration #$loop audio=${segments.currentIndex.audio+1}/${dataSources.audio.size} video=${segments.currentIndex.video+1}/${dataSources.video.size} advanced=$advanced completed=$completed" }
             if (Thread.interrupted()) {
                 throw InterruptedException()
             }
@@ -125,19 +207,128 @@ internal class DefaultTranscodeEngine(
             }
 
             if (!advanced && audio?.needsSleep() != false && video?.needsSleep() != false) {
-                Thread.sleep(WAIT_MS)
+                tracer.trace("engine", "sleep") {
+                    scheduler.await(audio?.wakeup, video?.wakeup)
+                }
             }
 
             if (advanced && ++loop % PROGRESS_LOOPS == 0L) {
                 val audioProgress = timer.progress.audio
                 val videoProgress = timer.progress.video
-                log.v("transcode(): got progress, video=$videoProgress audio=$audioProgress")
+                log.v { "transcode(): got progress, video=$videoProgress audio=$audioProgress" }
                 progress((videoProgress + audioProgress) / tracks.active.size)
             }
         }
         dataSink.stop()
     }
 
+    /**
+     * Runs each track on its own thread, so that a stalled codec in one track does not
+     * block the other. Segments are created by the track thread itself, which owns the codecs
+     * and GL context of its pipeline. This is safe because [Segments] selects both tracks
+     * of a shared source before the first one is read or seeked.
+     */
+    private fun transcodeParallel(progress: (Double) -> Unit) {
+        log.i("transcodeParallel(): about to start, durationUs=${timer.totalDurationUs}")
+        val executor = Executors.newFixedThreadPool(2) { Thread(it, "TranscoderTrackThread") }
+        val service = ExecutorCompletionService<Unit>(executor)
+        listOf(TrackType.VIDEO, TrackType.AUDIO).forEach { type ->
+            service.submit { transcodeTrack(type) }
+        }
+        try {
+            var pending = 2
+            while (pending > 0) {
+                val future = service.poll(PROGRESS_MS, TimeUnit.MILLISECONDS)
+                if (future != null) {
+                    pending--
+                    try {
+                        future.get()
+                    } catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+                val audioProgress = timer.progress.audio
+                val videoProgress = timer.progress.video
+                progress((videoProgress + audioProgress) / tracks.active.size)
+            }
+        } finally {
+            executor.shutdownNow()
+            awaitTermination(executor)
+        }
+        progress(1.0)
+        sink.stop()
+    }
+
+    private fun transcodeTrack(type: TrackType) {
+        val scheduler = Scheduler()
+        try {
+            transcodeTrack(type, scheduler)
+        } finally {
+            trackSleeps.addAndGet(scheduler.parks)
+            trackSleepNs.addAndGet(scheduler.parkedNs)
+        }
+    }
+
+    private fun transcodeTrack(type: TrackType, scheduler: Scheduler) {
+        var loop = 0L
+        while (true) {
+            val segment = segments.next(type)
+            if (segment == null) {
+                if (!segments.hasNext(type)) break
+                // The other track must be done with this source before it can start over.
+                Thread.sleep(SEGMENT_WAIT_MS)
+                continue
+            }
+            val advanced = segment.advance()
+            log.v { "$type iteration #${loop++} index=${segment.index+1}/${dataSources[type].size} advanced=$advanced" }
+            if (Thread.interrupted()) {
+                throw InterruptedException()
+            }
+            if (!advanced) {
+                if (segment.needsSleep()) tracer.trace("engine", "sleep") { scheduler.await(segment.wakeup) }
+                else Thread.yield() // a step asked to retry right away
+            }
+        }
+        log.i("transcodeTrack($type): completed.")
+    }
+
+    /**
+     * Track threads must be gone before [cleanup] releases their codecs, even if we
+     * are interrupted meanwhile.
+     */
+    private fun awaitTermination(executor: ExecutorService) {
+        var interrupted = false
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) break
+            } catch (e: InterruptedException) {
+                interrupted = true
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt()
+    }
+
+    override fun report(metrics: PipelineMetrics?, wallTimeMs: Long): TranscoderReport {
+        val steps = metrics?.steps().orEmpty()
+        fun track(type: TrackType): TranscoderReport.Track {
+            val encoded = if (tracks.all[type] == TrackStatus.COMPRESSING) codecs.encoders[type].totalOutputs else 0L
+            return TranscoderReport.Track.Builder(type, tracks.all[type])
+                .setStepMetrics(type, steps)
+                .setFramesEncoded(encoded)
+                .setBytesRead(bytesRead[type].get())
+                .setBytesWritten(bytesWritten[type].get())
+                .build()
+        }
+        return TranscoderReport(
+            wallTimeMs,
+            timer.totalDurationUs,
+            scheduler.parks + trackSleeps.get(),
+            TimeUnit.NANOSECONDS.toMillis(scheduler.parkedNs + trackSleepNs.get()),
+            track(TrackType.VIDEO),
+            track(TrackType.AUDIO)
+        )
+    }
+
     override fun cleanup() {
         runCatching { segments.release() }
         runCatching { dataSink.release() }
@@ -147,7 +338,26 @@ internal class DefaultTranscodeEngine(
 
 
     companion object {
-        private val WAIT_MS = 2L
         private val PROGRESS_LOOPS = 10L
+        private const val PROGRESS_MS = 100L
+        private const val SEGMENT_WAIT_MS = 5L
+
+        /**
+         * Fills the frame counts and stall times of the [type] track
+         * from the metrics of its decoder, renderer and encoder steps.
+         */
+        internal fun TranscoderReport.Track.Builder.setStepMetrics(
+            type: TrackType,
+            steps: List<StepMetrics>
+        ): TranscoderReport.Track.Builder {
+            val decoders = steps.filter { it.step == Decoder.name(type) }
+            val encoders = steps.filter { it.step == Encoder.name(type) }
+            val renderers = if (type == TrackType.VIDEO) steps.filter { it.step == VideoRenderer.NAME } else emptyList()
+            return setFramesDecoded(decoders.sumOf { it.oks })
+                .setFramesRendered(renderers.sumOf { it.oks })
+                .setFramesDropped(renderers.sumOf { it.consumes })
+                .setDecoderStallMs(TimeUnit.NANOSECONDS.toMillis(decoders.sumOf { it.stallNs }))
+                .setEncoderStallMs(TimeUnit.NANOSECONDS.toMillis(encoders.sumOf { it.stallNs }))
+        }
     }
 }
@@ -6,6 +6,9 @@ import androidx.annotation.NonNull;
 
 import com.otaliastudios.transcoder.TranscoderListener;
 import com.otaliastudios.transcoder.TranscoderOptions;
+import com.otaliastudios.transcoder.TranscoderQueueListener;
+import com.otaliastudios.transcoder.TranscoderReport;
+import com.otaliastudios.transcoder.TranscoderReportListener;
 
 /**
  * Wraps a TranscoderListener and posts events on the given handler.
@@ -14,10 +17,34 @@ class TranscodeDispatcher {
 
     private final Handler mHandler;
     private final TranscoderListener mListener;
+    private final TranscoderReportListener mReportListener;
+    private final TranscoderQueueListener mQueueListener;
 
     TranscodeDispatcher(@NonNull TranscoderOptions options) {
         mHandler = options.getListenerHandler();
         mListener = options.getListener();
+        mReportListener = options.getReportListener();
+        mQueueListener = options.getQueueListener();
+    }
+
+    void dispatchQueued(final int position) {
+        if (mQueueListener == null) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mQueueListener.onTranscodeQueued(position);
+            }
+        });
+    }
+
+    void dispatchReport(@NonNull final TranscoderReport report) {
+        if (mReportListener == null) return;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mReportListener.onTranscodeReport(report);
+            }
+        });
     }
 
     void dispatchCancel() {
@@ -2,8 +2,12 @@ package com.otaliastudios.transcoder.internal.transcode
 
 import com.otaliastudios.transcoder.Transcoder
 import com.otaliastudios.transcoder.TranscoderOptions
+import com.otaliastudios.transcoder.TranscoderReport
 import com.otaliastudios.transcoder.internal.DataSources
+import com.otaliastudios.transcoder.internal.pipeline.PipelineMetrics
 import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.TraceRecorder
+import com.otaliastudios.transcoder.internal.utils.Tracer
 import com.otaliastudios.transcoder.internal.utils.trackMapOf
 
 internal abstract class TranscodeEngine {
@@ -12,6 +16,12 @@ internal abstract class TranscodeEngine {
 
     abstract fun transcode(progress: (Double) -> Unit)
 
+    /**
+     * Builds a report of the last [transcode] call. Step counters are only
+     * available if [metrics] were passed to the engine as observer.
+     */
+    abstract fun report(metrics: PipelineMetrics?, wallTimeMs: Long): TranscoderReport
+
     abstract fun cleanup()
 
     companion object {
@@ -28,6 +38,14 @@ internal abstract class TranscodeEngine {
             log.i("transcode(): called...")
             var engine: TranscodeEngine? = null
             val dispatcher = TranscodeDispatcher(options)
+            val metrics = if (options.reportListener != null) PipelineMetrics() else null
+            // Tracing should never break transcoding, not even when the file can't be created.
+            val tracer = options.traceFile?.let { file ->
+                runCatching { TraceRecorder(file) }.getOrElse {
+                    log.w("Could not create trace file $file, tracing is disabled.", it)
+                    null
+                }
+            } ?: Tracer.NONE
             try {
                 engine = DefaultTranscodeEngine(
                         dataSources = DataSources(options),
@@ -40,14 +58,26 @@ internal abstract class TranscodeEngine {
                         videoRotation = options.videoRotation,
                         interpolator = options.timeInterpolator,
                         audioStretcher = options.audioStretcher,
-                        audioResampler = options.audioResampler
+                        audioResampler = options.audioResampler,
+                        parallelTracks = options.isParallelTracks,
+                        stagedPipelines = options.isStagedPipelines,
+                        observer = metrics,
+                        reporting = metrics != null,
+                        tracer = tracer,
+                        backoff = options.backoffPolicy
                 )
                 if (!engine.validate()) {
                     dispatcher.dispatchSuccess(Transcoder.SUCCESS_NOT_NEEDED)
                 } else {
+                    val startMs = System.currentTimeMillis()
                     engine.transcode {
                         dispatcher.dispatchProgress(it)
                     }
+                    if (metrics != null) {
+                        val report = engine.report(metrics, System.currentTimeMillis() - startMs)
+                        log.i("transcode(): $report")
+                        dispatcher.dispatchReport(report)
+                    }
                     dispatcher.dispatchSuccess(Transcoder.SUCCESS_TRANSCODED)
                 }
             } catch (e: Exception) {
@@ -61,6 +91,7 @@ internal abstract class TranscodeEngine {
                 }
             } finally {
                 engine?.cleanup()
+                tracer.close()
             }
         }
     }
@@ -0,0 +1,125 @@
+package com.otaliastudios.transcoder.internal.transcode
+
+import com.otaliastudios.transcoder.TranscoderOptions
+import com.otaliastudios.transcoder.internal.codec.CodecPool
+import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.ThreadPool
+import java.util.PriorityQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+
+/**
+ * Runs jobs on [executor] only when the codecs they need are available, so that we don't
+ * start more jobs than the device can handle: failing to allocate a codec in the middle of
+ * a job would make it fail. Waiting jobs start in order of priority, then in order of arrival.
+ *
+ * A job that needs more than the whole [capacity] can still run, but alone.
+ *
+ * Idle codecs in [pool] also take resources, although no job owns them. When they take
+ * the slots that a job needs, they are released before the job starts.
+ */
+internal class TranscodeQueue(
+        private val capacity: CodecSlots,
+        private val executor: Executor,
+        private val pool: CodecPool<*>? = null
+) {
+
+    interface Job {
+        val priority: Int
+        val slots: CodecSlots
+        fun run()
+        fun onQueued(position: Int)
+    }
+
+    private inner class Task(val job: Job, val index: Long) : FutureTask<Void?>(Callable { job.run(); null }) {
+        var admitted = false
+        var position = -1
+
+        // Slots are returned only once the job has returned, even if it was canceled
+        // while running: it might still be using its codecs until then.
+        override fun run() {
+            try {
+                super.run()
+            } finally {
+                finished(this)
+            }
+        }
+
+        override fun done() {
+            canceled(this)
+        }
+    }
+
+    private val log = Logger("TranscodeQueue")
+    private val order = compareByDescending<Task> { it.job.priority }.thenBy { it.index }
+    private val pending = PriorityQueue(11, order)
+    private var free = capacity
+    private var running = 0
+    private var count = 0L
+
+    @Synchronized
+    fun enqueue(jobs: List<Job>): List<Future<Void?>> {
+        val tasks = jobs.map { Task(it, count++) }
+        pending.addAll(tasks)
+        schedule()
+        return tasks
+    }
+
+    @Synchronized
+    private fun finished(task: Task) {
+        free += task.job.slots
+        running--
+        schedule()
+    }
+
+    @Synchronized
+    private fun canceled(task: Task) {
+        // Admitted tasks are handled by finished().
+        if (!task.admitted && pending.remove(task)) {
+            schedule()
+        }
+    }
+
+    private fun schedule() {
+        // Stop at the first job that does not fit, so that big jobs are not overtaken forever.
+        while (true) {
+            val next = pending.peek() ?: break
+            if (running > 0 && !free.fits(next.job.slots)) break
+            pending.poll()
+            if (pool != null && !(free - CodecSlots.idle(pool)).fits(next.job.slots)) {
+                log.i("Releasing idle codecs for job #${next.index}.")
+                pool.clear()
+            }
+            next.admitted = true
+            free -= next.job.slots
+            running++
+            log.i("Starting job #${next.index} (running=$running, pending=${pending.size}, free=$free)")
+            executor.execute(next)
+        }
+        pending.sortedWith(order).forEachIndexed { position, task ->
+            if (task.position != position) {
+                task.position = position
+                task.job.onQueued(position)
+            }
+        }
+    }
+
+    private class OptionsJob(private val options: TranscoderOptions) : Job {
+        private val dispatcher = TranscodeDispatcher(options)
+        override val priority get() = options.priority
+        override val slots = CodecSlots.of(options)
+        override fun run() = TranscodeEngine.transcode(options)
+        override fun onQueued(position: Int) = dispatcher.dispatchQueued(position)
+    }
+
+    companion object {
+        private val instance by lazy { TranscodeQueue(CodecSlots.device(), ThreadPool.executor, CodecPool.DEFAULT) }
+
+        @JvmStatic
+        fun submit(options: List<TranscoderOptions>): List<Future<Void?>> {
+            return instance.enqueue(options.map { OptionsJob(it) })
+        }
+    }
+}
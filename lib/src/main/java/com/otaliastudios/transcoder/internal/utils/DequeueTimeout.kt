@@ -0,0 +1,32 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+
+/**
+ * Computes the timeout of the dequeue calls on one side (input or output) of a codec,
+ * by feeding [policy] with what was observed so far. Call [record] after each call.
+ */
+internal class DequeueTimeout(private val policy: BackoffPolicy) {
+
+    private var misses = 0
+    private var lastNs = 0L
+
+    // Moving average of the time between buffers.
+    var intervalUs = 0L
+        private set
+
+    val timeoutUs: Long get() = policy.getDequeueTimeoutUs(misses, intervalUs)
+
+    fun record(success: Boolean, nowNs: Long = System.nanoTime()) {
+        if (!success) {
+            misses++
+            return
+        }
+        misses = 0
+        if (lastNs != 0L) {
+            val sampleUs = (nowNs - lastNs) / 1000
+            intervalUs = if (intervalUs == 0L) sampleUs else (intervalUs * 7 + sampleUs) / 8
+        }
+        lastNs = nowNs
+    }
+}
@@ -0,0 +1,18 @@
+package com.otaliastudios.transcoder.internal.utils
+
+/**
+ * Holds one object per codec buffer id. A buffer can't be dequeued again before it is
+ * released or queued back, so the object of a given id can be reused the next time that
+ * id comes out of the codec. Ids are small, dense integers so we use a list.
+ */
+internal class IdCache<T: Any> {
+
+    private val items = ArrayList<T?>()
+
+    operator fun get(id: Int): T? = items.getOrNull(id)
+
+    operator fun set(id: Int, value: T) {
+        while (items.size <= id) items.add(null)
+        items[id] = value
+    }
+}
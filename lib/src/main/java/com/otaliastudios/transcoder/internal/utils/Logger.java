@@ -65,6 +65,28 @@ public class Logger {
         return mLevel <= messageLevel;
     }
 
+    /**
+     * Whether messages of the given level are logged. Callers on hot paths
+     * can check this to avoid building messages that would be discarded.
+     *
+     * @param level a log level
+     * @return true if enabled
+     */
+    public boolean isEnabled(@LogLevel int level) {
+        return should(level);
+    }
+
+    /**
+     * Whether verbose messages are logged. This is a separate method so that apps
+     * can strip verbose messages from release builds with an R8 rule that assumes it
+     * returns false, see logging.kt.
+     *
+     * @return true if enabled
+     */
+    public boolean isVerboseEnabled() {
+        return should(LEVEL_VERBOSE);
+    }
+
     public void v(String message) { v(message, null); }
 
     public void i(String message) { i(message, null); }
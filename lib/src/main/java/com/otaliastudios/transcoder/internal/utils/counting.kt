@@ -0,0 +1,40 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaCodec
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.sink.DataSink
+import com.otaliastudios.transcoder.source.DataSource
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Adds the size of each chunk read from this source to [counter].
+ */
+internal fun DataSource.countingReads(counter: AtomicLong): DataSource
+        = ReadCountingDataSource(this, counter)
+
+private class ReadCountingDataSource(
+        private val source: DataSource,
+        private val counter: AtomicLong,
+) : DataSource by source {
+    override fun readTrack(chunk: DataSource.Chunk) {
+        source.readTrack(chunk)
+        counter.addAndGet(chunk.buffer.remaining().toLong())
+    }
+}
+
+/**
+ * Adds the size of each sample written to this sink to the counter of its track.
+ */
+internal fun DataSink.countingWrites(counters: TrackMap<AtomicLong>): DataSink
+        = WriteCountingDataSink(this, counters)
+
+private class WriteCountingDataSink(
+        private val sink: DataSink,
+        private val counters: TrackMap<AtomicLong>,
+) : DataSink by sink {
+    override fun writeTrack(type: TrackType, byteBuffer: ByteBuffer, bufferInfo: MediaCodec.BufferInfo) {
+        counters[type].addAndGet(bufferInfo.size.toLong())
+        sink.writeTrack(type, byteBuffer, bufferInfo)
+    }
+}
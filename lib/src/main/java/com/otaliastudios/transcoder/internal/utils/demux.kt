@@ -0,0 +1,158 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaFormat
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.source.DataSource
+import com.otaliastudios.transcoder.source.DataSourceWrapper
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Maximum bytes held by a [demuxed] source, in samples that were read ahead for the other track.
+ */
+internal const val DEFAULT_DEMUX_BYTES = 4 * 1024 * 1024
+
+/**
+ * For sources that provide both audio and video. The container is read once, in timestamp order,
+ * and samples are distributed to per-track queues: when a track asks for a sample but the source
+ * is positioned on a sample of the other track, that sample is read and queued, instead of
+ * having the track wait until the other one reads it.
+ *
+ * Samples are only queued if the track format has [MediaFormat.KEY_MAX_INPUT_SIZE], and up to
+ * [maxBytes]. Beyond that, the track waits as it would without demuxing.
+ *
+ * Since [DataSource.readTrack] does not take a type, it returns a sample of the track that was
+ * last accepted by [DataSource.canReadTrack]. Callers must call the two atomically,
+ * like [com.otaliastudios.transcoder.internal.data.Reader] does.
+ */
+internal fun DataSource.demuxed(
+        maxBytes: Int = DEFAULT_DEMUX_BYTES,
+        sampleSize: (TrackType) -> Int? = { type ->
+            getTrackFormat(type)?.takeIf { it.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE) }
+                    ?.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+        }
+): DataSource = DemuxedDataSource(this, maxBytes, sampleSize)
+
+private class Sample(val buffer: ByteBuffer, val timeUs: Long, val keyframe: Boolean, val render: Boolean)
+
+// Extends DataSourceWrapper so that it can be unwrapped, e.g. by ProbeCache.
+private class DemuxedDataSource(
+        source: DataSource,
+        private val maxBytes: Int,
+        private val sampleSize: (TrackType) -> Int?,
+) : DataSourceWrapper(source) {
+
+    private val log = Logger("DemuxedDataSource")
+    private val queues = trackMapOf(ArrayDeque<Sample>(), ArrayDeque<Sample>())
+    private var queuedBytes = 0
+    private val free = ArrayDeque<ByteBuffer>()
+    private val scratch = mutableTrackMapOf<ByteBuffer>()
+    private val chunk = DataSource.Chunk()
+    private var accepted: TrackType? = null
+
+    private val TrackType.other get() = when (this) {
+        TrackType.AUDIO -> TrackType.VIDEO
+        TrackType.VIDEO -> TrackType.AUDIO
+    }
+
+    override fun isDrained(): Boolean {
+        return queues.video.isEmpty() && queues.audio.isEmpty() && source.isDrained
+    }
+
+    override fun canReadTrack(type: TrackType): Boolean {
+        accepted = null
+        val readable = queues[type].isNotEmpty() || demux(type)
+        if (readable) accepted = type
+        return readable
+    }
+
+    /**
+     * Queues samples of the other track until the source is positioned on a sample of [type].
+     */
+    private fun demux(type: TrackType): Boolean {
+        while (!source.isDrained) {
+            if (source.canReadTrack(type)) return true
+            if (!source.canReadTrack(type.other) || !enqueue(type.other)) return false
+        }
+        return false
+    }
+
+    private fun enqueue(type: TrackType): Boolean {
+        if (queuedBytes >= maxBytes) return false
+        val size = sampleSize(type) ?: return false
+        val scratch = scratch.getOrNull(type)?.takeIf { it.capacity() >= size }
+                ?: ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()).also { scratch[type] = it }
+        scratch.clear()
+        chunk.buffer = scratch
+        source.readTrack(chunk)
+        val buffer = obtain(scratch.remaining())
+        buffer.put(scratch)
+        buffer.flip()
+        queues[type].addLast(Sample(buffer, chunk.timeUs, chunk.keyframe, chunk.render))
+        queuedBytes += buffer.capacity()
+        log.v { "enqueue($type): queued ${buffer.remaining()} bytes (${chunk.timeUs}us), queue=${queues[type].size}" }
+        return true
+    }
+
+    override fun readTrack(chunk: DataSource.Chunk) {
+        val type = checkNotNull(accepted) { "No track accepted. Forgot to call canReadTrack?" }
+        accepted = null
+        val sample = queues[type].removeFirstOrNull() ?: return source.readTrack(chunk)
+        val position = chunk.buffer.position()
+        check(sample.buffer.remaining() <= chunk.buffer.remaining()) {
+            "Queued sample (${sample.buffer.remaining()} bytes) does not fit the buffer (${chunk.buffer.remaining()} bytes)."
+        }
+        chunk.buffer.put(sample.buffer)
+        chunk.buffer.limit(chunk.buffer.position())
+        chunk.buffer.position(position)
+        chunk.keyframe = sample.keyframe
+        chunk.timeUs = sample.timeUs
+        chunk.render = sample.render
+        recycle(sample)
+    }
+
+    private fun obtain(size: Int): ByteBuffer {
+        val index = free.indexOfFirst { it.capacity() >= size }
+        val buffer = if (index >= 0) free.removeAt(index) else ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder())
+        buffer.clear()
+        return buffer
+    }
+
+    private fun recycle(sample: Sample) {
+        queuedBytes -= sample.buffer.capacity()
+        if (free.size < MAX_FREE) free.addLast(sample.buffer)
+    }
+
+    private fun clear(type: TrackType) {
+        while (queues[type].isNotEmpty()) recycle(queues[type].removeFirst())
+    }
+
+    override fun releaseTrack(type: TrackType) {
+        clear(type)
+        super.releaseTrack(type)
+    }
+
+    override fun seekTo(desiredPositionUs: Long): Long {
+        clear(TrackType.VIDEO)
+        clear(TrackType.AUDIO)
+        return super.seekTo(desiredPositionUs)
+    }
+
+    override fun rewind() {
+        clear(TrackType.VIDEO)
+        clear(TrackType.AUDIO)
+        super.rewind()
+    }
+
+    override fun deinitialize() {
+        clear(TrackType.VIDEO)
+        clear(TrackType.AUDIO)
+        free.clear()
+        scratch.reset(null, null)
+        super.deinitialize()
+    }
+
+    private companion object {
+        const val MAX_FREE = 32
+    }
+}
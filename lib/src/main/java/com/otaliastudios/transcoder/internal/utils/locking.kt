@@ -0,0 +1,62 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.pipeline.Wakeup
+import com.otaliastudios.transcoder.source.DataSource
+
+/**
+ * When tracks are transcoded in parallel, the same source can be read by both the audio
+ * and the video thread. All stateful calls are then serialized using [lock] as monitor,
+ * which must be the same object for all wrappers of the same source: we use the source itself,
+ * which is also what [com.otaliastudios.transcoder.internal.Segments] synchronizes on
+ * when selecting and releasing tracks.
+ */
+internal fun DataSource.synchronizedOn(lock: Any, waiters: ReadWaiters? = null): DataSource
+        = SynchronizedDataSource(this, lock, waiters)
+
+/**
+ * The monitor that guards this source. Readers should hold it when checking [DataSource.canReadTrack]
+ * and calling [DataSource.readTrack], so that the two happen atomically.
+ */
+internal val DataSource.lock: Any
+    get() = (this as? SynchronizedDataSource)?.lock ?: this
+
+/**
+ * The [ReadWaiters] shared by the readers of this source, if any.
+ */
+internal val DataSource.readWaiters: ReadWaiters?
+    get() = (this as? SynchronizedDataSource)?.waiters
+
+/**
+ * Lets a reader that can't read a shared source (see [DataSource.canReadTrack]) sleep until
+ * the other track has read from it, which is what can make it readable again.
+ * Must be used while holding the source [lock], so that no signal is lost.
+ */
+internal class ReadWaiters {
+    private val waiters = ArrayList<Wakeup>(2)
+
+    fun add(wakeup: Wakeup) {
+        if (wakeup !in waiters) waiters.add(wakeup)
+    }
+
+    fun signal() {
+        for (i in waiters.indices) waiters[i].signal()
+        waiters.clear()
+    }
+}
+
+private class SynchronizedDataSource(
+        private val source: DataSource,
+        val lock: Any,
+        val waiters: ReadWaiters?
+) : DataSource by source {
+    override fun selectTrack(type: TrackType) = synchronized(lock) { source.selectTrack(type) }
+    override fun releaseTrack(type: TrackType) = synchronized(lock) { source.releaseTrack(type) }
+    override fun seekTo(desiredPositionUs: Long) = synchronized(lock) { source.seekTo(desiredPositionUs) }
+    override fun rewind() = synchronized(lock) { source.rewind() }
+    override fun isDrained() = synchronized(lock) { source.isDrained }
+    override fun canReadTrack(type: TrackType) = synchronized(lock) { source.canReadTrack(type) }
+    override fun readTrack(chunk: DataSource.Chunk) = synchronized(lock) { source.readTrack(chunk) }
+    override fun getPositionUs() = synchronized(lock) { source.positionUs }
+    override fun getTrackFormat(type: TrackType) = synchronized(lock) { source.getTrackFormat(type) }
+}
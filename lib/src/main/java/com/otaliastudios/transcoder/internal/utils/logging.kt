@@ -0,0 +1,21 @@
+package com.otaliastudios.transcoder.internal.utils
+
+/*
+ * Lazy logging for hot paths. The message is only built if it is going to be logged,
+ * and since these functions are inline, the lambda is never allocated.
+ *
+ * Verbose messages are guarded by [Logger.isVerboseEnabled], so they can be removed
+ * from release builds with the following R8 rule:
+ *
+ *   -assumevalues class com.otaliastudios.transcoder.internal.utils.Logger {
+ *       public boolean isVerboseEnabled() return false;
+ *   }
+ */
+
+internal inline fun Logger.v(message: () -> String) {
+    if (isVerboseEnabled) v(message())
+}
+
+internal inline fun Logger.i(message: () -> String) {
+    if (isEnabled(Logger.LEVEL_INFO)) i(message())
+}
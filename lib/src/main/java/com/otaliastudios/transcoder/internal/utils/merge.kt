@@ -0,0 +1,131 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaCodec
+import android.media.MediaFormat
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.sink.DataSink
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+internal const val DEFAULT_MERGE_BYTES = 4 * 1024 * 1024
+
+/**
+ * Lets more threads write into the same sink, one per track, and keeps the output
+ * interleaved by presentation time. See [MergingDataSink].
+ */
+internal fun DataSink.merging(types: List<TrackType>): MergingDataSink
+        = MergingDataSink(this, types)
+
+/**
+ * A thread-safe [DataSink] that holds a queue of samples for each of [types].
+ * Samples are copied, because the caller releases its buffer as soon as [writeTrack] returns.
+ *
+ * A sample is passed to the wrapped sink only when it is the earliest among the queue heads,
+ * or when the other tracks have ended. Writers never block: a blocked writer would also stop
+ * its reader, which might be the one that lets the other track advance in an interleaved source.
+ * Instead, when more than [maxBytes] are queued, the earliest samples are written anyway.
+ * The sink still receives each track in order, only the interleaving is less tight.
+ */
+internal class MergingDataSink(
+        private val sink: DataSink,
+        private val types: List<TrackType>,
+        private val maxBytes: Int = DEFAULT_MERGE_BYTES
+) : DataSink by sink {
+
+    private class Sample {
+        var buffer: ByteBuffer = EMPTY
+        val info = MediaCodec.BufferInfo()
+    }
+
+    private val log = Logger("MergingDataSink")
+    private val lock = ReentrantLock()
+    private val queues = types.associateWith { ArrayDeque<Sample>() }
+    private val ended = mutableSetOf<TrackType>()
+    private val pool = ArrayDeque<Sample>()
+    private var queuedBytes = 0L
+
+    override fun setTrackFormat(type: TrackType, format: MediaFormat) = lock.withLock {
+        sink.setTrackFormat(type, format)
+    }
+
+    override fun writeTrack(type: TrackType, byteBuffer: ByteBuffer, bufferInfo: MediaCodec.BufferInfo) {
+        lock.withLock {
+            val queue = queues[type]
+            if (queue == null) {
+                sink.writeTrack(type, byteBuffer, bufferInfo)
+                return
+            }
+            queue.addLast(copy(byteBuffer, bufferInfo))
+            queuedBytes += bufferInfo.size
+            if (bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) {
+                ended += type
+            }
+            drain(force = false)
+            if (queuedBytes > maxBytes) {
+                log.w("writeTrack(): more than $maxBytes bytes queued, writing without waiting for other tracks.")
+                drain(force = true)
+            }
+        }
+    }
+
+    override fun stop() {
+        lock.withLock {
+            ended += types
+            drain(force = false)
+        }
+        sink.stop()
+    }
+
+    private fun copy(buffer: ByteBuffer, info: MediaCodec.BufferInfo): Sample {
+        val sample = pool.removeFirstOrNull() ?: Sample()
+        if (sample.buffer.capacity() < info.size) {
+            sample.buffer = ByteBuffer.allocateDirect(info.size).order(ByteOrder.nativeOrder())
+        }
+        val source = buffer.duplicate()
+        source.limit(info.offset + info.size)
+        source.position(info.offset)
+        sample.buffer.clear()
+        sample.buffer.put(source)
+        sample.buffer.flip()
+        sample.info.set(0, info.size, info.presentationTimeUs, info.flags)
+        return sample
+    }
+
+    /**
+     * Writes the earliest queued sample for as long as we can be sure that no track
+     * is going to write an earlier one. If [force] is true, writes until we are back
+     * under [maxBytes] without checking the other tracks.
+     */
+    private fun drain(force: Boolean) {
+        var count = 0
+        while (!force || queuedBytes > maxBytes) {
+            var next: TrackType? = null
+            var nextUs = Long.MAX_VALUE
+            var blocked = false
+            for ((type, queue) in queues) {
+                val head = queue.firstOrNull()
+                if (head == null) {
+                    if (type !in ended) blocked = true
+                } else if (head.info.presentationTimeUs < nextUs) {
+                    next = type
+                    nextUs = head.info.presentationTimeUs
+                }
+            }
+            if ((blocked && !force) || next == null) break
+            val sample = queues.getValue(next).removeFirst()
+            sink.writeTrack(next, sample.buffer, sample.info)
+            queuedBytes -= sample.info.size
+            pool.addLast(sample)
+            count++
+        }
+        if (count > 0) {
+            log.v { "drain(): wrote $count samples." }
+        }
+    }
+
+    companion object {
+        private val EMPTY = ByteBuffer.allocateDirect(0)
+    }
+}
@@ -0,0 +1,65 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import java.util.IdentityHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Maximum number of threads used by [parallelMap]. Work like probing a source can hold
+ * a codec, so this is kept small regardless of the number of cores.
+ */
+internal val DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+
+/**
+ * Applies [block] to each item on up to [parallelism] threads, and returns the results
+ * in the order of the list. Items that appear more than once (by identity) are only
+ * processed once, so that the same object is never used by two threads. Distinct items
+ * that share state can be given the same [key] (compared by identity), and they will be
+ * processed one after another on the same thread.
+ *
+ * This always waits for all items. If some failed, the error of the first failing item
+ * in the list is thrown, regardless of the order in which they completed.
+ */
+internal fun <T : Any, R> List<T>.parallelMap(
+        name: String,
+        parallelism: Int = DEFAULT_PARALLELISM,
+        key: (T) -> Any = { it },
+        block: (T) -> R
+): List<R> {
+    val distinct = IdentityHashMap<T, Int>()
+    forEach { distinct.putIfAbsent(it, distinct.size) }
+    val items = distinct.keys.sortedBy { distinct[it] }
+    val groups = IdentityHashMap<Any, MutableList<T>>()
+    items.forEach { groups.getOrPut(key(it)) { mutableListOf() }.add(it) }
+    val threads = minOf(parallelism, groups.size)
+    if (threads <= 1) {
+        val results = IdentityHashMap<T, R>()
+        items.forEach { results[it] = block(it) }
+        return map { results.getValue(it) }
+    }
+    val count = AtomicInteger(1)
+    val executor = Executors.newFixedThreadPool(threads) {
+        Thread(it, "$name #${count.getAndIncrement()}").apply { isDaemon = true }
+    }
+    try {
+        // One task per group, in list order. Items of a group run one after another.
+        val futures = groups.values.sortedBy { distinct[it.first()] }.map { group ->
+            group to executor.submit<List<Result<R>>> { group.map { runCatching { block(it) } } }
+        }
+        val outcomes = IdentityHashMap<T, Result<R>>()
+        futures.forEach { (group, future) ->
+            group.zip(future.get()).forEach { (item, outcome) -> outcomes[item] = outcome }
+        }
+        var error: Throwable? = null
+        val results = IdentityHashMap<T, R>()
+        items.forEach { item ->
+            outcomes.getValue(item)
+                    .onSuccess { results[item] = it }
+                    .onFailure { if (error == null) error = it }
+        }
+        error?.let { throw it }
+        return map { results.getValue(it) }
+    } finally {
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,46 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.source.DataSource
+
+/**
+ * Serves [chunk], a sample of [type] that was read from this source ahead of time,
+ * before reading anything else. The source must not be read by other tracks.
+ */
+internal fun DataSource.prefetched(type: TrackType, chunk: DataSource.Chunk): DataSource
+        = PrefetchedDataSource(this, type, chunk)
+
+private class PrefetchedDataSource(
+        private val source: DataSource,
+        private val type: TrackType,
+        private var chunk: DataSource.Chunk?,
+) : DataSource by source {
+
+    override fun rewind() {
+        chunk = null
+        source.rewind()
+    }
+
+    override fun isDrained(): Boolean {
+        return chunk == null && source.isDrained
+    }
+
+    override fun canReadTrack(type: TrackType): Boolean {
+        return if (chunk != null) type == this.type else source.canReadTrack(type)
+    }
+
+    override fun readTrack(chunk: DataSource.Chunk) {
+        val held = this.chunk ?: return source.readTrack(chunk)
+        val position = chunk.buffer.position()
+        check(held.buffer.remaining() <= chunk.buffer.remaining()) {
+            "Prefetched sample (${held.buffer.remaining()} bytes) does not fit the buffer (${chunk.buffer.remaining()} bytes)."
+        }
+        chunk.buffer.put(held.buffer)
+        chunk.buffer.limit(chunk.buffer.position())
+        chunk.buffer.position(position)
+        chunk.keyframe = held.keyframe
+        chunk.timeUs = held.timeUs
+        chunk.render = held.render
+        this.chunk = null
+    }
+}
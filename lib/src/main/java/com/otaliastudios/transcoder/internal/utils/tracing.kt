@@ -0,0 +1,139 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaCodec
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.pipeline.PipelineObserver
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.sink.DataSink
+import java.io.BufferedWriter
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Records timed events. When not [enabled], [trace] just runs the block,
+ * so callers can trace unconditionally.
+ */
+internal interface Tracer : Closeable {
+
+    val enabled: Boolean
+
+    /**
+     * Records an event that started at [startNs] (a [System.nanoTime] value)
+     * and lasted [durationNs], on the current thread.
+     */
+    fun complete(category: String, name: String, startNs: Long, durationNs: Long)
+
+    companion object {
+        val NONE: Tracer = object : Tracer {
+            override val enabled = false
+            override fun complete(category: String, name: String, startNs: Long, durationNs: Long) = Unit
+            override fun close() = Unit
+        }
+    }
+}
+
+internal inline fun <T> Tracer.trace(category: String, name: String, block: () -> T): T {
+    if (!enabled) return block()
+    val startNs = System.nanoTime()
+    try {
+        return block()
+    } finally {
+        complete(category, name, startNs, System.nanoTime() - startNs)
+    }
+}
+
+/**
+ * A [Tracer] that writes events to [file] in the Chrome trace event format (JSON array),
+ * which can be opened in chrome://tracing or https://ui.perfetto.dev.
+ * Events are written as they come, so memory does not grow with the job length.
+ * It is thread-safe: each event is attributed to the thread that recorded it.
+ */
+internal class TraceRecorder(file: File) : Tracer {
+
+    private val log = Logger("TraceRecorder")
+    private val writer: BufferedWriter = file.bufferedWriter()
+    private val originNs = System.nanoTime()
+    private val threads = mutableSetOf<Long>()
+    private var first = true
+    private var failed = false
+
+    override val enabled = true
+
+    init {
+        writer.write("[")
+    }
+
+    @Synchronized
+    override fun complete(category: String, name: String, startNs: Long, durationNs: Long) {
+        if (failed) return
+        val thread = Thread.currentThread()
+        if (threads.add(thread.id)) {
+            write("""{"ph":"M","pid":1,"tid":${thread.id},"name":"thread_name","args":{"name":"${escape(thread.name)}"}}""")
+        }
+        val ts = (startNs - originNs) / 1000.0
+        val dur = durationNs / 1000.0
+        write("""{"ph":"X","pid":1,"tid":${thread.id},"cat":"$category","name":"${escape(name)}","ts":$ts,"dur":$dur}""")
+    }
+
+    private fun write(event: String) {
+        try {
+            if (!first) writer.write(",")
+            writer.newLine()
+            writer.write(event)
+            first = false
+        } catch (e: IOException) {
+            // Tracing should never break transcoding.
+            log.e("Failed to write trace event, disabling.", e)
+            failed = true
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        try {
+            writer.newLine()
+            writer.write("]")
+            writer.close()
+        } catch (e: IOException) {
+            log.e("Failed to close trace file.", e)
+        }
+    }
+
+    private fun escape(value: String) = value.replace("\\", "\\\\").replace("\"", "\\\"")
+}
+
+/**
+ * A [PipelineObserver] that records each step call as a trace event.
+ */
+internal class TracingObserver(private val tracer: Tracer) : PipelineObserver {
+    override fun onStep(pipeline: String, step: String, result: State<Any>, durationNs: Long, pending: Int) {
+        val name = when (result) {
+            is State.Eos -> "$step (eos)"
+            is State.Ok -> step
+            is State.Retry -> "$step (retry)"
+            is State.Consume -> "$step (consume)"
+        }
+        tracer.complete(pipeline, name, System.nanoTime() - durationNs, durationNs)
+    }
+
+    override fun onIdle(pipeline: String, step: String?) = Unit
+}
+
+/**
+ * Records each [DataSink.writeTrack] call in [tracer].
+ */
+internal fun DataSink.tracing(tracer: Tracer): DataSink
+        = TracingDataSink(this, tracer)
+
+private class TracingDataSink(
+        private val sink: DataSink,
+        private val tracer: Tracer,
+) : DataSink by sink {
+    override fun writeTrack(type: TrackType, byteBuffer: ByteBuffer, bufferInfo: MediaCodec.BufferInfo) {
+        tracer.trace("sink", "write${type.displayName}") {
+            sink.writeTrack(type, byteBuffer, bufferInfo)
+        }
+    }
+}
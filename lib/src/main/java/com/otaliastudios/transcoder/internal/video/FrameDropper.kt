@@ -1,6 +1,7 @@
 package com.otaliastudios.transcoder.internal.video
 
 import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.v
 
 internal interface FrameDropper {
     fun shouldRender(timeUs: Long): Boolean
@@ -21,14 +22,14 @@ internal fun FrameDropper(inputFps: Int, outputFps: Int) = object : FrameDropper
     override fun shouldRender(timeUs: Long): Boolean {
         currentSpf += inputSpf
         if (frameCount++ == 0) {
-            log.v("RENDERING (first frame) - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf")
+            log.v { "RENDERING (first frame) - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf" }
             return true
         } else if (currentSpf > outputSpf) {
             currentSpf -= outputSpf
-            log.v("RENDERING - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf")
+            log.v { "RENDERING - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf" }
             return true
         } else {
-            log.v("DROPPING - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf")
+            log.v { "DROPPING - currentSpf=$currentSpf inputSpf=$inputSpf outputSpf=$outputSpf" }
             return false
         }
     }
@@ -11,23 +11,23 @@ import com.otaliastudios.transcoder.internal.pipeline.State
 import com.otaliastudios.transcoder.internal.pipeline.Step
 
 
-internal class VideoPublisher: BaseStep<Long, Channel, EncoderData, EncoderChannel>("VideoPublisher") {
+internal class VideoPublisher: BaseStep<FrameData, Channel, EncoderData, EncoderChannel>("VideoPublisher") {
 
     override val channel = Channel
 
-    override fun advance(state: State.Ok<Long>): State<EncoderData> {
+    override fun advance(state: State.Ok<FrameData>): State<EncoderData> {
         if (state is State.Eos) {
             return State.Eos(EncoderData.Empty)
         } else {
             val surface = next.surface!!
-            surface.window.setPresentationTime(state.value * 1000)
+            surface.window.setPresentationTime(state.value.timeUs * 1000)
             surface.window.swapBuffers()
             /* val s = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW)
             val ss = IntArray(2)
             EGL14.eglQuerySurface(EGL14.eglGetCurrentDisplay(), s, EGL14.EGL_WIDTH, ss, 0)
             EGL14.eglQuerySurface(EGL14.eglGetCurrentDisplay(), s, EGL14.EGL_HEIGHT, ss, 1)
             log.e("XXX VideoPublisher.surfaceSize: ${ss[0]}x${ss[1]}") */
-            return State.Ok(EncoderData.Empty)
+            return ok(EncoderData.Empty)
         }
     }
 }
\ No newline at end of file
@@ -10,13 +10,22 @@ import com.otaliastudios.transcoder.internal.pipeline.BaseStep
 import com.otaliastudios.transcoder.internal.pipeline.Channel
 import com.otaliastudios.transcoder.internal.pipeline.State
 
+/**
+ * Output of [VideoRenderer]: the timestamp of the frame that was drawn.
+ * The renderer reuses a single instance, so that frames don't allocate.
+ */
+internal class FrameData(var timeUs: Long)
 
 internal class VideoRenderer(
     private val sourceRotation: Int, // intrinsic source rotation
     private val extraRotation: Int, // any extra rotation in TranscoderOptions
     private val targetFormat: MediaFormat,
     flipY: Boolean = false
-): BaseStep<DecoderData, DecoderChannel, Long, Channel>("VideoRenderer"), DecoderChannel {
+): BaseStep<DecoderData, DecoderChannel, FrameData, Channel>(NAME), DecoderChannel {
+
+    companion object {
+        const val NAME = "VideoRenderer"
+    }
 
     override val channel = this
 
@@ -29,6 +38,8 @@ internal class VideoRenderer(
 
     private lateinit var frameDropper: FrameDropper
 
+    private val frame = FrameData(0L)
+
     init {
         // Modify the target format in place. We apply some extra rotation when drawing,
         // so target format size should be flipped accordingly for correct Encoder configuration.
@@ -93,15 +104,17 @@ internal class VideoRenderer(
         log.i("decoded input format: $rawFormat")
     }
 
-    override fun advance(state: State.Ok<DecoderData>): State<Long> {
+    override fun advance(state: State.Ok<DecoderData>): State<FrameData> {
         return if (state is State.Eos) {
             state.value.release(false)
-            State.Eos(0L)
+            frame.timeUs = 0L
+            State.Eos(frame)
         } else {
             if (frameDropper.shouldRender(state.value.timeUs)) {
                 state.value.release(true)
                 frameDrawer.drawFrame()
-                State.Ok(state.value.timeUs)
+                frame.timeUs = state.value.timeUs
+                ok(frame)
             } else {
                 state.value.release(false)
                 State.Consume()
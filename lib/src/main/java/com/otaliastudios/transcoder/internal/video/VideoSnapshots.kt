@@ -14,6 +14,7 @@ import com.otaliastudios.transcoder.internal.pipeline.BaseStep
 import com.otaliastudios.transcoder.internal.pipeline.Channel
 import com.otaliastudios.transcoder.internal.pipeline.State
 import com.otaliastudios.transcoder.internal.utils.Logger
+import com.otaliastudios.transcoder.internal.utils.v
 import com.otaliastudios.transcoder.thumbnail.Thumbnail
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
@@ -24,7 +25,7 @@ internal class VideoSnapshots(
     requests: List<Long>,
     private val accuracyUs: Long,
     private val onSnapshot: (Long, Bitmap) -> Unit
-) : BaseStep<Long, Channel, Long, Channel>("VideoSnapshots") {
+) : BaseStep<FrameData, Channel, FrameData, Channel>("VideoSnapshots") {
 
     override val channel = Channel
     private val requests = requests.toMutableList()
@@ -35,13 +36,14 @@ internal class VideoSnapshots(
         it.makeCurrent()
     }
 
-    override fun advance(state: State.Ok<Long>): State<Long> {
+    override fun advance(state: State.Ok<FrameData>): State<FrameData> {
         if (requests.isEmpty()) return state
 
         val expectedUs = requests.first()
-        val deltaUs = abs(expectedUs - state.value)
-        if (deltaUs < accuracyUs || (state is State.Eos && expectedUs > state.value)) {
-            log.i("Request MATCHED! expectedUs=$expectedUs actualUs=${state.value} deltaUs=$deltaUs")
+        val actualUs = state.value.timeUs
+        val deltaUs = abs(expectedUs - actualUs)
+        if (deltaUs < accuracyUs || (state is State.Eos && expectedUs > actualUs)) {
+            log.i("Request MATCHED! expectedUs=$expectedUs actualUs=$actualUs deltaUs=$deltaUs")
             requests.removeFirst()
             val buffer = ByteBuffer.allocateDirect(width * height * 4)
             buffer.order(ByteOrder.LITTLE_ENDIAN)
@@ -50,9 +52,9 @@ internal class VideoSnapshots(
             buffer.rewind()
             val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
             bitmap.copyPixelsFromBuffer(buffer)
-            onSnapshot(state.value, bitmap)
+            onSnapshot(actualUs, bitmap)
         } else {
-            log.v("Request has high delta. expectedUs=$expectedUs actualUs=${state.value} deltaUs=$deltaUs")
+            log.v { "Request has high delta. expectedUs=$expectedUs actualUs=$actualUs deltaUs=$deltaUs" }
         }
         return state
     }
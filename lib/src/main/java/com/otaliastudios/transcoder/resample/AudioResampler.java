@@ -6,7 +6,7 @@ import java.nio.Buffer;
 import java.nio.ShortBuffer;
 
 /**
- * Resamples audio data. See {@link UpsampleAudioResampler} or
+ * Resamples audio data. See {@link PolyphaseAudioResampler}, {@link UpsampleAudioResampler} or
  * {@link DownsampleAudioResampler} for concrete implementations.
  */
 public interface AudioResampler {
@@ -22,6 +22,44 @@ public interface AudioResampler {
      */
     void resample(@NonNull final ShortBuffer inputBuffer, int inputSampleRate, @NonNull final ShortBuffer outputBuffer, int outputSampleRate, int channels);
 
+    /**
+     * Returns the number of input frames that were passed to {@link #resample} but are not
+     * part of the output yet. Resamplers that need input ahead of their output, like
+     * {@link PolyphaseAudioResampler}, keep these frames until
+     * {@link #flush(ShortBuffer, int)}. Defaults to 0.
+     *
+     * @return the pending input frames
+     */
+    default int getPendingFrames() {
+        return 0;
+    }
+
+    /**
+     * Called at the end of the stream to write the output of the pending input frames.
+     * If the output buffer is too small, this returns true and is called again with a new buffer.
+     * Afterwards, the resampler is ready for a new stream. Does nothing by default.
+     *
+     * @param outputBuffer the output buffer
+     * @param channels the number of channels
+     * @return true if there is more to write
+     */
+    default boolean flush(@NonNull final ShortBuffer outputBuffer, int channels) {
+        return false;
+    }
+
+    /**
+     * Returns the resampler that will process a new audio track. The transcoder calls this
+     * once for each track, so implementations that keep state between calls should return
+     * a new instance. This way, the same resampler can be passed to many transcodings,
+     * even at the same time. Returns this by default.
+     *
+     * @return a resampler for a new track
+     */
+    @NonNull
+    default AudioResampler newInstance() {
+        return this;
+    }
+
     AudioResampler DOWNSAMPLE = new DownsampleAudioResampler();
 
     AudioResampler UPSAMPLE = new UpsampleAudioResampler();
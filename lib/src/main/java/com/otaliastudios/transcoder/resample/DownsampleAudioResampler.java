@@ -18,7 +18,7 @@ public class DownsampleAudioResampler implements AudioResampler {
         if (inputSampleRate < outputSampleRate) {
             throw new IllegalArgumentException("Illegal use of DownsampleAudioResampler");
         }
-        if (channels != 1 && channels != 2) {
+        if (channels <= 0) {
             throw new IllegalArgumentException("Illegal use of DownsampleAudioResampler. Channels:" + channels);
         }
         final int inputSamples = inputBuffer.remaining() / channels;
@@ -32,8 +32,7 @@ public class DownsampleAudioResampler implements AudioResampler {
             // Will this be an input sample or a drop sample?
             // Choose the one with the bigger ratio.
             if (remainingOutputSamplesRatio >= remainingDropSamplesRatio) {
-                outputBuffer.put(inputBuffer.get());
-                if (channels == 2) outputBuffer.put(inputBuffer.get());
+                for (int c = 0; c < channels; c++) outputBuffer.put(inputBuffer.get());
                 remainingOutputSamples--;
                 remainingOutputSamplesRatio = ratio(remainingOutputSamples, outputSamples);
             } else {
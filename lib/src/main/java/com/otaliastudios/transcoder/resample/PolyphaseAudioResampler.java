@@ -0,0 +1,263 @@
+package com.otaliastudios.transcoder.resample;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link AudioResampler} that converts between any two sample rates with a polyphase
+ * windowed-sinc filter, for any number of channels.
+ *
+ * The ratio between rates is reduced to L/M: output samples fall on L possible positions
+ * (phases) between two input samples, and each phase has its own precomputed filter.
+ * Filters are cached per rate pair and shared by all instances. When L is very large
+ * (for unusual rates), positions are rounded to one of {@link #MAX_PHASES} phases.
+ *
+ * Each instance keeps the last input samples between calls, so that consecutive buffers of
+ * the same stream are resampled seamlessly. For the same reason, an instance should not be
+ * used by two streams at the same time. The state is reset when rates or channels change,
+ * and after {@link #flush(ShortBuffer, int)} wrote the last samples of the stream.
+ * The transcoder uses a new instance for each audio track, see {@link #newInstance()}.
+ */
+public final class PolyphaseAudioResampler implements AudioResampler {
+
+    // Filter length, in input samples, when upsampling. Downsampling needs longer filters.
+    private final static int TAPS = 32;
+    private final static int MAX_PHASES = 1024;
+    // Cutoff frequency, relative to the lowest Nyquist frequency.
+    private final static double CUTOFF = 0.95;
+    // Kaiser window shape. 8 gives about 80dB of stopband attenuation.
+    private final static double BETA = 8;
+    private final static int MAX_CACHED_FILTERS = 16;
+
+    private final static Map<Long, Filter> sFilters = new LinkedHashMap<Long, Filter>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Filter> eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    };
+
+    @NonNull
+    static Filter filterOf(int inputSampleRate, int outputSampleRate) {
+        long key = ((long) inputSampleRate << 32) | outputSampleRate;
+        synchronized (sFilters) {
+            Filter filter = sFilters.get(key);
+            if (filter == null) {
+                filter = new Filter(inputSampleRate, outputSampleRate);
+                sFilters.put(key, filter);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Coefficients for all phases. Immutable once created.
+     */
+    static final class Filter {
+        final int up;
+        final int down;
+        final int phases;
+        final int taps;
+        final float[] coefficients;
+
+        private Filter(int inputSampleRate, int outputSampleRate) {
+            int gcd = gcd(inputSampleRate, outputSampleRate);
+            up = outputSampleRate / gcd;
+            down = inputSampleRate / gcd;
+            phases = Math.min(up, MAX_PHASES);
+            double cutoff = CUTOFF * Math.min(1D, (double) up / down);
+            int taps = (int) Math.ceil(TAPS / Math.min(1D, (double) up / down));
+            this.taps = taps + (taps % 2);
+            coefficients = new float[phases * this.taps];
+            int center = this.taps / 2 - 1;
+            double half = this.taps / 2D;
+            double norm = bessel(BETA);
+            for (int phase = 0; phase < phases; phase++) {
+                double fraction = (double) phase / phases;
+                double sum = 0;
+                for (int tap = 0; tap < this.taps; tap++) {
+                    // Distance of this input sample from the output position.
+                    double distance = tap - center - fraction;
+                    double x = distance / half;
+                    double window = bessel(BETA * Math.sqrt(Math.max(0D, 1D - x * x))) / norm;
+                    double value = cutoff * sinc(cutoff * distance) * window;
+                    coefficients[phase * this.taps + tap] = (float) value;
+                    sum += value;
+                }
+                // Unity gain at DC for every phase.
+                for (int tap = 0; tap < this.taps; tap++) {
+                    coefficients[phase * this.taps + tap] /= (float) sum;
+                }
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            return b == 0 ? a : gcd(b, a % b);
+        }
+
+        private static double sinc(double x) {
+            if (x == 0) return 1;
+            double y = Math.PI * x;
+            return Math.sin(y) / y;
+        }
+
+        // Modified Bessel function of the first kind, order 0.
+        private static double bessel(double x) {
+            double sum = 1, term = 1;
+            for (int k = 1; k < 50; k++) {
+                term *= (x / (2 * k)) * (x / (2 * k));
+                sum += term;
+                if (term < sum * 1e-12) break;
+            }
+            return sum;
+        }
+    }
+
+    private Filter mFilter;
+    private int mChannels;
+    // Deinterleaved input, per channel. The next output uses frames [mPosition, mPosition + taps).
+    private float[][] mInput = new float[0][];
+    private int mFrames;
+    private int mPosition;
+    // Position of the next output between mPosition and the next frame, in 1/up units.
+    private int mFraction;
+    // Whether the stream ended and silence was added after it.
+    private boolean mFlushing;
+    private short[] mInputShorts = new short[0];
+    private short[] mOutputShorts = new short[0];
+
+    @Override
+    public void resample(@NonNull ShortBuffer inputBuffer, int inputSampleRate, @NonNull ShortBuffer outputBuffer, int outputSampleRate, int channels) {
+        if (inputSampleRate <= 0 || outputSampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Illegal use of PolyphaseAudioResampler. Rates:"
+                    + inputSampleRate + "," + outputSampleRate + " Channels:" + channels);
+        }
+        if (inputSampleRate == outputSampleRate) {
+            mFilter = null;
+            outputBuffer.put(inputBuffer);
+            return;
+        }
+        Filter filter = filterOf(inputSampleRate, outputSampleRate);
+        if (filter != mFilter || channels != mChannels) {
+            reset(filter, channels);
+        }
+        write(inputBuffer);
+        read(outputBuffer);
+    }
+
+    private void reset(@NonNull Filter filter, int channels) {
+        mFilter = filter;
+        mChannels = channels;
+        mInput = new float[channels][filter.taps * 2];
+        // Leading silence, so that the first output is centered on the first input frame.
+        mFrames = filter.taps / 2 - 1;
+        mPosition = 0;
+        mFraction = 0;
+        mFlushing = false;
+    }
+
+    @NonNull
+    @Override
+    public AudioResampler newInstance() {
+        return new PolyphaseAudioResampler();
+    }
+
+    @Override
+    public int getPendingFrames() {
+        if (mFilter == null) return 0;
+        // Frames after the center of the next output.
+        return Math.max(0, mFrames - mPosition - (mFilter.taps / 2 - 1));
+    }
+
+    @Override
+    public boolean flush(@NonNull ShortBuffer outputBuffer, int channels) {
+        if (mFilter == null) return false;
+        if (!mFlushing) {
+            // Trailing silence, so that the last output is centered on the last input frame.
+            mFlushing = true;
+            write(ShortBuffer.wrap(new short[mFilter.taps / 2 * mChannels]));
+        }
+        read(outputBuffer);
+        if (mPosition + mFilter.taps <= mFrames) return true;
+        mFilter = null;
+        return false;
+    }
+
+    private void write(@NonNull ShortBuffer input) {
+        int channels = mChannels;
+        int frames = input.remaining() / channels;
+        int shorts = frames * channels;
+        if (mInputShorts.length < shorts) mInputShorts = new short[shorts];
+        input.get(mInputShorts, 0, shorts);
+        if (mInput[0].length < mFrames + frames) {
+            int capacity = Math.max(mInput[0].length * 2, mFrames + frames);
+            for (int c = 0; c < channels; c++) {
+                float[] grown = new float[capacity];
+                System.arraycopy(mInput[c], 0, grown, 0, mFrames);
+                mInput[c] = grown;
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            float[] samples = mInput[c];
+            for (int i = 0, j = c; i < frames; i++, j += channels) {
+                samples[mFrames + i] = mInputShorts[j];
+            }
+        }
+        mFrames += frames;
+    }
+
+    private void read(@NonNull ShortBuffer output) {
+        Filter filter = mFilter;
+        int channels = mChannels;
+        int taps = filter.taps;
+        int up = filter.up;
+        int phases = filter.phases;
+        int step = filter.down / up;
+        int stepFraction = filter.down % up;
+        float[] coefficients = filter.coefficients;
+        int maxFrames = output.remaining() / channels;
+        if (mOutputShorts.length < maxFrames * channels) mOutputShorts = new short[maxFrames * channels];
+        short[] out = mOutputShorts;
+
+        int frames = 0;
+        int position = mPosition;
+        int fraction = mFraction;
+        while (frames < maxFrames && position + taps <= mFrames) {
+            int phase = phases == up ? fraction : (int) ((long) fraction * phases / up);
+            int offset = phase * taps;
+            for (int c = 0; c < channels; c++) {
+                float[] samples = mInput[c];
+                float sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    sum += coefficients[offset + k] * samples[position + k];
+                }
+                int value = (int) (sum >= 0 ? sum + 0.5F : sum - 0.5F);
+                if (value > Short.MAX_VALUE) value = Short.MAX_VALUE;
+                if (value < Short.MIN_VALUE) value = Short.MIN_VALUE;
+                out[frames * channels + c] = (short) value;
+            }
+            frames++;
+            position += step;
+            fraction += stepFraction;
+            if (fraction >= up) {
+                fraction -= up;
+                position++;
+            }
+        }
+        output.put(out, 0, frames * channels);
+
+        // Drop the frames that will not be used anymore.
+        int drop = Math.min(position, mFrames);
+        if (drop > 0) {
+            for (int c = 0; c < channels; c++) {
+                System.arraycopy(mInput[c], drop, mInput[c], 0, mFrames - drop);
+            }
+            mFrames -= drop;
+            position -= drop;
+        }
+        mPosition = position;
+        mFraction = fraction;
+    }
+}
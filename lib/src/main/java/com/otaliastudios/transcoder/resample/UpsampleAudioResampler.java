@@ -18,7 +18,7 @@ public class UpsampleAudioResampler implements AudioResampler {
         if (inputSampleRate > outputSampleRate) {
             throw new IllegalArgumentException("Illegal use of UpsampleAudioResampler");
         }
-        if (channels != 1 && channels != 2) {
+        if (channels <= 0) {
             throw new IllegalArgumentException("Illegal use of UpsampleAudioResampler. Channels:" + channels);
         }
         final int inputSamples = inputBuffer.remaining() / channels;
@@ -32,13 +32,11 @@ public class UpsampleAudioResampler implements AudioResampler {
             // Will this be an input sample or a fake sample?
             // Choose the one with the bigger ratio.
             if (remainingInputSamplesRatio >= remainingFakeSamplesRatio) {
-                outputBuffer.put(inputBuffer.get());
-                if (channels == 2) outputBuffer.put(inputBuffer.get());
+                for (int c = 0; c < channels; c++) outputBuffer.put(inputBuffer.get());
                 remainingInputSamples--;
                 remainingInputSamplesRatio = ratio(remainingInputSamples, inputSamples);
             } else {
-                outputBuffer.put(fakeSample(outputBuffer, inputBuffer, 1, channels));
-                if (channels == 2) outputBuffer.put(fakeSample(outputBuffer, inputBuffer, 2, channels));
+                for (int c = 0; c < channels; c++) outputBuffer.put(fakeSample(outputBuffer, inputBuffer, c + 1, channels));
                 remainingFakeSamples--;
                 remainingFakeSamplesRatio = ratio(remainingFakeSamples, fakeSamples);
             }
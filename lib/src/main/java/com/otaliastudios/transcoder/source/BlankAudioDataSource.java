@@ -66,6 +66,11 @@ public class BlankAudioDataSource implements DataSource {
         initialized = false;
     }
 
+    @Override
+    public void rewind() {
+        positionUs = 0;
+    }
+
     @Override
     public boolean isInitialized() {
         return initialized;
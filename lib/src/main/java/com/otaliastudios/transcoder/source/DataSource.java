@@ -112,14 +112,20 @@ public interface DataSource {
     void releaseTrack(@NonNull TrackType type);
 
     /**
-     * Rewinds this source, moving it to its default state.
-     * To be used again, tracks will be selected again.
-     * After this call, for instance,
+     * Rewinds this source, moving it to its default state. After this call, for instance,
      * - {@link #getPositionUs()} should be 0
      * - {@link #isDrained()} should be false
      * - {@link #readTrack(Chunk)} should return the very first bytes
+     *
+     * Tracks might be unselected, so callers should select them again after rewinding.
+     * The default implementation is a {@link #deinitialize()} and {@link #initialize()} cycle.
+     * Sources can override it with something cheaper, that does not release what was
+     * parsed during {@link #initialize()}.
      */
-    // void rewind();
+    default void rewind() {
+        deinitialize();
+        initialize();
+    }
 
     /**
      * Represents a chunk of data.
@@ -37,6 +37,20 @@ public class DataSourceWrapper implements DataSource {
         mSource = source;
     }
 
+    /**
+     * Returns the source that owns the media, looking through any wrapper.
+     * Sources with the same root share their state, so they should not be used concurrently.
+     * @param source a source
+     * @return the innermost source
+     */
+    @NonNull
+    public static DataSource unwrap(@NonNull DataSource source) {
+        while (source instanceof DataSourceWrapper && ((DataSourceWrapper) source).mSource != null) {
+            source = ((DataSourceWrapper) source).mSource;
+        }
+        return source;
+    }
+
     @Override
     public int getOrientation() {
         return mSource.getOrientation();
@@ -94,6 +108,11 @@ public class DataSourceWrapper implements DataSource {
         mSource.releaseTrack(type);
     }
 
+    @Override
+    public void rewind() {
+        mSource.rewind();
+    }
+
     @Override
     public boolean isInitialized() {
         return mSource != null && mSource.isInitialized();
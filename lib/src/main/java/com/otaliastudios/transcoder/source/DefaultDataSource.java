@@ -14,7 +14,9 @@ import com.otaliastudios.transcoder.internal.utils.Logger;
 import com.otaliastudios.transcoder.internal.utils.MutableTrackMap;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.media.MediaMetadataRetriever.METADATA_KEY_DURATION;
@@ -36,7 +38,11 @@ public abstract class DefaultDataSource implements DataSource {
     private final MutableTrackMap<Long> mLastTimestampUs = mutableTrackMapOf(0L, 0L);
 
     private MediaMetadataRetriever mMetadata = null;
+    // With a shared extractor, this is only set while tracks are selected.
     private MediaExtractor mExtractor = null;
+    @Nullable private SharedExtractor mShared = null;
+    private boolean mOwnsExtractor = false;
+    @Nullable private String mProbeKey = null;
     private long mOriginUs = Long.MIN_VALUE;
     private boolean mInitialized = false;
 
@@ -46,19 +52,34 @@ public abstract class DefaultDataSource implements DataSource {
     @Override
     public void initialize() {
         LOG.i("initialize(): initializing...");
-        mExtractor = new MediaExtractor();
-        try {
-            initializeExtractor(mExtractor);
-        } catch (IOException e) {
-            LOG.e("Got IOException while trying to open MediaExtractor.", e);
-            throw new RuntimeException(e);
+        List<MediaFormat> formats;
+        if (mProbeKey != null) {
+            // Sources of the same media share the extractor. See SharedExtractor.
+            try {
+                mShared = SharedExtractor.acquire(mProbeKey, new SharedExtractor.Opener() {
+                    @NonNull
+                    @Override
+                    public MediaExtractor open() {
+                        return openExtractor();
+                    }
+                });
+            } catch (IOException e) {
+                LOG.e("Got IOException while trying to open MediaExtractor.", e);
+                throw new RuntimeException(e);
+            }
+            formats = mShared.getFormats();
+        } else {
+            mExtractor = openExtractor();
+            mOwnsExtractor = true;
+            formats = new ArrayList<>();
+            for (int i = 0; i < mExtractor.getTrackCount(); i++) {
+                formats.add(mExtractor.getTrackFormat(i));
+            }
         }
-        mMetadata = new MediaMetadataRetriever();
-        initializeRetriever(mMetadata);
 
-        int trackCount = mExtractor.getTrackCount();
+        int trackCount = formats.size();
         for (int i = 0; i < trackCount; i++) {
-            MediaFormat format = mExtractor.getTrackFormat(i);
+            MediaFormat format = formats.get(i);
             TrackType type = TrackTypeKt.getTrackTypeOrNull(format);
             if (type != null && !mIndex.has(type)) {
                 mIndex.set(type, i);
@@ -82,6 +103,79 @@ public abstract class DefaultDataSource implements DataSource {
         } */
     }
 
+    @NonNull
+    private MediaExtractor openExtractor() {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            initializeExtractor(extractor);
+        } catch (IOException e) {
+            LOG.e("Got IOException while trying to open MediaExtractor.", e);
+            extractor.release();
+            throw new RuntimeException(e);
+        }
+        return extractor;
+    }
+
+    /**
+     * With a shared extractor, called when the first track is selected. If another source
+     * is reading from the shared extractor, we open our own until our tracks are released.
+     */
+    private void acquireExtractor() {
+        if (mExtractor != null || mShared == null) return;
+        mExtractor = mShared.borrow(this);
+        mOwnsExtractor = mExtractor == null;
+        if (mOwnsExtractor) {
+            LOG.i("acquireExtractor(): shared extractor is busy, opening a new one.");
+            mExtractor = openExtractor();
+        }
+    }
+
+    /**
+     * With a shared extractor, called when the last track is released. The read position
+     * is lost, so the next selection starts from the beginning, as after a rewind.
+     */
+    private void releaseExtractor() {
+        if (mExtractor == null || mShared == null) return;
+        if (mOwnsExtractor) {
+            mExtractor.release();
+        } else {
+            mShared.giveBack(this);
+        }
+        mExtractor = null;
+        mOwnsExtractor = false;
+        mOriginUs = Long.MIN_VALUE;
+        mLastTimestampUs.reset(0L, 0L);
+        mDontRenderRangeStart = -1;
+        mDontRenderRangeEnd = -1;
+    }
+
+    /**
+     * The retriever is only created when metadata is requested and not found
+     * in the {@link ProbeCache}, because setting it up means parsing the file again.
+     */
+    @NonNull
+    private synchronized MediaMetadataRetriever getMetadata() {
+        if (mMetadata == null) {
+            mMetadata = new MediaMetadataRetriever();
+            initializeRetriever(mMetadata);
+        }
+        return mMetadata;
+    }
+
+    /**
+     * Sets the key that identifies the media in the {@link ProbeCache}.
+     * Subclasses that can tell whether the media changed should set it before {@link #initialize()}.
+     * @param key the key, or null to disable caching
+     */
+    protected void setProbeKey(@Nullable String key) {
+        mProbeKey = key;
+    }
+
+    @Nullable
+    String getProbeKey() {
+        return mProbeKey;
+    }
+
     /**
      * Some properties are better initialized lazily instead of during initialize().
      * For example, the origin - very important to have a timebase before reads and seeks -
@@ -98,15 +192,27 @@ public abstract class DefaultDataSource implements DataSource {
     public void deinitialize() {
         LOG.i("deinitialize(): deinitializing...");
         try {
-            mExtractor.release();
+            for (TrackType type : mSelectedTracks) {
+                mExtractor.unselectTrack(mIndex.get(type));
+            }
+            if (mShared != null) {
+                releaseExtractor();
+                SharedExtractor.release(mShared);
+            } else {
+                mExtractor.release();
+            }
         } catch (Exception e) {
             LOG.w("Could not release extractor:", e);
         }
+        mExtractor = null;
+        mShared = null;
+        mOwnsExtractor = false;
         try {
-            mMetadata.release();
+            if (mMetadata != null) mMetadata.release();
         } catch (Exception e) {
             LOG.w("Could not release metadata:", e);
         }
+        mMetadata = null;
 
         mSelectedTracks.clear();
         mOriginUs = Long.MIN_VALUE;
@@ -118,6 +224,21 @@ public abstract class DefaultDataSource implements DataSource {
         mInitialized = false;
     }
 
+    @Override
+    public void rewind() {
+        LOG.i("rewind(): rewinding...");
+        if (!mSelectedTracks.isEmpty()) {
+            // Before the first read the origin is unknown, but 0 also goes to the first sample.
+            long originUs = mOriginUs == Long.MIN_VALUE ? 0 : mOriginUs;
+            mExtractor.seekTo(originUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        }
+        // Recomputed on the next read, so that getPositionUs() is 0 until then.
+        mOriginUs = Long.MIN_VALUE;
+        mLastTimestampUs.reset(0L, 0L);
+        mDontRenderRangeStart = -1;
+        mDontRenderRangeEnd = -1;
+    }
+
     @Override
     public boolean isInitialized() {
         return mInitialized;
@@ -127,8 +248,13 @@ public abstract class DefaultDataSource implements DataSource {
     public void selectTrack(@NonNull TrackType type) {
         LOG.i("selectTrack(" + type + ")");
         if (!mSelectedTracks.contains(type)) {
+            acquireExtractor();
             mSelectedTracks.add(type);
             mExtractor.selectTrack(mIndex.get(type));
+            if (mShared != null && mOriginUs == Long.MIN_VALUE) {
+                // The shared extractor might have been left anywhere by another source.
+                mExtractor.seekTo(0, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
         }
     }
 
@@ -138,6 +264,7 @@ public abstract class DefaultDataSource implements DataSource {
         if (mSelectedTracks.contains(type)) {
             mSelectedTracks.remove(type);
             mExtractor.unselectTrack(mIndex.get(type));
+            if (mSelectedTracks.isEmpty()) releaseExtractor();
         }
     }
 
@@ -147,6 +274,7 @@ public abstract class DefaultDataSource implements DataSource {
 
     @Override
     public long seekTo(long desiredPositionUs) {
+        if (mExtractor == null) return 0; // Shared, no selected tracks.
         initializeLazyProperties();
 
         boolean hasVideo = mSelectedTracks.contains(TrackType.VIDEO);
@@ -191,12 +319,12 @@ public abstract class DefaultDataSource implements DataSource {
 
     @Override
     public boolean isDrained() {
-        return mExtractor.getSampleTrackIndex() < 0;
+        return mExtractor == null || mExtractor.getSampleTrackIndex() < 0;
     }
 
     @Override
     public boolean canReadTrack(@NonNull TrackType type) {
-        return mExtractor.getSampleTrackIndex() == mIndex.get(type);
+        return mExtractor != null && mExtractor.getSampleTrackIndex() == mIndex.get(type);
     }
 
     @Override
@@ -260,8 +388,13 @@ public abstract class DefaultDataSource implements DataSource {
     @Override
     public double[] getLocation() {
         LOG.i("getLocation()");
-        String string = mMetadata.extractMetadata(METADATA_KEY_LOCATION);
-        if (string != null) {
+        ProbeCache cache = ProbeCache.getDefault();
+        String string = cache.get(mProbeKey, ProbeCache.LOCATION);
+        if (string == null) {
+            string = getMetadata().extractMetadata(METADATA_KEY_LOCATION);
+            cache.put(mProbeKey, ProbeCache.LOCATION, string == null ? "" : string);
+        }
+        if (!string.isEmpty()) {
             float[] location = new ISO6709LocationParser().parse(string);
             if (location != null) {
                 double[] result = new double[2];
@@ -276,21 +409,33 @@ public abstract class DefaultDataSource implements DataSource {
     @Override
     public int getOrientation() {
         LOG.i("getOrientation()");
+        ProbeCache cache = ProbeCache.getDefault();
+        String cached = cache.get(mProbeKey, ProbeCache.ORIENTATION);
+        if (cached != null) return Integer.parseInt(cached);
+        int orientation;
         try {
-            return Integer.parseInt(mMetadata.extractMetadata(METADATA_KEY_VIDEO_ROTATION));
+            orientation = Integer.parseInt(getMetadata().extractMetadata(METADATA_KEY_VIDEO_ROTATION));
         } catch (NumberFormatException ignore) {
-            return 0;
+            orientation = 0;
         }
+        cache.put(mProbeKey, ProbeCache.ORIENTATION, String.valueOf(orientation));
+        return orientation;
     }
 
     @Override
     public long getDurationUs() {
         // LOG.v("getDurationUs()");
+        ProbeCache cache = ProbeCache.getDefault();
+        String cached = cache.get(mProbeKey, ProbeCache.DURATION);
+        if (cached != null) return Long.parseLong(cached);
+        long durationUs;
         try {
-            return Long.parseLong(mMetadata.extractMetadata(METADATA_KEY_DURATION)) * 1000;
+            durationUs = Long.parseLong(getMetadata().extractMetadata(METADATA_KEY_DURATION)) * 1000;
         } catch (NumberFormatException e) {
             return -1;
         }
+        cache.put(mProbeKey, ProbeCache.DURATION, String.valueOf(durationUs));
+        return durationUs;
     }
 
     @Nullable
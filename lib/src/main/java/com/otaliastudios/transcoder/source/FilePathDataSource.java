@@ -2,6 +2,7 @@ package com.otaliastudios.transcoder.source;
 
 import android.media.MediaExtractor;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 
@@ -28,7 +29,9 @@ public class FilePathDataSource extends DataSourceWrapper {
     public void initialize() {
         try {
             mStream = new FileInputStream(mPath);
-            setSource(new FileDescriptorDataSource(mStream.getFD()));
+            FileDescriptorDataSource source = new FileDescriptorDataSource(mStream.getFD());
+            source.setProbeKey(ProbeCache.keyOf(new File(mPath)));
+            setSource(source);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
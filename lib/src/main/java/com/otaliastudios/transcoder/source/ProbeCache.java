@@ -0,0 +1,332 @@
+package com.otaliastudios.transcoder.source;
+
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.transcoder.common.TrackType;
+import com.otaliastudios.transcoder.internal.utils.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Caches the results of probing a media file: complete track formats, which might
+ * require decoding part of the file (see {@link com.otaliastudios.transcoder.internal.media.MediaFormatProvider}),
+ * and the duration, orientation and location metadata.
+ *
+ * Entries are keyed by the source identity: path and URI sources use the location, size and
+ * last modification time of the file, so a modified file is probed again. Other sources
+ * are not cached. Least recently used entries are evicted after {@code maxEntries}.
+ *
+ * The cache is shared by all {@link com.otaliastudios.transcoder.Transcoder} and
+ * {@link com.otaliastudios.transcoder.Thumbnailer} operations through {@link #getDefault()}.
+ * By default, it is kept in memory only. To persist entries across process restarts,
+ * set a cache with a directory, for example:
+ *
+ * <pre>
+ * ProbeCache.setDefault(new ProbeCache(100, new File(context.getCacheDir(), "probes")));
+ * </pre>
+ */
+public class ProbeCache {
+
+    private final static Logger LOG = new Logger("ProbeCache");
+    private final static String KEY = "key";
+    final static String DURATION = "durationUs";
+    final static String ORIENTATION = "orientation";
+    final static String LOCATION = "location";
+
+    // Format keys that are stored when MediaFormat.getKeys() is not available.
+    private final static List<String> FORMAT_KEYS = Arrays.asList(
+            MediaFormat.KEY_MIME,
+            MediaFormat.KEY_WIDTH,
+            MediaFormat.KEY_HEIGHT,
+            MediaFormat.KEY_FRAME_RATE,
+            MediaFormat.KEY_BIT_RATE,
+            MediaFormat.KEY_I_FRAME_INTERVAL,
+            MediaFormat.KEY_COLOR_FORMAT,
+            MediaFormat.KEY_CHANNEL_COUNT,
+            MediaFormat.KEY_CHANNEL_MASK,
+            MediaFormat.KEY_SAMPLE_RATE,
+            MediaFormat.KEY_MAX_INPUT_SIZE,
+            MediaFormat.KEY_DURATION,
+            MediaFormat.KEY_LANGUAGE,
+            "rotation-degrees",
+            "pcm-encoding",
+            "profile",
+            "level"
+    );
+
+    private static volatile ProbeCache sDefault = new ProbeCache(100);
+
+    /**
+     * Returns the cache used by the library.
+     * @return the default cache
+     */
+    @NonNull
+    public static ProbeCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Sets the cache used by the library. A cache with no entries
+     * (new ProbeCache(0)) disables caching.
+     * @param cache the new default cache
+     */
+    public static void setDefault(@NonNull ProbeCache cache) {
+        sDefault = cache;
+    }
+
+    private final int mMaxEntries;
+    @Nullable private final File mDirectory;
+    private final LinkedHashMap<String, Properties> mMemory;
+
+    /**
+     * Creates a memory cache.
+     * @param maxEntries maximum number of sources
+     */
+    public ProbeCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * Creates a cache that is also stored in the given directory.
+     * @param maxEntries maximum number of sources, in memory and on disk
+     * @param directory a directory owned by this cache, or null
+     */
+    public ProbeCache(final int maxEntries, @Nullable File directory) {
+        mMaxEntries = maxEntries;
+        mDirectory = directory;
+        mMemory = new LinkedHashMap<String, Properties>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Properties> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        mMemory.clear();
+        File[] files = mDirectory == null ? null : mDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the complete format of this track, as previously stored
+     * with {@link #putTrackFormat(DataSource, TrackType, MediaFormat)}.
+     * @param source source
+     * @param type track type
+     * @return the format, or null
+     */
+    @Nullable
+    public MediaFormat getTrackFormat(@NonNull DataSource source, @NonNull TrackType type) {
+        String key = keyOf(source);
+        if (key == null) return null;
+        Properties entry;
+        synchronized (this) {
+            entry = load(key);
+        }
+        if (entry == null) return null;
+        String prefix = type.name() + ".";
+        MediaFormat format = null;
+        for (String name : entry.stringPropertyNames()) {
+            if (!name.startsWith(prefix)) continue;
+            if (format == null) format = new MediaFormat();
+            readValue(format, name.substring(prefix.length()), entry.getProperty(name));
+        }
+        return format;
+    }
+
+    /**
+     * Stores the complete format of this track.
+     * @param source source
+     * @param type track type
+     * @param format the format
+     */
+    public void putTrackFormat(@NonNull DataSource source, @NonNull TrackType type, @NonNull MediaFormat format) {
+        String key = keyOf(source);
+        if (key == null) return;
+        Map<String, String> values = new LinkedHashMap<>();
+        Iterable<String> names = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? format.getKeys() : FORMAT_KEYS;
+        for (String name : names) {
+            String value = writeValue(format, name);
+            if (value != null) values.put(type.name() + "." + name, value);
+        }
+        put(key, values);
+    }
+
+    @Nullable
+    synchronized String get(@Nullable String key, @NonNull String name) {
+        if (key == null) return null;
+        Properties entry = load(key);
+        return entry == null ? null : entry.getProperty(name);
+    }
+
+    void put(@Nullable String key, @NonNull String name, @NonNull String value) {
+        if (key == null) return;
+        put(key, Collections.singletonMap(name, value));
+    }
+
+    private synchronized void put(@NonNull String key, @NonNull Map<String, String> values) {
+        if (mMaxEntries <= 0) return;
+        Properties entry = load(key);
+        if (entry == null) {
+            entry = new Properties();
+            entry.setProperty(KEY, key);
+        }
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            entry.setProperty(value.getKey(), value.getValue());
+        }
+        mMemory.put(key, entry);
+        store(key, entry);
+    }
+
+    /**
+     * Returns the entry for this key, from memory or from disk.
+     * Files are touched on every hit, so that disk eviction follows the real usage.
+     */
+    @Nullable
+    private Properties load(@NonNull String key) {
+        Properties entry = mMemory.get(key);
+        if (mDirectory == null) return entry;
+        File file = fileOf(key);
+        if (entry != null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+        if (!file.isFile()) return null;
+        Properties loaded = new Properties();
+        try (InputStream stream = new FileInputStream(file)) {
+            loaded.load(stream);
+        } catch (IOException e) {
+            LOG.w("Could not read " + file, e);
+            return null;
+        }
+        // Different keys could have the same hash.
+        if (!key.equals(loaded.getProperty(KEY))) return null;
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        mMemory.put(key, loaded);
+        return loaded;
+    }
+
+    private void store(@NonNull String key, @NonNull Properties entry) {
+        if (mDirectory == null) return;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LOG.w("Could not create " + mDirectory);
+            return;
+        }
+        File file = fileOf(key);
+        try (OutputStream stream = new FileOutputStream(file)) {
+            entry.store(stream, null);
+        } catch (IOException e) {
+            LOG.w("Could not write " + file, e);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= mMaxEntries) return;
+        // Evict the least recently used files.
+        List<File> sorted = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (int i = 0; i < sorted.size() - mMaxEntries; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            sorted.get(i).delete();
+        }
+    }
+
+    @NonNull
+    private File fileOf(@NonNull String key) {
+        //noinspection ConstantConditions
+        return new File(mDirectory, Integer.toHexString(key.hashCode()) + ".properties");
+    }
+
+    /**
+     * Returns the key of the source that owns the media,
+     * looking through wrappers like {@link TrimDataSource}.
+     */
+    @Nullable
+    private static String keyOf(@NonNull DataSource source) {
+        source = DataSourceWrapper.unwrap(source);
+        if (source instanceof DefaultDataSource) {
+            return ((DefaultDataSource) source).getProbeKey();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a key made of the file path, size and last modification time,
+     * or null if the file can't be inspected.
+     */
+    @Nullable
+    static String keyOf(@NonNull File file) {
+        long size = file.length();
+        long modified = file.lastModified();
+        if (size <= 0 || modified <= 0) return null;
+        return keyOf(file.getAbsolutePath(), size, modified);
+    }
+
+    @NonNull
+    static String keyOf(@NonNull String location, long size, long modified) {
+        return location + "|" + size + "|" + modified;
+    }
+
+    // Values are prefixed by their type, so they can be set back with the right setter.
+    @Nullable
+    private static String writeValue(@NonNull MediaFormat format, @NonNull String name) {
+        if (!format.containsKey(name)) return null;
+        try {
+            return "i:" + format.getInteger(name);
+        } catch (ClassCastException ignore) { }
+        try {
+            return "l:" + format.getLong(name);
+        } catch (ClassCastException ignore) { }
+        try {
+            return "f:" + format.getFloat(name);
+        } catch (ClassCastException ignore) { }
+        try {
+            return "s:" + format.getString(name);
+        } catch (ClassCastException ignore) { }
+        return null; // byte buffers
+    }
+
+    private static void readValue(@NonNull MediaFormat format, @NonNull String name, @NonNull String value) {
+        String content = value.substring(2);
+        try {
+            switch (value.charAt(0)) {
+                case 'i': format.setInteger(name, Integer.parseInt(content)); break;
+                case 'l': format.setLong(name, Long.parseLong(content)); break;
+                case 'f': format.setFloat(name, Float.parseFloat(content)); break;
+                case 's': format.setString(name, content); break;
+            }
+        } catch (NumberFormatException e) {
+            LOG.w("Invalid value for " + name + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.otaliastudios.transcoder.source;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.otaliastudios.transcoder.internal.utils.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link MediaExtractor} shared by all {@link DefaultDataSource}s that read the same media,
+ * for example many {@link ClipDataSource}s cut from one file. The container is parsed once,
+ * and a single extractor is kept open, instead of one per source.
+ *
+ * Sources hold a reference from initialization to deinitialization. Reading needs the
+ * extractor position, so only one source at a time can {@link #borrow(Object)} it.
+ * Sources that find it busy open their own extractor until they are done.
+ */
+final class SharedExtractor {
+
+    interface Opener {
+        @NonNull
+        MediaExtractor open() throws IOException;
+    }
+
+    private final static Logger LOG = new Logger("SharedExtractor");
+    private final static Map<String, SharedExtractor> sShared = new HashMap<>();
+
+    /**
+     * Returns the extractor for this key, opening one if needed.
+     * Callers must {@link #release(SharedExtractor)} it when done.
+     */
+    @NonNull
+    static SharedExtractor acquire(@NonNull String key, @NonNull Opener opener) throws IOException {
+        synchronized (sShared) {
+            SharedExtractor shared = sShared.get(key);
+            if (shared != null) {
+                shared.mReferences++;
+                return shared;
+            }
+        }
+        // Open outside of the lock, so that different media can be opened in parallel.
+        MediaExtractor extractor = opener.open();
+        synchronized (sShared) {
+            SharedExtractor shared = sShared.get(key);
+            if (shared != null) {
+                extractor.release();
+            } else {
+                shared = new SharedExtractor(key, extractor);
+                sShared.put(key, shared);
+            }
+            shared.mReferences++;
+            return shared;
+        }
+    }
+
+    /**
+     * Drops a reference, releasing the extractor when there are no more.
+     */
+    static void release(@NonNull SharedExtractor shared) {
+        synchronized (sShared) {
+            if (--shared.mReferences > 0) return;
+            sShared.remove(shared.mKey);
+        }
+        LOG.i("release(): releasing extractor for " + shared.mKey);
+        try {
+            shared.mExtractor.release();
+        } catch (Exception e) {
+            LOG.w("Could not release extractor:", e);
+        }
+    }
+
+    private final String mKey;
+    private final MediaExtractor mExtractor;
+    private int mReferences = 0;
+    @Nullable private Object mBorrower = null;
+
+    private SharedExtractor(@NonNull String key, @NonNull MediaExtractor extractor) {
+        mKey = key;
+        mExtractor = extractor;
+    }
+
+    /**
+     * Returns new track formats, read from the extractor. Each source gets its own instances,
+     * because formats are modified later (for example, rotation and frame rate are set
+     * by the pipeline), and the changes must not leak into other sources.
+     * The extractor locks its native state, so this is safe while another source is reading.
+     */
+    @NonNull
+    synchronized List<MediaFormat> getFormats() {
+        int count = mExtractor.getTrackCount();
+        List<MediaFormat> formats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            formats.add(mExtractor.getTrackFormat(i));
+        }
+        return formats;
+    }
+
+    /**
+     * Returns the extractor if it's not being used by another source, or null.
+     * The borrower should select its tracks and seek before reading.
+     */
+    @Nullable
+    synchronized MediaExtractor borrow(@NonNull Object borrower) {
+        if (mBorrower != null && mBorrower != borrower) return null;
+        mBorrower = borrower;
+        return mExtractor;
+    }
+
+    /**
+     * Gives the extractor back. All tracks should be unselected.
+     */
+    synchronized void giveBack(@NonNull Object borrower) {
+        if (mBorrower == borrower) mBorrower = null;
+    }
+}
@@ -46,6 +46,14 @@ public class TrimDataSource extends DataSourceWrapper {
         trimDone = false;
     }
 
+    @Override
+    public void rewind() {
+        super.rewind();
+        // Trim start is applied again on the next read.
+        extraDurationUs = 0;
+        trimDone = false;
+    }
+
     @Override
     public void initialize() {
         super.initialize();
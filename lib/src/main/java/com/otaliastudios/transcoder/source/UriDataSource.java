@@ -1,13 +1,19 @@
 package com.otaliastudios.transcoder.source;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
 import android.media.MediaExtractor;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
 
+import java.io.File;
 import java.io.IOException;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * A {@link DataSource} backed by an Uri, possibly
@@ -23,6 +29,33 @@ public class UriDataSource extends DefaultDataSource {
         this.uri = uri;
     }
 
+    @Override
+    public void initialize() {
+        setProbeKey(probeKey());
+        super.initialize();
+    }
+
+    /**
+     * File uris are keyed by the file itself. Content uris are keyed by their size and
+     * last modification time, when the provider returns them.
+     */
+    @Nullable
+    private String probeKey() {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            return ProbeCache.keyOf(new File(uri.getPath()));
+        }
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) return null;
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) return null;
+            int size = cursor.getColumnIndex(OpenableColumns.SIZE);
+            int modified = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+            if (size < 0 || modified < 0 || cursor.isNull(size) || cursor.isNull(modified)) return null;
+            return ProbeCache.keyOf(uri.toString(), cursor.getLong(size), cursor.getLong(modified));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     @Override
     protected void initializeExtractor(@NonNull MediaExtractor extractor) throws IOException {
         extractor.setDataSource(context, uri, null);
@@ -18,7 +18,8 @@ public interface AudioStretcher {
     /**
      * Stretches the input into the output, based on the {@link Buffer#remaining()} value of both.
      * At the end of this method, the {@link Buffer#position()} of both should be equal to their
-     * respective {@link Buffer#limit()}.
+     * respective {@link Buffer#limit()}. The output can be shorter for stretchers that keep
+     * pending frames, see {@link #getPendingFrames()}.
      *
      * And of course, both {@link Buffer#limit()}s should remain unchanged.
      *
@@ -28,6 +29,45 @@ public interface AudioStretcher {
      */
     void stretch(@NonNull ShortBuffer input, @NonNull ShortBuffer output, int channels);
 
+    /**
+     * Returns the number of input frames that were passed to {@link #stretch} but are not part
+     * of the output yet. Stretchers that need input ahead of their output, like
+     * {@link WsolaAudioStretcher}, can write less than {@link Buffer#remaining()} at first
+     * and keep these frames until {@link #flush(ShortBuffer, int)}. Defaults to 0.
+     *
+     * @return the pending input frames
+     */
+    default int getPendingFrames() {
+        return 0;
+    }
+
+    /**
+     * Called at the end of the stream to write the output of the pending input frames,
+     * at the last stretch factor. If the output buffer is too small, this returns true and is
+     * called again with a new buffer. Afterwards, the stretcher is ready for a new stream.
+     * Does nothing by default.
+     *
+     * @param output output buffer
+     * @param channels audio channels
+     * @return true if there is more to write
+     */
+    default boolean flush(@NonNull ShortBuffer output, int channels) {
+        return false;
+    }
+
+    /**
+     * Returns the stretcher that will process a new audio track. The transcoder calls this
+     * once for each track, so implementations that keep state between calls should return
+     * a new instance. This way, the same stretcher can be passed to many transcodings,
+     * even at the same time. Returns this by default.
+     *
+     * @return a stretcher for a new track
+     */
+    @NonNull
+    default AudioStretcher newInstance() {
+        return this;
+    }
+
     AudioStretcher PASSTHROUGH = new PassThroughAudioStretcher();
 
     AudioStretcher CUT = new CutAudioStretcher();
@@ -19,7 +19,7 @@ public class InsertAudioStretcher implements AudioStretcher {
     }
 
     private static float ratio(int remaining, int all) {
-        return (float) remaining / all;
+        return all == 0 ? 0F : (float) remaining / all;
     }
 
     @Override
@@ -27,7 +27,7 @@ public class InsertAudioStretcher implements AudioStretcher {
         if (input.remaining() >= output.remaining()) {
             throw new IllegalArgumentException("Illegal use of AudioStretcher.INSERT");
         }
-        if (channels != 1 && channels != 2) {
+        if (channels <= 0) {
             throw new IllegalArgumentException("Illegal use of AudioStretcher.INSERT. Channels:" + channels);
         }
         final int inputSamples = input.remaining() / channels;
@@ -36,19 +36,17 @@ public class InsertAudioStretcher implements AudioStretcher {
         int remainingFakeSamples = fakeSamples;
         float remainingInputSamplesRatio = ratio(remainingInputSamples, inputSamples);
         float remainingFakeSamplesRatio = ratio(remainingFakeSamples, fakeSamples);
-        while (remainingInputSamples > 0 && remainingFakeSamples > 0) {
+        while (remainingInputSamples > 0 || remainingFakeSamples > 0) {
             // Will this be an input sample or a fake sample?
             // Choose the one with the bigger ratio.
             if (remainingInputSamplesRatio >= remainingFakeSamplesRatio) {
-                output.put(input.get());
-                if (channels == 2) output.put(input.get());
+                for (int c = 0; c < channels; c++) output.put(input.get());
                 remainingInputSamples--;
                 remainingInputSamplesRatio = ratio(remainingInputSamples, inputSamples);
             } else {
-                output.put(noise());
-                if (channels == 2) output.put(noise());
+                for (int c = 0; c < channels; c++) output.put(noise());
                 remainingFakeSamples--;
-                remainingFakeSamplesRatio = ratio(remainingFakeSamples, inputSamples);
+                remainingFakeSamplesRatio = ratio(remainingFakeSamples, fakeSamples);
             }
         }
     }
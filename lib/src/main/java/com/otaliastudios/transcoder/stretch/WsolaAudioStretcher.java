@@ -0,0 +1,293 @@
+package com.otaliastudios.transcoder.stretch;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ShortBuffer;
+
+/**
+ * An {@link AudioStretcher} that changes the duration of audio without changing its pitch,
+ * using WSOLA (waveform similarity overlap-add).
+ *
+ * Output is built by overlap-adding windowed frames of input, which are taken at a rate that
+ * matches the stretch factor. Each frame is moved by up to 256 frames from its ideal
+ * position, to the point where it best continues the previous one, which avoids phase jumps.
+ *
+ * The stretcher keeps its input between calls, so it follows speed changes from one buffer
+ * to the next without discontinuities. For the same reason, an instance should not be used by
+ * two streams at the same time. The transcoder uses a new instance for each audio track,
+ * see {@link #newInstance()}.
+ * Since each output frame needs some input ahead of it, the first buffers get less output,
+ * and up to 1280 input frames (about 27ms at 48kHz) are pending between calls. They are
+ * written by {@link #flush(ShortBuffer, int)} at the end of the stream.
+ */
+public final class WsolaAudioStretcher implements AudioStretcher {
+
+    // Frame size and synthesis hop. With a 50% overlap, the Hann windows add up to 1.
+    private final static int WINDOW = 1024;
+    private final static int HOP = WINDOW / 2;
+    // Maximum distance of each frame from its ideal position.
+    private final static int SEEK = 256;
+    // Frames compared when looking for the best position.
+    private final static int COMPARE = 256;
+    // Coarse step of the position search, refined later.
+    private final static int COARSE = 4;
+    final static int LATENCY = WINDOW + SEEK;
+
+    private final static float[] HANN = new float[WINDOW];
+    static {
+        for (int i = 0; i < WINDOW; i++) {
+            HANN[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / WINDOW));
+        }
+    }
+
+    private int mChannels;
+    // Deinterleaved input, and its mono mix used for the position search.
+    private float[][] mInput = new float[0][];
+    private float[] mMono = new float[0];
+    private int mFrames;
+    // Ideal position of the next frame, and actual position of the previous one.
+    private double mPosition;
+    private int mPrevious;
+    // Second half of the previous frame, already windowed.
+    private float[][] mTail = new float[0][];
+    // Output frames that are complete, but were not requested yet.
+    private float[][] mOutput = new float[0][];
+    private int mOutputFrames;
+    private short[] mShorts = new short[0];
+    // Input position where the leading silence ends. Output before it is discarded.
+    private int mPrimed;
+    // Output frames that were requested, but not written.
+    private int mMissing;
+    // Last analysis hop, and last ratio between output and input frames.
+    private double mHop = HOP;
+    private double mRatio = 1;
+    // Output frames that flush() still has to write, or -1 if not flushing.
+    private int mFlushFrames = -1;
+
+    @Override
+    public void stretch(@NonNull ShortBuffer input, @NonNull ShortBuffer output, int channels) {
+        if (channels <= 0) {
+            throw new IllegalArgumentException("Illegal use of WsolaAudioStretcher. Channels:" + channels);
+        }
+        if (channels != mChannels) reset(channels);
+        int inputFrames = input.remaining() / channels;
+        int outputFrames = output.remaining() / channels;
+        if (inputFrames > 0 && outputFrames > 0) mRatio = (double) outputFrames / inputFrames;
+        write(input);
+        synthesize(outputFrames);
+        int frames = read(output, outputFrames);
+        mMissing += outputFrames - frames;
+        // Leftover shorts that do not make a whole frame.
+        input.position(input.limit());
+        if (frames == outputFrames) {
+            while (output.hasRemaining()) output.put((short) 0);
+        }
+    }
+
+    @NonNull
+    @Override
+    public AudioStretcher newInstance() {
+        return new WsolaAudioStretcher();
+    }
+
+    @Override
+    public int getPendingFrames() {
+        // Input position of the next output frame.
+        double next = mPosition - mOutputFrames * mHop / HOP;
+        return Math.max(0, mFrames - Math.max(mPrimed, (int) Math.round(next)));
+    }
+
+    @Override
+    public boolean flush(@NonNull ShortBuffer output, int channels) {
+        if (mChannels == 0) return false;
+        if (mFlushFrames < 0) {
+            // Write what is missing, so that the total matches the input at the requested
+            // ratios. Silence after the input provides the lookahead.
+            mFlushFrames = mMissing;
+            write(ShortBuffer.wrap(new short[LATENCY * mChannels]));
+            synthesize(mFlushFrames, HOP / mRatio);
+        }
+        int frames = read(output, Math.min(output.remaining() / mChannels, mFlushFrames));
+        mFlushFrames = frames == 0 ? 0 : mFlushFrames - frames;
+        if (mFlushFrames > 0) return true;
+        reset(mChannels);
+        return false;
+    }
+
+    private void reset(int channels) {
+        mChannels = channels;
+        mInput = new float[channels][LATENCY + WINDOW];
+        mMono = new float[LATENCY + WINDOW];
+        mTail = new float[channels][HOP];
+        mOutput = new float[channels][WINDOW];
+        mOutputFrames = 0;
+        // Start with silence, so that the first frames have enough input ahead of them.
+        mFrames = LATENCY;
+        mPrimed = LATENCY;
+        mMissing = 0;
+        mPosition = 0;
+        mPrevious = -1;
+        mHop = HOP;
+        mRatio = 1;
+        mFlushFrames = -1;
+    }
+
+    private void write(@NonNull ShortBuffer input) {
+        int channels = mChannels;
+        int frames = input.remaining() / channels;
+        if (mShorts.length < frames * channels) mShorts = new short[frames * channels];
+        input.get(mShorts, 0, frames * channels);
+        if (mMono.length < mFrames + frames) {
+            int capacity = Math.max(mMono.length * 2, mFrames + frames);
+            for (int c = 0; c < channels; c++) mInput[c] = grow(mInput[c], capacity, mFrames);
+            mMono = grow(mMono, capacity, mFrames);
+        }
+        float scale = 1F / channels;
+        for (int f = 0, j = 0; f < frames; f++) {
+            float sum = 0F;
+            for (int c = 0; c < channels; c++, j++) {
+                float value = mShorts[j];
+                mInput[c][mFrames + f] = value;
+                sum += value;
+            }
+            mMono[mFrames + f] = sum * scale;
+        }
+        mFrames += frames;
+    }
+
+    private void synthesize(int outputFrames) {
+        synthesize(outputFrames, -1);
+    }
+
+    /**
+     * Adds enough frames to have {@code outputFrames} frames of output. If {@code hop} is -1,
+     * the analysis hop is chosen to consume all input, except the latency that the last frame needs.
+     */
+    private void synthesize(int outputFrames, double hop) {
+        int hops = (outputFrames - mOutputFrames + HOP - 1) / HOP;
+        if (hops <= 0) return;
+        if (mOutput[0].length < mOutputFrames + hops * HOP) {
+            for (int c = 0; c < mChannels; c++) {
+                mOutput[c] = grow(mOutput[c], mOutputFrames + hops * HOP, mOutputFrames);
+            }
+        }
+        if (hop < 0) hop = Math.max(0, (mFrames - LATENCY - mPosition) / hops);
+        for (int h = 0; h < hops; h++) {
+            int start = seek((int) Math.round(mPosition));
+            overlapAdd(start, primedOutput(hop));
+            mPrevious = start;
+            mPosition += hop;
+        }
+        mHop = hop;
+        // Drop input that will not be used anymore.
+        int drop = Math.max(0, Math.min(mPrevious, (int) mPosition - SEEK));
+        if (drop > 0) {
+            for (int c = 0; c < mChannels; c++) {
+                System.arraycopy(mInput[c], drop, mInput[c], 0, mFrames - drop);
+            }
+            System.arraycopy(mMono, drop, mMono, 0, mFrames - drop);
+            mFrames -= drop;
+            mPosition -= drop;
+            mPrevious -= drop;
+            mPrimed -= drop;
+        }
+    }
+
+    /**
+     * Returns how many of the HOP output frames of the next frame come from the leading silence.
+     */
+    private int primedOutput(double hop) {
+        double silence = mPrimed - mPosition;
+        if (silence <= 0) return 0;
+        if (hop <= 0) return HOP;
+        return (int) Math.min(HOP, Math.round(silence * HOP / hop));
+    }
+
+    /**
+     * Returns the frame position around {@code ideal} whose beginning is most similar
+     * to what followed the previous frame, using normalized cross-correlation.
+     */
+    private int seek(int ideal) {
+        ideal = Math.max(0, Math.min(ideal, mFrames - WINDOW));
+        if (mPrevious < 0) return ideal;
+        int min = Math.max(0, ideal - SEEK);
+        int max = Math.min(mFrames - WINDOW, ideal + SEEK);
+        int natural = mPrevious + HOP;
+        // Ties, for example in silence, keep the ideal position.
+        int best = ideal;
+        float bestScore = similarity(ideal, natural, COARSE);
+        for (int start = ideal - (ideal - min) / COARSE * COARSE; start <= max; start += COARSE) {
+            float score = similarity(start, natural, COARSE);
+            if (score > bestScore) {
+                bestScore = score;
+                best = start;
+            }
+        }
+        int coarse = best;
+        bestScore = similarity(coarse, natural, 1);
+        for (int start = Math.max(min, coarse - COARSE + 1); start <= Math.min(max, coarse + COARSE - 1); start++) {
+            float score = similarity(start, natural, 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = start;
+            }
+        }
+        return best;
+    }
+
+    private float similarity(int start, int natural, int step) {
+        float[] mono = mMono;
+        float correlation = 0F, energy = 1F;
+        for (int i = 0; i < COMPARE; i += step) {
+            float value = mono[start + i];
+            correlation += value * mono[natural + i];
+            energy += value * value;
+        }
+        return correlation / (float) Math.sqrt(energy);
+    }
+
+    /**
+     * Adds the frame at {@code start} to the output, discarding the first {@code skip} frames.
+     */
+    private void overlapAdd(int start, int skip) {
+        for (int c = 0; c < mChannels; c++) {
+            float[] input = mInput[c];
+            float[] tail = mTail[c];
+            float[] output = mOutput[c];
+            int offset = mOutputFrames - skip;
+            for (int i = 0; i < HOP; i++) {
+                if (i >= skip) output[offset + i] = tail[i] + input[start + i] * HANN[i];
+                tail[i] = input[start + HOP + i] * HANN[HOP + i];
+            }
+        }
+        mOutputFrames += HOP - skip;
+    }
+
+    /**
+     * Writes up to {@code frames} output frames and returns how many were written.
+     */
+    private int read(@NonNull ShortBuffer output, int frames) {
+        frames = Math.min(frames, mOutputFrames);
+        int channels = mChannels;
+        if (mShorts.length < frames * channels) mShorts = new short[frames * channels];
+        for (int c = 0; c < channels; c++) {
+            float[] samples = mOutput[c];
+            for (int f = 0, j = c; f < frames; f++, j += channels) {
+                float value = samples[f];
+                int rounded = (int) (value >= 0 ? value + 0.5F : value - 0.5F);
+                mShorts[j] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+            }
+            System.arraycopy(samples, frames, samples, 0, mOutputFrames - frames);
+        }
+        mOutputFrames -= frames;
+        output.put(mShorts, 0, frames * channels);
+        return frames;
+    }
+
+    @NonNull
+    private static float[] grow(@NonNull float[] array, int capacity, int used) {
+        float[] grown = new float[capacity];
+        System.arraycopy(array, 0, grown, 0, used);
+        return grown;
+    }
+}
@@ -0,0 +1,88 @@
+package com.otaliastudios.transcoder.internal.audio
+
+import com.otaliastudios.transcoder.internal.audio.remix.AudioRemixer
+import com.otaliastudios.transcoder.resample.AudioResampler
+import com.otaliastudios.transcoder.resample.DefaultAudioResampler
+import com.otaliastudios.transcoder.resample.PolyphaseAudioResampler
+import com.otaliastudios.transcoder.stretch.AudioStretcher
+import com.otaliastudios.transcoder.stretch.DefaultAudioStretcher
+import com.otaliastudios.transcoder.stretch.WsolaAudioStretcher
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.ceil
+import kotlin.random.Random
+
+class AudioKernelTest {
+
+    private fun kernel(inChannels: Int, inRate: Int, outChannels: Int, outRate: Int,
+                       stretcher: AudioStretcher = DefaultAudioStretcher(),
+                       resampler: AudioResampler = DefaultAudioResampler()) =
+        AudioKernel(stretcher, AudioRemixer[inChannels, outChannels], resampler,
+                inChannels, inRate, outChannels, outRate)
+
+    // Direct buffers, like decoder and encoder ones.
+    private fun buffer(shorts: Int) = ByteBuffer.allocateDirect(shorts * 2).order(ByteOrder.nativeOrder()).asShortBuffer()
+
+    private fun run(inChannels: Int, inRate: Int, outChannels: Int, outRate: Int, stretch: Double, fused: Boolean): ShortArray {
+        val kernel = kernel(inChannels, inRate, outChannels, outRate)
+        val random = Random(42)
+        val result = mutableListOf<Short>()
+        repeat(5) {
+            val input = buffer(1024 * inChannels)
+            repeat(input.capacity()) { input.put(random.nextInt(-20000, 20000).toShort()) }
+            input.flip()
+            val stretchSize = ceil(input.remaining() * stretch).toInt()
+            val output = buffer(4 * 1024 * outChannels)
+            if (fused) kernel.fused(input, stretchSize, output) else kernel.staged(input, stretchSize, output)
+            assertEquals(input.limit(), input.position())
+            output.flip()
+            repeat(output.remaining()) { result += output.get() }
+        }
+        return result.toShortArray()
+    }
+
+    private fun assertSameOutput(inChannels: Int, inRate: Int, outChannels: Int, outRate: Int, stretch: Double) {
+        val staged = run(inChannels, inRate, outChannels, outRate, stretch, fused = false)
+        val fused = run(inChannels, inRate, outChannels, outRate, stretch, fused = true)
+        assertArrayEquals(staged, fused)
+    }
+
+    @Test
+    fun testPassThrough() = assertSameOutput(2, 44100, 2, 44100, 1.0)
+
+    @Test
+    fun testDownMixAndCut() = assertSameOutput(2, 44100, 1, 44100, 0.5)
+
+    @Test
+    fun testUpMixAndResample() = assertSameOutput(1, 22050, 2, 48000, 1.0)
+
+    @Test
+    fun testCutAndResample() = assertSameOutput(2, 48000, 2, 44100, 0.73)
+
+    @Test
+    fun testFlush_writesPendingAudio() {
+        val kernel = kernel(2, 44100, 1, 48000, WsolaAudioStretcher(), PolyphaseAudioResampler())
+        var written = 0
+        repeat(5) {
+            val input = buffer(1024 * 2)
+            repeat(input.capacity()) { input.put((it % 100).toShort()) }
+            input.flip()
+            val output = buffer(4 * 1024)
+            kernel.process(input, ceil(input.remaining() * 1.5).toInt(), output)
+            written += output.position()
+        }
+        assertTrue(kernel.pendingUs(1.5) > 0)
+        val output = buffer(256)
+        while (kernel.flush(output)) {
+            written += output.position()
+            output.clear()
+        }
+        // Each chunk is stretched to 1536 frames, mixed down to mono and resampled.
+        val expected = 5 * 1536 * 48000 / 44100
+        assertEquals(expected.toDouble(), written.toDouble(), 2.0)
+    }
+}
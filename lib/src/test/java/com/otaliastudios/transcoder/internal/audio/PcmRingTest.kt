@@ -0,0 +1,87 @@
+package com.otaliastudios.transcoder.internal.audio
+
+import com.otaliastudios.transcoder.internal.utils.Logger
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+
+class PcmRingTest {
+
+    private val log = Logger("PcmRingTest")
+
+    // A decoder with a few output buffers, which can only output when one of them is released.
+    private class FakeDecoder(private val buffers: Int, private val shorts: Int, private val chunks: Int) {
+        var dequeued = 0
+        var produced = 0
+        val done get() = produced == chunks
+
+        fun output(ring: PcmRing): Boolean {
+            if (done || dequeued == buffers) return false
+            val buffer = ShortBuffer.allocate(shorts)
+            repeat(shorts) { buffer.put((produced * shorts + it).toShort()) }
+            buffer.flip()
+            dequeued++
+            ring.enqueue(buffer, produced * 21333L, 1.0) { dequeued-- }
+            produced++
+            return true
+        }
+    }
+
+    @Test
+    fun testMemoryIsBoundedWithSlowEncoder() {
+        val ring = PcmRing(log, capacity = 8192)
+        val decoder = FakeDecoder(buffers = 4, shorts = 2048, chunks = 500)
+        var next = 0
+        while (!decoder.done || !ring.isEmpty()) {
+            // The decoder outputs as fast as it can...
+            while (decoder.output(ring)) {
+                assertTrue(ring.usedSize <= ring.capacity)
+                assertTrue(ring.heldCount <= 4)
+            }
+            // ...while the encoder takes 700 shorts at a time.
+            ring.drain(48000, 2, Unit) { buffer, timeUs, _ ->
+                val expected = next / 2048 * 21333L + shortsToUs(next % 2048, 48000, 2)
+                assertEquals(expected, timeUs)
+                repeat(minOf(700, buffer.remaining())) {
+                    assertEquals(next.toShort(), buffer.get())
+                    next++
+                }
+            }
+        }
+        assertEquals(500 * 2048, next)
+        assertEquals(0, ring.usedSize)
+        assertEquals(0, decoder.dequeued)
+    }
+
+    @Test
+    fun testBuffersAreReleasedWhenCopied() {
+        val ring = PcmRing(log, capacity = 4096)
+        var released = 0
+        repeat(3) { ring.enqueue(ShortBuffer.allocate(2048), 0, 1.0) { released++ } }
+        // Two fit in the ring, the third is held.
+        assertEquals(2, released)
+        assertEquals(1, ring.heldCount)
+        // Partially drained ring chunk: only the cursor moves.
+        ring.drain(48000, 2, Unit) { buffer, _, _ -> buffer.position(buffer.position() + 100) }
+        assertEquals(4096 - 100, ring.usedSize)
+        ring.drain(48000, 2, Unit) { buffer, _, _ -> buffer.position(buffer.limit()) }
+        ring.drain(48000, 2, Unit) { buffer, _, _ -> buffer.position(buffer.limit()) }
+        assertEquals(0, ring.usedSize)
+        // Partially drained held buffer: the rest is copied into the ring, and it is released.
+        ring.drain(48000, 2, Unit) { buffer, _, _ -> buffer.position(buffer.position() + 100) }
+        assertEquals(3, released)
+        assertEquals(0, ring.heldCount)
+        assertEquals(2048 - 100, ring.usedSize)
+    }
+
+    @Test
+    fun testEos() {
+        val ring = PcmRing(log, capacity = 4096)
+        ring.enqueue(ShortBuffer.allocate(100), 0, 1.0) {}
+        ring.enqueueEos()
+        assertEquals(1, ring.drain(48000, 2, 0) { buffer, _, _ -> buffer.position(buffer.limit()); 1 })
+        assertEquals(2, ring.drain(48000, 2, 2) { _, _, _ -> 1 })
+        assertTrue(ring.isEmpty())
+    }
+}
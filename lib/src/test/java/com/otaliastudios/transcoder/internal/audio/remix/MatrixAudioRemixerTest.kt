@@ -0,0 +1,75 @@
+package com.otaliastudios.transcoder.internal.audio.remix
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+import kotlin.math.abs
+
+class MatrixAudioRemixerTest {
+
+    private fun AudioRemixer.remix(vararg input: Short): ShortArray {
+        val output = ShortArray(getRemixedSize(input.size))
+        assertEquals(output.size, remix(shortArrayOf(*input), input.size, output))
+        return output
+    }
+
+    private fun shorts(vararg values: Int) = values.map { it.toShort() }.toShortArray()
+
+    @Test
+    fun testStereoToMono() {
+        val remixer = AudioRemixer[2, 1]
+        assertArrayEquals(shorts(150, -1000), remixer.remix(100, 200, -1000, -1000))
+        assertArrayEquals(shorts(32767, -32768), remixer.remix(32767, 32767, -32768, -32768))
+    }
+
+    @Test
+    fun testMonoToStereo() {
+        assertArrayEquals(shorts(5, 5, -7, -7), AudioRemixer[1, 2].remix(5, -7))
+    }
+
+    @Test
+    fun testSurroundToStereo() {
+        val matrix = MatrixAudioRemixer.itu(6, 2)
+        // FL FR FC LFE BL BR: center and back at -3dB, no LFE, normalized.
+        val norm = 1 + 2 * 0.70710678F
+        val expected = floatArrayOf(1 / norm, 0F, 0.70710678F / norm, 0F, 0.70710678F / norm, 0F)
+        for (i in 0 until 6) assertEquals(expected[i], matrix[0][i], 1e-6F)
+        for (i in 0 until 6) assertEquals(matrix[0][i], matrix[1][listOf(1, 0, 2, 3, 5, 4)[i]], 1e-6F)
+
+        // Only LFE: silence. Same value everywhere: that value.
+        val remixer = AudioRemixer[6, 2]
+        assertArrayEquals(shorts(0, 0), remixer.remix(0, 0, 0, 20000, 0, 0))
+        assertTrue(remixer.remix(10000, 10000, 10000, 0, 10000, 10000).all { abs(it - 10000) <= 1 })
+    }
+
+    @Test
+    fun testAllCountsAreSupported() {
+        for (input in 1..8) {
+            for (output in 1..8) {
+                val remixer = AudioRemixer[input, output]
+                val frames = ShortArray(input * 3) { 1000 }
+                val remixed = ShortArray(remixer.getRemixedSize(frames.size))
+                assertEquals(output * 3, remixer.remix(frames, frames.size, remixed))
+                // Rows never exceed unity gain.
+                assertTrue(remixed.all { abs(it.toInt()) <= 1000 })
+            }
+        }
+    }
+
+    @Test
+    fun testBufferAndArrayAgree() {
+        val remixer = AudioRemixer[8, 2]
+        val input = ShortArray(8 * 100) { (it * 37 % 20000 - 10000).toShort() }
+        val array = remixer.remix(*input)
+        val output = ShortBuffer.allocate(2 * 100)
+        remixer.remix(ShortBuffer.wrap(input), output)
+        assertArrayEquals(array, output.array())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testClippingMatrixIsRejected() {
+        MatrixAudioRemixer(arrayOf(floatArrayOf(1F, 1F)))
+    }
+}
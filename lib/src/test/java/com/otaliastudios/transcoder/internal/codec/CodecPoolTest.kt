@@ -0,0 +1,106 @@
+package com.otaliastudios.transcoder.internal.codec
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CodecPoolTest {
+
+    private class FakeCodec(val mime: String, val encoder: Boolean) {
+        var resets = 0
+        var released = false
+    }
+
+    private var created = 0
+    private var failures = 0
+
+    private fun pool(idleTimeoutMs: Long = 60_000, maxIdle: Int = 2) = CodecPool(
+            create = { mime, encoder ->
+                if (failures > 0) {
+                    failures--
+                    throw IllegalStateException("No resources.")
+                }
+                created++
+                FakeCodec(mime, encoder)
+            },
+            reset = { it.resets++ },
+            destroy = { it.released = true },
+            idleTimeoutMs = idleTimeoutMs,
+            maxIdle = maxIdle
+    )
+
+    @Test
+    fun testReuse_sameKeyOnly() {
+        val pool = pool()
+        val first = pool.acquire("video/avc", false)
+        pool.recycle(first)
+        assertEquals(1, first.resets)
+        assertNotSame(first, pool.acquire("video/avc", true))
+        assertNotSame(first, pool.acquire("video/hevc", false))
+        assertSame(first, pool.acquire("video/avc", false))
+        assertEquals(3, created)
+    }
+
+    @Test
+    fun testRecycle_stoppedCodecIsNotReset() {
+        val pool = pool()
+        val codec = pool.acquire("audio/mp4a-latm", true)
+        pool.recycle(codec, stopped = true)
+        assertEquals(0, codec.resets)
+        assertEquals(1, pool.idleCount)
+    }
+
+    @Test
+    fun testRecycle_releasesWhenFull() {
+        val pool = pool(maxIdle = 1)
+        val codecs = List(2) { pool.acquire("video/avc", false) }
+        codecs.forEach { pool.recycle(it) }
+        assertEquals(1, pool.idleCount)
+        assertTrue(codecs[1].released)
+    }
+
+    @Test
+    fun testEvict_afterTimeout() {
+        val pool = pool(idleTimeoutMs = 1000)
+        val codec = pool.acquire("video/avc", false)
+        pool.recycle(codec)
+        pool.evict(System.currentTimeMillis())
+        assertEquals(1, pool.idleCount)
+        pool.evict(System.currentTimeMillis() + 1000)
+        assertEquals(0, pool.idleCount)
+        assertTrue(codec.released)
+    }
+
+    @Test
+    fun testAcquireFailure_releasesIdleAndRetries() {
+        val pool = pool()
+        val idle = pool.acquire("audio/mp4a-latm", false)
+        pool.recycle(idle)
+        failures = 1
+        val codec = pool.acquire("video/avc", true)
+        assertTrue(idle.released)
+        assertEquals("video/avc", codec.mime)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testAcquireFailure_noIdle() {
+        val pool = pool()
+        failures = 1
+        pool.acquire("video/avc", true)
+    }
+
+    @Test
+    fun testPrefetch_servesNextAcquire() {
+        val pool = pool()
+        assertTrue(pool.prefetch("audio/3gpp", false))
+        assertFalse(pool.prefetch("audio/3gpp", false))
+        assertEquals(1, created)
+        val codec = pool.acquire("audio/3gpp", false)
+        assertEquals(1, created)
+        assertEquals(0, codec.resets)
+        assertEquals(0, pool.idleCount)
+    }
+}
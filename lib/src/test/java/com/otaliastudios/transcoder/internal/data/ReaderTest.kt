@@ -0,0 +1,85 @@
+package com.otaliastudios.transcoder.internal.data
+
+import android.media.MediaFormat
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.pipeline.Wakeup
+import com.otaliastudios.transcoder.internal.utils.ReadWaiters
+import com.otaliastudios.transcoder.internal.utils.synchronizedOn
+import com.otaliastudios.transcoder.source.DataSource
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class ReaderTest {
+
+    // Video and audio samples of one byte each, interleaved.
+    private class Source(private val samples: Int) : DataSource {
+        var read = 0
+        private val next get() = if (read % 2 == 0) TrackType.VIDEO else TrackType.AUDIO
+        override fun initialize() = Unit
+        override fun deinitialize() = Unit
+        override fun isInitialized() = true
+        override fun getOrientation() = 0
+        override fun getLocation(): DoubleArray? = null
+        override fun getDurationUs() = samples * 1000L
+        override fun getTrackFormat(type: TrackType): MediaFormat? = null
+        override fun selectTrack(type: TrackType) = Unit
+        override fun seekTo(desiredPositionUs: Long) = desiredPositionUs
+        override fun canReadTrack(type: TrackType) = type == next && !isDrained
+        override fun readTrack(chunk: DataSource.Chunk) {
+            chunk.buffer.put(read.toByte())
+            chunk.buffer.flip()
+            chunk.timeUs = read * 1000L
+            chunk.render = true
+            read++
+        }
+        override fun getPositionUs() = read * 1000L
+        override fun isDrained() = read == samples
+        override fun releaseTrack(type: TrackType) = Unit
+    }
+
+    private object Buffers : ReaderChannel {
+        override fun buffer() = ByteBuffer.allocate(8) to 0
+    }
+
+    private fun reader(source: DataSource, type: TrackType) = Reader(source, type).also {
+        it.initialize(Buffers)
+    }
+
+    @Test
+    fun testSharedSource_signalsWaitingReader() {
+        val source = Source(4)
+        val waiters = ReadWaiters()
+        val video = reader(source.synchronizedOn(source, waiters), TrackType.VIDEO)
+        val audio = reader(source.synchronizedOn(source, waiters), TrackType.AUDIO)
+        // Parks for long, so that only the signal can make it ready.
+        val audioWakeup = Wakeup(object : BackoffPolicy {
+            override fun getDequeueTimeoutUs(misses: Int, intervalUs: Long) = 0L
+            override fun getParkTimeMs(failures: Int) = 5000L
+        })
+        audio.attach(audioWakeup)
+
+        // Audio must wait for video to read first, and it can sleep meanwhile.
+        val failure = audio.advance(State.Ok(Unit))
+        assertTrue(failure is State.Retry && failure.sleep)
+        audioWakeup.park()
+        assertFalse(audioWakeup.isReady())
+
+        assertTrue(video.advance(State.Ok(Unit)) is State.Ok)
+        assertTrue(audioWakeup.isReady())
+        assertTrue(audio.advance(State.Ok(Unit)) is State.Ok)
+        assertEquals(2, source.read)
+    }
+
+    @Test
+    fun testSameThread_retriesRightAway() {
+        val source = Source(4)
+        val audio = reader(source, TrackType.AUDIO)
+        val failure = audio.advance(State.Ok(Unit))
+        assertTrue(failure is State.Retry && !failure.sleep)
+    }
+}
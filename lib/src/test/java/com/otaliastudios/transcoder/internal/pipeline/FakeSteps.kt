@@ -0,0 +1,44 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+/**
+ * Input channel of the fake steps. Like a codec with no free buffers,
+ * a step can refuse new input while it is busy.
+ */
+internal interface FakeChannel : Channel {
+    fun canAccept(): Boolean = true
+}
+
+/**
+ * Emits [count] packets numbered from 1, the last one as EOS.
+ * While the next step can't accept input, it retries with the given [sleep].
+ */
+internal class FakeSource(
+        private val count: Int,
+        private val sleep: Boolean = false
+) : BaseStep<Unit, Channel, Int, FakeChannel>("Source") {
+    override val channel = Channel
+    private var emitted = 0
+
+    override fun advance(state: State.Ok<Unit>): State<Int> {
+        if (!next.canAccept()) return State.Retry(sleep)
+        emitted++
+        return if (emitted == count) State.Eos(emitted) else State.Ok(emitted)
+    }
+}
+
+/**
+ * Counts the packets it receives, and adds them to [received] if present.
+ */
+internal class FakeSink<T: Any>(
+        private val received: MutableList<T>? = null
+) : BaseStep<T, FakeChannel, Unit, Channel>("Sink") {
+    override val channel = object : FakeChannel {}
+    var count = 0L
+        private set
+
+    override fun advance(state: State.Ok<T>): State<Unit> {
+        count++
+        received?.add(state.value)
+        return if (state is State.Eos) State.Eos(Unit) else ok(Unit)
+    }
+}
@@ -0,0 +1,96 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Checks that once warmed up, moving samples through a pipeline does not allocate.
+ * Steps mimic the real ones: carriers are reused and states come from [BaseStep.ok].
+ */
+class PipelineAllocationTest {
+
+    private class Sample(val owner: ArrayDeque<Sample>) {
+        var timeUs = 0L
+    }
+
+    private interface SampleChannel : Channel {
+        fun sample(): Sample?
+    }
+
+    private class Source : BaseStep<Unit, Channel, Sample, SampleChannel>("Source") {
+        override val channel = Channel
+        private var timeUs = 0L
+        override fun advance(state: State.Ok<Unit>): State<Sample> {
+            val sample = next.sample() ?: return State.Retry(true)
+            sample.timeUs = timeUs++
+            return ok(sample)
+        }
+    }
+
+    /**
+     * Owns a few samples, like a codec owns its buffers, and returns them with some latency.
+     * When [releases] is true, drained samples are given back to the codec that owns them.
+     */
+    private class Codec<C: Channel>(
+            name: String,
+            private val releases: Boolean
+    ) : QueuedStep<Sample, SampleChannel, Sample, C>(name), SampleChannel {
+        override val channel = this
+        private val free = ArrayDeque<Sample>()
+        private val pending = ArrayDeque<Sample>()
+
+        init {
+            repeat(4) { free.addLast(Sample(free)) }
+        }
+
+        override fun sample(): Sample? = free.removeFirstOrNull()
+
+        override fun enqueue(data: Sample) = pending.addLast(data)
+
+        override fun enqueueEos(data: Sample) = pending.addLast(data)
+
+        override fun drain(): State<Sample> {
+            if (pending.size < 2) return State.Retry(false)
+            val sample = pending.removeFirst()
+            if (releases) sample.owner.addLast(sample)
+            return ok(sample)
+        }
+    }
+
+    private class Timer : TransformStep<Sample, SampleChannel>("Timer") {
+        override fun advance(state: State.Ok<Sample>): State<Sample> {
+            state.value.timeUs *= 2
+            return state
+        }
+    }
+
+    @Test
+    fun testNoAllocations() {
+        val threads = ManagementFactory.getThreadMXBean()
+        assumeTrue(threads is com.sun.management.ThreadMXBean)
+        threads as com.sun.management.ThreadMXBean
+        val sink = FakeSink<Sample>()
+        val pipeline = Pipeline.build("Test") {
+            Source() + Codec<SampleChannel>("Decoder", false) + Timer() + Codec<FakeChannel>("Encoder", true) + sink
+        }
+        repeat(WARMUP) { pipeline.execute() }
+        val count = sink.count
+        val thread = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(thread)
+        repeat(PACKETS) { pipeline.execute() }
+        val after = threads.getThreadAllocatedBytes(thread)
+        pipeline.release()
+        assertEquals(PACKETS.toLong(), sink.count - count)
+        // The runtime can allocate a few bytes once in a while (e.g. for JIT bookkeeping),
+        // but anything allocated per sample, even a boxed timestamp, would be 16 bytes per packet.
+        val allocated = after - before
+        assertEquals("Allocated $allocated bytes", 0L, allocated / PACKETS)
+    }
+
+    companion object {
+        private const val WARMUP = 50_000
+        private const val PACKETS = 100_000
+    }
+}
@@ -0,0 +1,71 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PipelineMetricsTest {
+
+    /**
+     * Holds one packet and releases it after [loops] calls to drain, like a slow codec.
+     */
+    private class Slow(private val loops: Int) : QueuedStep<Int, FakeChannel, Int, FakeChannel>("Slow"), FakeChannel {
+        override val channel = this
+        private var held: State.Ok<Int>? = null
+        private var waited = 0
+
+        override fun canAccept() = held == null
+
+        override fun enqueue(data: Int) { held = State.Ok(data) }
+        override fun enqueueEos(data: Int) { held = State.Eos(data) }
+
+        override fun drain(): State<Int> {
+            val result = held ?: return State.Retry(true)
+            if (++waited < loops) return State.Retry(true)
+            waited = 0
+            held = null
+            return result
+        }
+    }
+
+    @Test
+    fun testCounters_andBottleneck() {
+        val metrics = PipelineMetrics()
+        val pipeline = Pipeline.build("Test") { FakeSource(PACKETS) + Slow(4) + FakeSink<Int>() }
+        pipeline.observer = metrics
+        while (pipeline.execute() !is State.Eos) Unit
+        pipeline.release()
+
+        val steps = metrics.steps().associateBy { it.step }
+        val source = steps.getValue("Source")
+        val slow = steps.getValue("Slow")
+        val sink = steps.getValue("Sink")
+        assertEquals(PACKETS - 1L, source.oks)
+        assertEquals(1L, source.eos)
+        assertTrue(source.retries > 0)
+        // Each packet is consumed on enqueue, then released by tryAdvance.
+        assertEquals(PACKETS.toLong(), slow.consumes)
+        assertTrue(slow.sleepingRetries > 0)
+        assertEquals(PACKETS - 1L, sink.oks)
+        assertEquals(1L, sink.eos)
+        assertEquals(PACKETS.toLong(), sink.latency.count)
+        assertEquals("Slow", metrics.bottleneck()?.step)
+        assertEquals(metrics.idles, slow.idles)
+    }
+
+    @Test
+    fun testHistogram() {
+        val histogram = Histogram()
+        listOf(0L, 1L, 3L, 5L, 900L).forEach { histogram.record(it) }
+        assertEquals(5L, histogram.count)
+        assertEquals(900L, histogram.max)
+        assertEquals(181L, histogram.mean)
+        assertEquals(1L, histogram.percentile(0.5))
+        assertEquals(7L, histogram.percentile(0.8))
+        assertEquals(900L, histogram.percentile(1.0))
+    }
+
+    companion object {
+        private const val PACKETS = 10
+    }
+}
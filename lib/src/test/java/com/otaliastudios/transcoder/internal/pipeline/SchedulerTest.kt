@@ -0,0 +1,138 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+import com.otaliastudios.transcoder.backoff.BackoffPolicy
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.Segment
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.Executors
+
+class SchedulerTest {
+
+    /**
+     * Processes one packet at a time on a background thread, like a hardware codec would.
+     */
+    private inner class Codec(
+        private val latencyMs: Long,
+        private val signals: Boolean
+    ) : QueuedStep<Int, FakeChannel, Int, FakeChannel>("Codec"), FakeChannel {
+        override val channel = this
+        @Volatile private var pending: Int? = null
+        @Volatile private var output: State.Ok<Int>? = null
+
+        override fun canAccept() = pending == null
+
+        private fun process(value: Int, eos: Boolean) {
+            pending = value
+            executor.execute {
+                Thread.sleep(latencyMs)
+                output = if (eos) State.Eos(value) else State.Ok(value)
+                pending = null
+                if (signals) wakeup.signal()
+            }
+        }
+
+        override fun enqueue(data: Int) = process(data, false)
+        override fun enqueueEos(data: Int) = process(data, true)
+
+        override fun drain(): State<Int> {
+            val result = output ?: return State.Retry(true)
+            output = null
+            return result
+        }
+    }
+
+    private val executor = Executors.newSingleThreadExecutor()
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private fun pipeline(received: MutableList<Int>, signals: Boolean) = Pipeline.build("Test") {
+        FakeSource(PACKETS, sleep = true) + Codec(LATENCY_MS, signals) + FakeSink(received)
+    }
+
+    /**
+     * Mimics the engine loop before the scheduler was introduced.
+     */
+    private fun runPolling(received: MutableList<Int>): Int {
+        val pipeline = pipeline(received, signals = false)
+        var wakeups = 0
+        while (true) {
+            val state = pipeline.execute()
+            if (state is State.Eos) break
+            if (state !is State.Ok) {
+                Thread.sleep(2)
+                wakeups++
+            }
+        }
+        return wakeups
+    }
+
+    private fun runScheduled(received: MutableList<Int>, signals: Boolean): Long {
+        val scheduler = Scheduler()
+        val segment = Segment(TrackType.VIDEO, 0, pipeline(received, signals))
+        while (segment.canAdvance()) {
+            if (!segment.advance() && segment.needsSleep()) {
+                scheduler.await(segment.wakeup)
+            }
+        }
+        return scheduler.parks
+    }
+
+    private fun assertNoLostProgress(received: List<Int>) {
+        assertEquals((1..PACKETS).toList(), received)
+    }
+
+    @Test
+    fun testSignals_fewerWakeups() {
+        val polled = mutableListOf<Int>()
+        val scheduled = mutableListOf<Int>()
+        val pollingWakeups = runPolling(polled)
+        val scheduledWakeups = runScheduled(scheduled, signals = true)
+        assertNoLostProgress(polled)
+        assertNoLostProgress(scheduled)
+        assertTrue("scheduled=$scheduledWakeups polling=$pollingWakeups", scheduledWakeups < pollingWakeups)
+    }
+
+    @Test
+    fun testNoSignals_fewerWakeups() {
+        // Without signals, the growing park deadline must still guarantee progress.
+        val polled = mutableListOf<Int>()
+        val scheduled = mutableListOf<Int>()
+        val pollingWakeups = runPolling(polled)
+        val scheduledWakeups = runScheduled(scheduled, signals = false)
+        assertNoLostProgress(polled)
+        assertNoLostProgress(scheduled)
+        assertTrue("scheduled=$scheduledWakeups polling=$pollingWakeups", scheduledWakeups < pollingWakeups)
+    }
+
+    @Test
+    fun testSignal_wakesParkedThread() {
+        val scheduler = Scheduler()
+        val wakeup = Wakeup(object : BackoffPolicy {
+            override fun getDequeueTimeoutUs(misses: Int, intervalUs: Long) = 0L
+            override fun getParkTimeMs(failures: Int) = PARK_MS
+        })
+        wakeup.park()
+        val startNs = System.nanoTime()
+        executor.execute {
+            Thread.sleep(1)
+            wakeup.signal()
+        }
+        scheduler.await(wakeup)
+        val elapsedMs = (System.nanoTime() - startNs) / 1_000_000
+        assertTrue(wakeup.isReady())
+        // Woken by the signal, not by the deadline.
+        assertTrue("elapsed=${elapsedMs}ms", elapsedMs < PARK_MS / 2)
+    }
+
+    companion object {
+        private const val PACKETS = 20
+        private const val LATENCY_MS = 10L
+        private const val PARK_MS = 5000L
+    }
+}
@@ -0,0 +1,140 @@
+package com.otaliastudios.transcoder.internal.pipeline
+
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.Segment
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Compares serial and staged pipelines built with synthetic steps that block
+ * for a given time, like codec calls do. Staged steps must process packets at the same time.
+ */
+class StagedPipelineTest {
+
+    /**
+     * Blocks for [latencyMs] on each packet, like a codec call. Tracks how many steps are
+     * processing a packet at the same time in [active], and the maximum in [maxActive].
+     */
+    private class Work(
+        name: String,
+        private val latencyMs: Long,
+        private val active: AtomicInteger,
+        private val maxActive: AtomicInteger,
+        private val before: (Int) -> Unit = {}
+    ) : QueuedStep<Int, FakeChannel, Int, FakeChannel>(name), FakeChannel {
+        override val channel = this
+        private val pending = ArrayDeque<State.Ok<Int>>()
+
+        private fun process(data: Int) {
+            maxActive.accumulateAndGet(active.incrementAndGet(), ::maxOf)
+            try {
+                before(data)
+                Thread.sleep(latencyMs)
+            } finally {
+                active.decrementAndGet()
+            }
+        }
+
+        override fun enqueue(data: Int) {
+            process(data)
+            pending.addLast(State.Ok(data))
+        }
+
+        override fun enqueueEos(data: Int) {
+            process(data)
+            pending.addLast(State.Eos(data))
+        }
+
+        override fun drain(): State<Int> {
+            return pending.removeFirstOrNull() ?: State.Retry(false)
+        }
+    }
+
+    private fun run(staged: Boolean, steps: List<Work>): List<Int> {
+        val received = mutableListOf<Int>()
+        val pipeline = Pipeline.build("Test", staged = staged) {
+            var builder = FakeSource(PACKETS) + steps.first()
+            steps.drop(1).forEach { builder += it }
+            builder + FakeSink(received)
+        }
+        val segment = Segment(TrackType.VIDEO, 0, pipeline)
+        val scheduler = Scheduler()
+        try {
+            while (segment.canAdvance()) {
+                if (!segment.advance() && segment.needsSleep()) {
+                    scheduler.await(segment.wakeup)
+                }
+            }
+        } finally {
+            segment.release()
+        }
+        return received
+    }
+
+    private fun assertOverlap(vararg latenciesMs: Long) {
+        // Serial: one step at a time.
+        val serialActive = AtomicInteger(0)
+        val serialMax = AtomicInteger(0)
+        val serial = run(false, latenciesMs.mapIndexed { i, latency ->
+            Work("Work$i", latency, serialActive, serialMax)
+        })
+        assertEquals((1..PACKETS).toList(), serial)
+        assertEquals(1, serialMax.get())
+
+        // Staged: the first step does not take packet 2 until the last step has
+        // received packet 1, which can only happen if stages run at the same time.
+        val stagedActive = AtomicInteger(0)
+        val stagedMax = AtomicInteger(0)
+        val reached = CountDownLatch(1)
+        val last = latenciesMs.lastIndex
+        val staged = run(true, latenciesMs.mapIndexed { i, latency ->
+            Work("Work$i", latency, stagedActive, stagedMax) { packet ->
+                if (i == last && packet == 1) reached.countDown()
+                if (i == 0 && packet == 2) check(reached.await(5, TimeUnit.SECONDS)) { "Stages did not overlap." }
+            }
+        })
+        assertEquals((1..PACKETS).toList(), staged)
+        assertTrue("maxActive=${stagedMax.get()}", stagedMax.get() >= 2)
+    }
+
+    @Test
+    fun testEqualLatencies() = assertOverlap(3, 3, 3)
+
+    @Test
+    fun testSlowDecoder() = assertOverlap(5, 1, 2)
+
+    @Test
+    fun testSlowEncoder() = assertOverlap(1, 2, 5)
+
+    @Test(expected = IllegalStateException::class)
+    fun testWorkerFailure_isRethrown() {
+        val failing = object : QueuedStep<Int, FakeChannel, Int, FakeChannel>("Failing"), FakeChannel {
+            override val channel = this
+            override fun enqueue(data: Int) = error("Failure")
+            override fun enqueueEos(data: Int) = error("Failure")
+            override fun drain(): State<Int> = State.Retry(false)
+        }
+        val pipeline = Pipeline.build("Test", staged = true) {
+            FakeSource(PACKETS) + Work("Work", 0, AtomicInteger(), AtomicInteger()) + failing + FakeSink<Int>()
+        }
+        val segment = Segment(TrackType.VIDEO, 0, pipeline)
+        val scheduler = Scheduler()
+        try {
+            while (segment.canAdvance()) {
+                if (!segment.advance() && segment.needsSleep()) {
+                    scheduler.await(segment.wakeup)
+                }
+            }
+        } finally {
+            segment.release()
+        }
+    }
+
+    companion object {
+        private const val PACKETS = 40
+    }
+}
@@ -0,0 +1,70 @@
+package com.otaliastudios.transcoder.internal.transcode
+
+import com.otaliastudios.transcoder.TranscoderReport
+import com.otaliastudios.transcoder.common.TrackStatus
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.internal.codec.Decoder
+import com.otaliastudios.transcoder.internal.codec.Encoder
+import com.otaliastudios.transcoder.internal.pipeline.PipelineMetrics
+import com.otaliastudios.transcoder.internal.pipeline.State
+import com.otaliastudios.transcoder.internal.transcode.DefaultTranscodeEngine.Companion.setStepMetrics
+import com.otaliastudios.transcoder.internal.video.VideoRenderer
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class ReportTest {
+
+    private val ms = TimeUnit.MILLISECONDS.toNanos(1)
+
+    private fun PipelineMetrics.step(pipeline: String, step: String, result: State<Any>, times: Int = 1, durationNs: Long = 0) {
+        repeat(times) { onStep(pipeline, step, result, durationNs, 0) }
+    }
+
+    private val metrics = PipelineMetrics().apply {
+        // Two video segments, each with its own pipeline.
+        step("Video0", Decoder.name(TrackType.VIDEO), State.Ok(Unit), times = 3)
+        step("Video1", Decoder.name(TrackType.VIDEO), State.Ok(Unit), times = 2)
+        step("Video1", Decoder.name(TrackType.VIDEO), State.Retry(false), durationNs = 4 * ms)
+        step("Video0", VideoRenderer.NAME, State.Ok(Unit), times = 4)
+        step("Video0", VideoRenderer.NAME, State.Consume(), times = 1)
+        step("Video0", Encoder.name(TrackType.VIDEO), State.Retry(true), times = 2, durationNs = 3 * ms)
+        step("Audio0", Decoder.name(TrackType.AUDIO), State.Ok(Unit), times = 7)
+        step("Audio0", Encoder.name(TrackType.AUDIO), State.Eos(Unit), durationNs = 9 * ms)
+    }
+
+    private fun track(type: TrackType) = TranscoderReport.Track.Builder(type, TrackStatus.COMPRESSING)
+            .setStepMetrics(type, metrics.steps())
+            .build()
+
+    @Test
+    fun testVideoTrack() {
+        val video = track(TrackType.VIDEO)
+        assertEquals(5, video.framesDecoded)
+        assertEquals(4, video.framesRendered)
+        assertEquals(1, video.framesDropped)
+        assertEquals(4, video.decoderStallMs)
+        assertEquals(6, video.encoderStallMs)
+    }
+
+    @Test
+    fun testAudioTrack() {
+        val audio = track(TrackType.AUDIO)
+        assertEquals(7, audio.framesDecoded)
+        assertEquals(0, audio.framesRendered)
+        assertEquals(0, audio.framesDropped)
+        assertEquals(0, audio.decoderStallMs)
+        assertEquals(0, audio.encoderStallMs) // Eos is not a stall
+    }
+
+    @Test
+    fun testNoMetrics() {
+        val video = TranscoderReport.Track.Builder(TrackType.VIDEO, TrackStatus.PASS_THROUGH)
+                .setStepMetrics(TrackType.VIDEO, emptyList())
+                .setBytesRead(100)
+                .build()
+        assertEquals(0, video.framesDecoded)
+        assertEquals(100, video.bytesRead)
+        assertEquals(TrackStatus.PASS_THROUGH, video.status)
+    }
+}
@@ -0,0 +1,153 @@
+package com.otaliastudios.transcoder.internal.transcode
+
+import com.otaliastudios.transcoder.internal.codec.CodecPool
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class TranscodeQueueTest {
+
+    private val executor = Executors.newCachedThreadPool()
+    private val started = Collections.synchronizedList(mutableListOf<String>())
+    private val running = AtomicInteger(0)
+    private val maxRunning = AtomicInteger(0)
+
+    private inner class Job(
+            val name: String,
+            override val priority: Int = 0,
+            override val slots: CodecSlots = VIDEO,
+            private val release: CountDownLatch = CountDownLatch(0),
+            // Whether the job keeps running when canceled, like a job that is busy in a codec call.
+            private val stubborn: Boolean = false
+    ) : TranscodeQueue.Job {
+        val positions = Collections.synchronizedList(mutableListOf<Int>())
+
+        override fun run() {
+            started.add(name)
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            while (true) {
+                try {
+                    release.await()
+                    break
+                } catch (e: InterruptedException) {
+                    if (!stubborn) throw e
+                }
+            }
+            Thread.sleep(5)
+            running.decrementAndGet()
+        }
+
+        override fun onQueued(position: Int) {
+            positions.add(position)
+        }
+    }
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun testAdmission_limitedBySlots() {
+        val queue = TranscodeQueue(CodecSlots(2, 2, 2, 2), executor)
+        val futures = queue.enqueue(List(6) { Job("$it") })
+        futures.forEach { it.get(5, TimeUnit.SECONDS) }
+        assertEquals(6, started.size)
+        assertEquals(2, maxRunning.get())
+    }
+
+    @Test
+    fun testPriorities_andPositions() {
+        val queue = TranscodeQueue(CodecSlots(1, 1, 1, 1), executor)
+        val release = CountDownLatch(1)
+        val first = Job("first", release = release)
+        queue.enqueue(listOf(first))
+        val low = Job("low", priority = 0)
+        val high = Job("high", priority = 5)
+        val futures = queue.enqueue(listOf(low, high))
+        // First is running, high was queued after low but goes first.
+        assertEquals(listOf(1), low.positions)
+        assertEquals(listOf(0), high.positions)
+        release.countDown()
+        futures.forEach { it.get(5, TimeUnit.SECONDS) }
+        assertEquals(listOf("first", "high", "low"), started)
+        assertEquals(listOf(1, 0), low.positions)
+        assertTrue(first.positions.isEmpty())
+    }
+
+    @Test
+    fun testOversizedJob_runsAlone() {
+        val queue = TranscodeQueue(CodecSlots(1, 1, 0, 0), executor)
+        val futures = queue.enqueue(listOf(Job("big", slots = CodecSlots(1, 1, 1, 1)), Job("small")))
+        futures.forEach { it.get(5, TimeUnit.SECONDS) }
+        assertEquals(listOf("big", "small"), started)
+        assertEquals(1, maxRunning.get())
+    }
+
+    @Test
+    fun testCancelWhileQueued() {
+        val queue = TranscodeQueue(CodecSlots(1, 1, 1, 1), executor)
+        val release = CountDownLatch(1)
+        val (first, second, third) = queue.enqueue(listOf(Job("first", release = release), Job("second"), Job("third")))
+        second.cancel(true)
+        release.countDown()
+        first.get(5, TimeUnit.SECONDS)
+        third.get(5, TimeUnit.SECONDS)
+        assertEquals(listOf("first", "third"), started)
+    }
+
+    @Test
+    fun testCancelWhileRunning_keepsSlotsUntilReturned() {
+        val queue = TranscodeQueue(VIDEO, executor)
+        val release = CountDownLatch(1)
+        val (first) = queue.enqueue(listOf(Job("first", release = release, stubborn = true)))
+        while (started.isEmpty()) Thread.sleep(1)
+        first.cancel(true)
+        val (second) = queue.enqueue(listOf(Job("second")))
+        Thread.sleep(50)
+        assertEquals(listOf("first"), started)
+        release.countDown()
+        second.get(5, TimeUnit.SECONDS)
+        assertEquals(listOf("first", "second"), started)
+        assertEquals(1, maxRunning.get())
+    }
+
+    private fun pool(destroyed: MutableList<Any>) = CodecPool<Any>(
+            create = { _, _ -> Any() },
+            reset = { },
+            destroy = { destroyed.add(it) }
+    )
+
+    @Test
+    fun testIdleCodecs_releasedWhenTakingSlots() {
+        val destroyed = mutableListOf<Any>()
+        val pool = pool(destroyed)
+        pool.prefetch("video/avc", false)
+        val queue = TranscodeQueue(VIDEO, executor, pool)
+        queue.enqueue(listOf(Job("first"))).single().get(5, TimeUnit.SECONDS)
+        assertEquals(0, pool.idleCount)
+        assertEquals(1, destroyed.size)
+    }
+
+    @Test
+    fun testIdleCodecs_keptWhenSlotsAreFree() {
+        val destroyed = mutableListOf<Any>()
+        val pool = pool(destroyed)
+        pool.prefetch("video/avc", false)
+        pool.prefetch("audio/mp4a-latm", true)
+        val queue = TranscodeQueue(CodecSlots(2, 1, 0, 1), executor, pool)
+        queue.enqueue(listOf(Job("first"))).single().get(5, TimeUnit.SECONDS)
+        assertEquals(2, pool.idleCount)
+        assertTrue(destroyed.isEmpty())
+    }
+
+    companion object {
+        private val VIDEO = CodecSlots(1, 1, 0, 0)
+    }
+}
@@ -0,0 +1,109 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaFormat
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.source.DataSource
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class DemuxedDataSourceTest {
+
+    // Interleaved samples of one byte each, holding their index.
+    private class Source(private val types: List<TrackType>) : DataSource {
+        var read = 0
+        override fun initialize() = Unit
+        override fun deinitialize() = Unit
+        override fun isInitialized() = true
+        override fun getOrientation() = 0
+        override fun getLocation(): DoubleArray? = null
+        override fun getDurationUs() = types.size * 1000L
+        override fun getTrackFormat(type: TrackType): MediaFormat? = null
+        override fun selectTrack(type: TrackType) = Unit
+        override fun seekTo(desiredPositionUs: Long) = desiredPositionUs
+        override fun canReadTrack(type: TrackType) = !isDrained && types[read] == type
+        override fun readTrack(chunk: DataSource.Chunk) {
+            val position = chunk.buffer.position()
+            chunk.buffer.put(read.toByte())
+            chunk.buffer.limit(position + 1)
+            chunk.buffer.position(position)
+            chunk.keyframe = true
+            chunk.timeUs = read * 1000L
+            chunk.render = true
+            read++
+        }
+        override fun getPositionUs() = read * 1000L
+        override fun isDrained() = read == types.size
+        override fun releaseTrack(type: TrackType) = Unit
+        override fun rewind() { read = 0 }
+    }
+
+    private val v = TrackType.VIDEO
+    private val a = TrackType.AUDIO
+
+    private fun DataSource.read(type: TrackType): Byte? {
+        if (!canReadTrack(type)) return null
+        val chunk = DataSource.Chunk()
+        chunk.buffer = ByteBuffer.allocate(8)
+        readTrack(chunk)
+        assertEquals(1, chunk.buffer.remaining())
+        assertEquals(chunk.buffer.get(0) * 1000L, chunk.timeUs)
+        return chunk.buffer.get(0)
+    }
+
+    @Test
+    fun testTracksDoNotWaitForEachOther() {
+        val source = Source(listOf(v, v, v, a, a, v))
+        val demuxed = source.demuxed(sampleSize = { 8 })
+        assertEquals(3.toByte(), demuxed.read(a))
+        assertEquals(4.toByte(), demuxed.read(a))
+        assertEquals(null, demuxed.read(a))
+        assertEquals(listOf<Byte?>(0, 1, 2, 5), List(4) { demuxed.read(v) })
+        assertTrue(demuxed.isDrained)
+    }
+
+    @Test
+    fun testNotDrainedWhileQueued() {
+        val source = Source(listOf(v, a))
+        val demuxed = source.demuxed(sampleSize = { 8 })
+        assertEquals(1.toByte(), demuxed.read(a))
+        assertTrue(source.isDrained)
+        assertFalse(demuxed.isDrained)
+        assertEquals(0.toByte(), demuxed.read(v))
+        assertTrue(demuxed.isDrained)
+    }
+
+    @Test
+    fun testWaitsWhenFull() {
+        val source = Source(listOf(v, v, a))
+        val demuxed = source.demuxed(maxBytes = 1, sampleSize = { 8 })
+        assertEquals(null, demuxed.read(a))
+        assertEquals(0.toByte(), demuxed.read(v))
+        assertEquals(2.toByte(), demuxed.read(a))
+        assertEquals(1.toByte(), demuxed.read(v))
+    }
+
+    @Test
+    fun testWaitsWithoutSampleSize() {
+        val source = Source(listOf(v, a))
+        val demuxed = source.demuxed(sampleSize = { null })
+        assertEquals(null, demuxed.read(a))
+        assertEquals(0.toByte(), demuxed.read(v))
+        assertEquals(1.toByte(), demuxed.read(a))
+    }
+
+    @Test
+    fun testReleaseAndRewindDropQueuedSamples() {
+        val source = Source(listOf(v, v, a))
+        val demuxed = source.demuxed(sampleSize = { 8 })
+        assertEquals(2.toByte(), demuxed.read(a))
+        demuxed.releaseTrack(v)
+        assertTrue(demuxed.isDrained)
+        demuxed.rewind()
+        assertEquals(2.toByte(), demuxed.read(a))
+        demuxed.rewind()
+        assertEquals(0.toByte(), demuxed.read(v))
+    }
+}
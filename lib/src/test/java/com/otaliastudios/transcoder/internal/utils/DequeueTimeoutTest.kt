@@ -0,0 +1,63 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import com.otaliastudios.transcoder.backoff.DefaultBackoffPolicy
+import com.otaliastudios.transcoder.backoff.FixedBackoffPolicy
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class DequeueTimeoutTest {
+
+    private val policy = DefaultBackoffPolicy(100, 1000, 2, 8)
+
+    @Test
+    fun testDefaultPolicy_doublesUpToMax() {
+        assertEquals(100L, policy.getDequeueTimeoutUs(0, 0))
+        assertEquals(200L, policy.getDequeueTimeoutUs(1, 0))
+        assertEquals(800L, policy.getDequeueTimeoutUs(3, 0))
+        assertEquals(1000L, policy.getDequeueTimeoutUs(4, 0))
+        assertEquals(1000L, policy.getDequeueTimeoutUs(Int.MAX_VALUE, 0))
+        assertEquals(2L, policy.getParkTimeMs(0))
+        assertEquals(4L, policy.getParkTimeMs(1))
+        assertEquals(8L, policy.getParkTimeMs(10))
+    }
+
+    @Test
+    fun testDefaultPolicy_boundedByInterval() {
+        assertEquals(300L, policy.getDequeueTimeoutUs(3, 300))
+        // Never below the minimum.
+        assertEquals(100L, policy.getDequeueTimeoutUs(3, 10))
+    }
+
+    @Test
+    fun testTimeout_adaptsToCodec() {
+        val timeout = DequeueTimeout(policy)
+        assertEquals(100L, timeout.timeoutUs)
+        // Codec is producing a buffer every 500us.
+        var nowNs = 0L
+        repeat(10) {
+            nowNs += 500_000
+            timeout.record(true, nowNs)
+        }
+        assertEquals(500L, timeout.intervalUs)
+        assertEquals(100L, timeout.timeoutUs)
+        timeout.record(false)
+        assertEquals(200L, timeout.timeoutUs)
+        timeout.record(false)
+        timeout.record(false)
+        assertEquals(500L, timeout.timeoutUs)
+        timeout.record(true, nowNs + 500_000)
+        assertEquals(100L, timeout.timeoutUs)
+    }
+
+    @Test
+    fun testFixedPolicy() {
+        val timeout = DequeueTimeout(FixedBackoffPolicy(100, 2))
+        repeat(5) { timeout.record(false) }
+        assertEquals(100L, timeout.timeoutUs)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testDefaultPolicy_invalidBounds() {
+        DefaultBackoffPolicy(1000, 100, 2, 8)
+    }
+}
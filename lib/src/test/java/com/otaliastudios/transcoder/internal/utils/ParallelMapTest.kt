@@ -0,0 +1,74 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelMapTest {
+
+    private class Item(val value: Int)
+
+    @Test
+    fun testResultsKeepListOrder() {
+        val items = List(20) { Item(it) }
+        val results = items.parallelMap("Test", parallelism = 4) {
+            // Later items complete first.
+            Thread.sleep((20L - it.value) / 2)
+            it.value * 2
+        }
+        assertEquals(List(20) { it * 2 }, results)
+    }
+
+    @Test
+    fun testDuplicatesProcessedOnce() {
+        val item = Item(1)
+        val calls = AtomicInteger()
+        val results = listOf(item, Item(2), item).parallelMap("Test", parallelism = 3) {
+            calls.incrementAndGet()
+            it.value
+        }
+        assertEquals(2, calls.get())
+        assertEquals(listOf(1, 2, 1), results)
+    }
+
+    @Test
+    fun testSameKeyNeverConcurrent() {
+        val root = Item(0)
+        val items = List(8) { Item(it) }
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val results = items.parallelMap("Test", parallelism = 4, key = { if (it.value % 2 == 0) root else it }) {
+            if (it.value % 2 == 0) {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+                Thread.sleep(5)
+                running.decrementAndGet()
+            }
+            it.value
+        }
+        assertEquals(List(8) { it }, results)
+        assertEquals(1, maxRunning.get())
+    }
+
+    @Test
+    fun testFirstErrorInListOrder() {
+        val completed = Collections.synchronizedList(mutableListOf<Int>())
+        val items = List(6) { Item(it) }
+        try {
+            items.parallelMap("Test", parallelism = 3) {
+                when (it.value) {
+                    // The later failure happens first.
+                    1 -> { Thread.sleep(20); error("1") }
+                    4 -> error("4")
+                    else -> completed.add(it.value)
+                }
+            }
+            fail("Should have thrown.")
+        } catch (e: IllegalStateException) {
+            assertEquals("1", e.message)
+        }
+        // All other items were still processed.
+        assertEquals(listOf(0, 2, 3, 5), completed.sorted())
+    }
+}
@@ -0,0 +1,88 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import android.media.MediaFormat
+import com.otaliastudios.transcoder.common.TrackType
+import com.otaliastudios.transcoder.source.DataSource
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class PrefetchedDataSourceTest {
+
+    // Audio samples of one byte each, holding their index.
+    private class Source(private val samples: Int) : DataSource {
+        var read = 0
+        override fun initialize() = Unit
+        override fun deinitialize() = Unit
+        override fun isInitialized() = true
+        override fun getOrientation() = 0
+        override fun getLocation(): DoubleArray? = null
+        override fun getDurationUs() = samples * 1000L
+        override fun getTrackFormat(type: TrackType): MediaFormat? = null
+        override fun selectTrack(type: TrackType) = Unit
+        override fun seekTo(desiredPositionUs: Long) = desiredPositionUs
+        override fun canReadTrack(type: TrackType) = type == TrackType.AUDIO && !isDrained
+        override fun readTrack(chunk: DataSource.Chunk) {
+            val position = chunk.buffer.position()
+            chunk.buffer.put(read.toByte())
+            chunk.buffer.limit(position + 1)
+            chunk.buffer.position(position)
+            chunk.keyframe = read == 0
+            chunk.timeUs = read * 1000L
+            chunk.render = true
+            read++
+        }
+        override fun getPositionUs() = read * 1000L
+        override fun isDrained() = read == samples
+        override fun releaseTrack(type: TrackType) = Unit
+        override fun rewind() { read = 0 }
+    }
+
+    private fun DataSource.readAll(): List<Pair<Byte, Long>> {
+        val result = mutableListOf<Pair<Byte, Long>>()
+        val chunk = DataSource.Chunk()
+        while (!isDrained) {
+            assertTrue(canReadTrack(TrackType.AUDIO))
+            chunk.buffer = ByteBuffer.allocate(16)
+            chunk.buffer.position(4)
+            readTrack(chunk)
+            assertEquals(4, chunk.buffer.position())
+            result += chunk.buffer.get(4) to chunk.timeUs
+        }
+        return result
+    }
+
+    private fun prefetch(source: DataSource) = DataSource.Chunk().also {
+        it.buffer = ByteBuffer.allocate(8)
+        source.readTrack(it)
+    }
+
+    @Test
+    fun testPrefetchedSampleIsServedFirst() {
+        val source = Source(3)
+        val prefetched = source.prefetched(TrackType.AUDIO, prefetch(source))
+        assertFalse(prefetched.canReadTrack(TrackType.VIDEO))
+        val samples = prefetched.readAll()
+        assertEquals(listOf<Pair<Byte, Long>>(0.toByte() to 0L, 1.toByte() to 1000L, 2.toByte() to 2000L), samples)
+    }
+
+    @Test
+    fun testNotDrainedWhileHoldingSample() {
+        val source = Source(1)
+        val prefetched = source.prefetched(TrackType.AUDIO, prefetch(source))
+        assertTrue(source.isDrained)
+        assertFalse(prefetched.isDrained)
+        assertEquals(1, prefetched.readAll().size)
+        assertTrue(prefetched.isDrained)
+    }
+
+    @Test
+    fun testRewindDropsPrefetchedSample() {
+        val source = Source(2)
+        val prefetched = source.prefetched(TrackType.AUDIO, prefetch(source))
+        prefetched.rewind()
+        assertEquals(listOf<Byte>(0, 1), prefetched.readAll().map { it.first })
+    }
+}
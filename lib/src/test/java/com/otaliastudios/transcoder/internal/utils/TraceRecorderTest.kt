@@ -0,0 +1,45 @@
+package com.otaliastudios.transcoder.internal.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import kotlin.concurrent.thread
+
+class TraceRecorderTest {
+
+    @Test
+    fun testEvents() {
+        val file = File.createTempFile("trace", ".json")
+        try {
+            val recorder = TraceRecorder(file)
+            recorder.trace("test", "main") { Thread.sleep(1) }
+            thread(name = "Worker") {
+                recorder.trace("test", "worker \"quoted\"") { Unit }
+            }.join()
+            recorder.close()
+
+            val lines = file.readLines()
+            assertEquals("[", lines.first())
+            assertEquals("]", lines.last())
+            val events = lines.drop(1).dropLast(1)
+            // Two thread names and two complete events.
+            assertEquals(4, events.size)
+            assertEquals(2, events.count { it.contains("\"ph\":\"M\"") })
+            assertEquals(2, events.count { it.contains("\"ph\":\"X\"") })
+            assertTrue(events.any { it.contains("\"name\":\"Worker\"") })
+            assertTrue(events.any { it.contains("worker \\\"quoted\\\"") })
+            assertTrue(events.dropLast(1).all { it.endsWith(",") })
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun testDisabled() {
+        var called = false
+        val result = Tracer.NONE.trace("test", "none") { called = true; 5 }
+        assertTrue(called)
+        assertEquals(5, result)
+    }
+}
@@ -0,0 +1,153 @@
+package com.otaliastudios.transcoder.resample
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+class PolyphaseAudioResamplerTest {
+
+    private fun sine(frames: Int, rate: Int, frequency: Double, channels: Int = 1) = ShortArray(frames * channels) {
+        val frame = it / channels
+        (10000 * sin(2 * PI * frequency * frame / rate)).roundToInt().toShort()
+    }
+
+    private fun AudioResampler.resampleAll(input: ShortArray, inRate: Int, outRate: Int, channels: Int, chunk: Int = input.size): ShortArray {
+        val output = ShortBuffer.allocate(input.size * outRate / inRate + 1024)
+        var position = 0
+        while (position < input.size) {
+            val size = minOf(chunk, input.size - position)
+            resample(ShortBuffer.wrap(input, position, size), inRate, output, outRate, channels)
+            position += size
+        }
+        output.flip()
+        return ShortArray(output.remaining()).also { output.get(it) }
+    }
+
+    private fun assertSine(output: ShortArray, rate: Int, frequency: Double, channels: Int = 1) {
+        val frames = output.size / channels
+        // Skip the edges, where the filter sees the leading silence.
+        for (frame in 64 until frames - 64) {
+            val expected = 10000 * sin(2 * PI * frequency * frame / rate)
+            for (c in 0 until channels) {
+                val actual = output[frame * channels + c]
+                assertTrue("frame $frame: expected $expected, got $actual", abs(actual - expected) < 20)
+            }
+        }
+    }
+
+    @Test
+    fun testDownsample() {
+        val output = PolyphaseAudioResampler().resampleAll(sine(48000, 48000, 1000.0), 48000, 44100, 1)
+        assertTrue(abs(output.size - 44100) < 64)
+        assertSine(output, 44100, 1000.0)
+    }
+
+    @Test
+    fun testUpsample() {
+        val output = PolyphaseAudioResampler().resampleAll(sine(22050, 22050, 440.0, 2), 22050, 48000, 2)
+        assertTrue(abs(output.size / 2 - 48000) < 64)
+        assertSine(output, 48000, 440.0, 2)
+    }
+
+    @Test
+    fun testUnusualRates() {
+        val output = PolyphaseAudioResampler().resampleAll(sine(44100, 44100, 1000.0), 44100, 47999, 1)
+        assertSine(output, 47999, 1000.0)
+    }
+
+    @Test
+    fun testChunkBoundariesAreSeamless() {
+        val input = sine(10000, 44100, 1000.0, 2)
+        val whole = PolyphaseAudioResampler().resampleAll(input, 44100, 32000, 2)
+        val chunked = PolyphaseAudioResampler().resampleAll(input, 44100, 32000, 2, chunk = 2 * 97)
+        assertArrayEquals(whole, chunked)
+    }
+
+    @Test
+    fun testManyChannels() {
+        // A constant value per channel, which the filter must preserve.
+        val channels = 6
+        val input = ShortArray(4800 * channels) { (1000 * (it % channels)).toShort() }
+        val output = PolyphaseAudioResampler().resampleAll(input, 48000, 16000, channels)
+        for (frame in 32 until output.size / channels - 32) {
+            for (c in 0 until channels) {
+                assertTrue(abs(output[frame * channels + c] - 1000 * c) <= 1)
+            }
+        }
+    }
+
+    @Test
+    fun testSmallOutputBuffer() {
+        val input = sine(4410, 44100, 1000.0)
+        val expected = PolyphaseAudioResampler().resampleAll(input, 44100, 48000, 1)
+        val resampler = PolyphaseAudioResampler()
+        val output = ShortBuffer.allocate(expected.size)
+        val small = ShortBuffer.allocate(100)
+        val chunk = 441
+        for (position in input.indices step chunk) {
+            small.clear()
+            resampler.resample(ShortBuffer.wrap(input, position, chunk), 44100, small, 48000, 1)
+            small.flip()
+            output.put(small)
+        }
+        // Frames that did not fit are returned by the next calls.
+        while (output.hasRemaining()) {
+            small.clear()
+            small.limit(minOf(small.capacity(), output.remaining()))
+            resampler.resample(ShortBuffer.allocate(0), 44100, small, 48000, 1)
+            small.flip()
+            if (!small.hasRemaining()) break
+            output.put(small)
+        }
+        assertArrayEquals(expected, output.array())
+    }
+
+    // Resamples the input as one stream, flushing the pending frames through a small buffer.
+    private fun AudioResampler.resampleStream(input: ShortArray, channels: Int): ShortArray {
+        val output = ShortBuffer.allocate(input.size * 2)
+        resample(ShortBuffer.wrap(input), 44100, output, 48000, channels)
+        assertTrue(pendingFrames > 0)
+        val small = ShortBuffer.allocate(8)
+        do {
+            small.clear()
+            val more = flush(small, channels)
+            small.flip()
+            output.put(small)
+        } while (more)
+        assertEquals(0, pendingFrames)
+        output.flip()
+        return ShortArray(output.remaining()).also { output.get(it) }
+    }
+
+    @Test
+    fun testFlush_writesPendingFrames() {
+        val input = sine(4410, 44100, 1000.0, 2)
+        val output = PolyphaseAudioResampler().resampleStream(input, 2)
+        // Same duration as the input.
+        assertEquals(4800, output.size / 2)
+    }
+
+    @Test
+    fun testFlush_resetsForNextStream() {
+        val input = sine(4410, 44100, 1000.0)
+        val resampler = PolyphaseAudioResampler()
+        val first = resampler.resampleStream(input, 1)
+        val second = resampler.resampleStream(input, 1)
+        assertArrayEquals(first, second)
+    }
+
+    @Test
+    fun testFiltersAreCached() {
+        val first = PolyphaseAudioResampler.filterOf(44100, 48000)
+        val second = PolyphaseAudioResampler.filterOf(44100, 48000)
+        assertTrue(first === second)
+        assertEquals(160, first.up)
+        assertEquals(147, first.down)
+    }
+}
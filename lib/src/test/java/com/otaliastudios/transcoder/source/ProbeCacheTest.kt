@@ -0,0 +1,91 @@
+package com.otaliastudios.transcoder.source
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ProbeCacheTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun testMemory_evictsLeastRecentlyUsed() {
+        val cache = ProbeCache(2)
+        cache.put("a", ProbeCache.DURATION, "1")
+        cache.put("b", ProbeCache.DURATION, "2")
+        cache.get("a", ProbeCache.DURATION) // a is now the most recent
+        cache.put("c", ProbeCache.DURATION, "3")
+        assertEquals("1", cache.get("a", ProbeCache.DURATION))
+        assertNull(cache.get("b", ProbeCache.DURATION))
+        assertEquals("3", cache.get("c", ProbeCache.DURATION))
+    }
+
+    @Test
+    fun testDisk_survivesNewInstance() {
+        val directory = folder.newFolder()
+        ProbeCache(10, directory).apply {
+            put("a", ProbeCache.DURATION, "1")
+            put("a", ProbeCache.ORIENTATION, "90")
+        }
+        val cache = ProbeCache(10, directory)
+        assertEquals("1", cache.get("a", ProbeCache.DURATION))
+        assertEquals("90", cache.get("a", ProbeCache.ORIENTATION))
+        cache.clear()
+        assertNull(ProbeCache(10, directory).get("a", ProbeCache.DURATION))
+    }
+
+    // Puts a and b, and makes a older than b on disk.
+    private fun ProbeCache.putOldEntries(directory: File) {
+        put("a", ProbeCache.DURATION, "1")
+        directory.listFiles()!!.single().setLastModified(1000L)
+        put("b", ProbeCache.DURATION, "2")
+        directory.listFiles()!!.single { it.lastModified() != 1000L }.setLastModified(2000L)
+    }
+
+    @Test
+    fun testDisk_evictsOldestFiles() {
+        val directory = folder.newFolder()
+        val cache = ProbeCache(2, directory)
+        cache.putOldEntries(directory)
+        cache.put("c", ProbeCache.DURATION, "3")
+        assertEquals(2, directory.listFiles()!!.size)
+        val reloaded = ProbeCache(2, directory)
+        assertNull(reloaded.get("a", ProbeCache.DURATION))
+        assertEquals("2", reloaded.get("b", ProbeCache.DURATION))
+    }
+
+    @Test
+    fun testDisk_memoryHitsTouchFiles() {
+        val directory = folder.newFolder()
+        val cache = ProbeCache(2, directory)
+        cache.putOldEntries(directory)
+        cache.get("a", ProbeCache.DURATION) // from memory
+        cache.put("c", ProbeCache.DURATION, "3")
+        val reloaded = ProbeCache(2, directory)
+        assertEquals("1", reloaded.get("a", ProbeCache.DURATION))
+        assertNull(reloaded.get("b", ProbeCache.DURATION))
+    }
+
+    @Test
+    fun testDisabled() {
+        val cache = ProbeCache(0)
+        cache.put("a", ProbeCache.DURATION, "1")
+        assertNull(cache.get("a", ProbeCache.DURATION))
+        assertNull(cache.get(null, ProbeCache.DURATION))
+    }
+
+    @Test
+    fun testFileKey_changesWithContent() {
+        val file = folder.newFile()
+        assertNull(ProbeCache.keyOf(file)) // empty
+        file.writeText("first")
+        val first = ProbeCache.keyOf(file)
+        file.writeText("second!")
+        assertNotEquals(first, ProbeCache.keyOf(file))
+    }
+}
@@ -0,0 +1,21 @@
+package com.otaliastudios.transcoder.stretch
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+
+class InsertAudioStretcherTest {
+
+    @Test
+    fun testInsertWritesAllSamples() {
+        val input = ShortArray(1000) { (it + 1000).toShort() }
+        val output = ShortBuffer.allocate(1500)
+        InsertAudioStretcher().stretch(ShortBuffer.wrap(input), output, 1)
+        assertEquals(output.limit(), output.position())
+        // Input samples appear in order, spread over the whole output.
+        val kept = output.array().filter { it >= 1000 }
+        assertEquals(input.toList(), kept)
+        assertTrue(output.array().take(750).count { it >= 1000 } in 450..550)
+    }
+}
@@ -0,0 +1,110 @@
+package com.otaliastudios.transcoder.stretch
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+class WsolaAudioStretcherTest {
+
+    private fun sine(frames: Int, frequency: Double, channels: Int = 1) = ShortArray(frames * channels) {
+        (10000 * sin(2 * PI * frequency * (it / channels) / 48000)).roundToInt().toShort()
+    }
+
+    // Stretches input in decoder-sized chunks, with a factor that may change for each chunk,
+    // then flushes the pending frames into buffers of the given size.
+    private fun AudioStretcher.stretchAll(input: ShortArray, channels: Int, flushSize: Int = 4096, stretch: (Int) -> Double): ShortArray {
+        val result = mutableListOf<Short>()
+        val chunk = 1024 * channels
+        var position = 0
+        var index = 0
+        while (position < input.size) {
+            val inputBuffer = ShortBuffer.wrap(input, position, minOf(chunk, input.size - position))
+            val output = ShortBuffer.allocate(ceil(inputBuffer.remaining() * stretch(index++)).toInt())
+            stretch(inputBuffer, output, channels)
+            assertEquals(inputBuffer.limit(), inputBuffer.position())
+            position = inputBuffer.limit()
+            result += output.array().take(output.position())
+        }
+        do {
+            val output = ShortBuffer.allocate(flushSize)
+            val more = flush(output, channels)
+            result += output.array().take(output.position())
+        } while (more)
+        assertEquals(0, pendingFrames)
+        return result.toShortArray()
+    }
+
+    // Estimates the frequency of a mono signal from its zero crossings.
+    private fun frequency(samples: ShortArray, from: Int, to: Int): Double {
+        var crossings = 0
+        for (i in from + 1 until to) {
+            if ((samples[i - 1] < 0) != (samples[i] < 0)) crossings++
+        }
+        return crossings / 2.0 * 48000 / (to - from)
+    }
+
+    @Test
+    fun testUnityIsInput() {
+        val input = sine(48000, 440.0, channels = 2)
+        for (flushSize in listOf(100, 4096)) {
+            val output = WsolaAudioStretcher().stretchAll(input, 2, flushSize) { 1.0 }
+            assertEquals(input.size, output.size)
+            for (i in output.indices) {
+                assertTrue("sample $i", abs(output[i] - input[i]) <= 1)
+            }
+        }
+    }
+
+    @Test
+    fun testPendingFrames() {
+        val stretcher = WsolaAudioStretcher()
+        val input = ShortBuffer.wrap(sine(4096, 440.0))
+        val output = ShortBuffer.allocate(4096)
+        assertEquals(0, stretcher.pendingFrames)
+        stretcher.stretch(input, output, 1)
+        // What is not in the output yet is pending.
+        assertEquals(4096 - output.position(), stretcher.pendingFrames)
+        assertEquals(WsolaAudioStretcher.LATENCY, stretcher.pendingFrames)
+    }
+
+    @Test
+    fun testDurationIsStretched() {
+        for (stretch in listOf(0.5, 0.8, 1.5, 2.0)) {
+            val input = sine(48000, 1000.0)
+            val output = WsolaAudioStretcher().stretchAll(input, 1) { stretch }
+            assertEquals("stretch $stretch", input.size * stretch, output.size.toDouble(), 64.0)
+        }
+    }
+
+    @Test
+    fun testPitchIsPreserved() {
+        val input = sine(48000, 1000.0)
+        for (stretch in listOf(0.5, 0.8, 1.5, 2.0)) {
+            val output = WsolaAudioStretcher().stretchAll(input, 1) { stretch }
+            val frequency = frequency(output, 4096, output.size - 4096)
+            assertEquals("stretch $stretch", 1000.0, frequency, 20.0)
+        }
+    }
+
+    @Test
+    fun testSpeedRamp() {
+        val input = sine(48000 * 2, 500.0, channels = 2)
+        val output = WsolaAudioStretcher().stretchAll(input, 2) { 0.5 + it / 50.0 }
+        val left = ShortArray(output.size / 2) { output[it * 2] }
+        assertEquals(500.0, frequency(left, 4096, left.size - 4096), 10.0)
+    }
+
+    @Test
+    fun testAnyChannelCount() {
+        for (channels in 1..8) {
+            val input = sine(8192, 300.0, channels)
+            WsolaAudioStretcher().stretchAll(input, channels) { 1.3 }
+        }
+    }
+}
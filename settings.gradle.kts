@@ -17,3 +17,4 @@ dependencyResolutionManagement {
 include(":lib")
 include(":lib-legacy")
 include(":demo")
+include(":benchmarks")